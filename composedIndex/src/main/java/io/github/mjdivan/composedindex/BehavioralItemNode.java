@@ -37,6 +37,14 @@ public class BehavioralItemNode {
      * The estimated sample variance for the attributeID in the projectID
      */
     private Double var; 
+    /**
+     * The packed store where the statistics are also kept, null when the item is not attached
+     */
+    private BehavioralStatsStore store;
+    /**
+     * The position of the item into the store
+     */
+    private int slot;
 
     public BehavioralItemNode()
     {
@@ -124,8 +132,9 @@ public class BehavioralItemNode {
     /**
      * @param mean the mean to set
      */
-    public void setMean(Double mean) {
+    public synchronized void setMean(Double mean) {
         this.mean = mean;
+        writeThrough();
     }
 
     /**
@@ -139,11 +148,12 @@ public class BehavioralItemNode {
      * @param n the n to set
      * @throws org.ciedayap.ipd.exception.ProcessingException it is raised when n is lower than one
      */
-    public void setN(Integer n) throws ProcessingException 
+    public synchronized void setN(Integer n) throws ProcessingException 
     {
         if(n!=null && n<1) throw new ProcessingException("n must be higher or equal to one");
         
         this.n = n;
+        writeThrough();
     }
 
     /**
@@ -156,9 +166,48 @@ public class BehavioralItemNode {
     /**
      * @param var the var to set
      */
-    public void setVar(Double var) {
+    public synchronized void setVar(Double var) {
         if(var==null || var<0) return;
         this.var = var;
+        writeThrough();
+    }
+
+    /**
+     * It updates the mean, variance, and n at once, so the packed store receives them as a single update.
+     * As it happens with setVar, a null or negative variance keeps the previous one.
+     * @param pmean The mean
+     * @param pvar The variance
+     * @param pn The number of elements in the sample
+     * @throws ProcessingException it is raised when n is lower than one
+     */
+    public synchronized void setStats(Double pmean,Double pvar,Integer pn) throws ProcessingException
+    {
+        if(pn!=null && pn<1) throw new ProcessingException("n must be higher or equal to one");
+        
+        this.n = pn;
+        this.mean = pmean;
+        if(pvar!=null && pvar>=0) this.var = pvar;
+        writeThrough();
+    }
+
+    /**
+     * It attaches the item to a position into a packed store, copying its current values
+     * @param pstore The store
+     * @param pslot The position of the item into the store
+     */
+    protected synchronized void attach(BehavioralStatsStore pstore,int pslot)
+    {
+        this.store=pstore;
+        this.slot=pslot;
+        writeThrough();
+    }
+
+    /**
+     * It copies the current values into the packed store when the item is attached
+     */
+    private void writeThrough()
+    {
+        if(store!=null) store.set(slot, mean, var, n);
     }
 
 }
@@ -21,6 +21,19 @@ import org.ciedayap.ipd.requirements.Attributes;
 public class BehavioralNode {
     private ArrayList<BehavioralItemNode> attributes;
     private ArrayList<BehavioralItemNode> contextProperties;
+    /**
+     * The packed statistics of the attributes, indexed by their position into the list
+     */
+    private BehavioralStatsStore attributeStats;
+    /**
+     * The packed statistics of the context properties, indexed by their position into the list
+     */
+    private BehavioralStatsStore contextPropertyStats;
+    /**
+     * It is increased each time that some packed store is replaced, so the compiled signatures reading
+     * the previous store can detect it (See getStatsVersion)
+     */
+    private volatile int statsVersion=0;
     
     public BehavioralNode()
     {
@@ -66,6 +79,9 @@ public class BehavioralNode {
                 contextProperties.add(BehavioralItemNode.create(mp.getID(), cp.getID(), false, null, null, null));
             }
         }
+        
+        attributeStats=BehavioralStatsStore.create(attributes);
+        contextPropertyStats=BehavioralStatsStore.create(contextProperties);
     }
 
     /**
@@ -107,8 +123,26 @@ public class BehavioralNode {
     /**
      * @param attributes the attributes to set
      */
-    public void setAttributes(ArrayList<BehavioralItemNode> attributes) {
+    public synchronized void setAttributes(ArrayList<BehavioralItemNode> attributes) {
         this.attributes = attributes;
+        this.attributeStats = BehavioralStatsStore.create(attributes);
+        statsVersion++;
+    }
+
+    /**
+     * It returns the packed statistics of the attributes, indexed by their position into the list.
+     * The store is rebuilt when items were added or removed from the list.
+     * @return The packed statistics, null when there are no attributes
+     */
+    public synchronized BehavioralStatsStore getAttributeStats() {
+        if(attributes==null) return null;
+        if(attributeStats==null || attributeStats.size()!=attributes.size())
+        {
+            attributeStats=BehavioralStatsStore.create(attributes);
+            statsVersion++;
+        }
+        
+        return attributeStats;
     }
 
     /**
@@ -138,7 +172,46 @@ public class BehavioralNode {
     /**
      * @param contextProperties the contextProperties to set
      */
-    public void setContextProperties(ArrayList<BehavioralItemNode> contextProperties) {
+    public synchronized void setContextProperties(ArrayList<BehavioralItemNode> contextProperties) {
         this.contextProperties = contextProperties;
+        this.contextPropertyStats = BehavioralStatsStore.create(contextProperties);
+        statsVersion++;
+    }
+
+    /**
+     * It returns the packed statistics of the context properties, indexed by their position into the list.
+     * The store is rebuilt when items were added or removed from the list.
+     * @return The packed statistics, null when there are no context properties
+     */
+    public synchronized BehavioralStatsStore getContextPropertyStats() {
+        if(contextProperties==null) return null;
+        if(contextPropertyStats==null || contextPropertyStats.size()!=contextProperties.size())
+        {
+            contextPropertyStats=BehavioralStatsStore.create(contextProperties);
+            statsVersion++;
+        }
+        
+        return contextPropertyStats;
+    }
+    
+    /**
+     * It informs the version of the packed statistics. It changes each time that a store is replaced, for instance,
+     * when the lists are set again or when items were added to (or removed from) them. In such cases, the stores are
+     * rebuilt here, so the signatures compiled under a previous version must be compiled again.
+     * @return The version of the packed statistics
+     */
+    public int getStatsVersion() {
+        ArrayList<BehavioralItemNode> atts=attributes;
+        ArrayList<BehavioralItemNode> ctx=contextProperties;
+        BehavioralStatsStore attStats=attributeStats;
+        BehavioralStatsStore ctxStats=contextPropertyStats;
+        if((atts!=null && (attStats==null || attStats.size()!=atts.size())) ||
+                (ctx!=null && (ctxStats==null || ctxStats.size()!=ctx.size())))
+        {
+            getAttributeStats();
+            getContextPropertyStats();
+        }
+        
+        return statsVersion;
     }
 }
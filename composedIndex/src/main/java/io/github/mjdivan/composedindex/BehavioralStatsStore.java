@@ -0,0 +1,224 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * It keeps the statistics of the attributes (or context properties) of a project packed in primitive arrays,
+ * indexed by the position of each item into the list of the behavioral node (dense index). The missing values
+ * are indicated with NaN (mean, variance, and variance divided by n) or zero (n), so the Z-test interpretations
+ * (See equations 8/11 and 9/12) are computed using primitive arithmetic without unboxing or null checks.
+ * <p>The store is kept up to date by the items themselves: each BehavioralItemNode attached to the store
+ * writes its new values through its setters. The updates are written under the write lock of a StampedLock, 
+ * while the workers read optimistically (i.e., as a seqlock): when an update happened meanwhile, the values are 
+ * read again under the read lock. So, the mean of an update is never read together with the variance or n of another one,
+ * and neither the updates nor the reads allocate memory.</p>
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class BehavioralStatsStore {
+    /**
+     * The estimated sample arithmetic mean of each item
+     */
+    private final double mean[];
+    /**
+     * The estimated sample variance of each item
+     */
+    private final double var[];
+    /**
+     * The number of elements in the sample of each item, zero when it is not available
+     */
+    private final int n[];
+    /**
+     * The variance divided by n of each item (i.e., the squared standard error)
+     */
+    private final double spread[];
+    /**
+     * The lock stamping the updates of the store
+     */
+    private final StampedLock lock=new StampedLock();
+
+    /**
+     * It creates a new store where all the values are missing
+     * @param size The number of items
+     */
+    public BehavioralStatsStore(int size)
+    {
+        mean=new double[size];
+        var=new double[size];
+        n=new int[size];
+        spread=new double[size];
+        Arrays.fill(mean, Double.NaN);
+        Arrays.fill(var, Double.NaN);
+        Arrays.fill(spread, Double.NaN);
+    }
+
+    /**
+     * It creates a store containing the current values of the items, attaching each item to its position.
+     * @param items The attributes (or context properties) of a project
+     * @return A new store, null when the list is null
+     */
+    public synchronized static BehavioralStatsStore create(ArrayList<BehavioralItemNode> items)
+    {
+        if(items==null) return null;
+
+        BehavioralStatsStore store=new BehavioralStatsStore(items.size());
+        for(int i=0;i<items.size();i++)
+        {
+            BehavioralItemNode item=items.get(i);
+            if(item!=null) item.attach(store, i);
+        }
+
+        return store;
+    }
+
+    /**
+     * It updates the values related to an item, publishing them at once
+     * @param slot The position of the item
+     * @param pmean The mean, null when it is not available
+     * @param pvar The variance, null when it is not available
+     * @param pn The number of elements in the sample, null when it is not available
+     */
+    public void set(int slot,Double pmean,Double pvar,Integer pn)
+    {
+        double m=(pmean==null)?Double.NaN:pmean;
+        double v=(pvar==null)?Double.NaN:pvar;
+        int count=(pn==null)?0:pn;
+
+        long stamp=lock.writeLock();
+        try{
+            mean[slot]=m;
+            var[slot]=v;
+            n[slot]=count;
+            spread[slot]=(count==0)?Double.NaN:v/count;
+        }finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the number of items
+     */
+    public int size() {
+        return mean.length;
+    }
+
+    /**
+     * @param slot The position of the item
+     * @return the mean, NaN when it is not available
+     */
+    public double getMean(int slot) {
+        long stamp=lock.tryOptimisticRead();
+        double value=mean[slot];
+        if(lock.validate(stamp)) return value;
+
+        stamp=lock.readLock();
+        try{
+            return mean[slot];
+        }finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param slot The position of the item
+     * @return the variance, NaN when it is not available
+     */
+    public double getVar(int slot) {
+        long stamp=lock.tryOptimisticRead();
+        double value=var[slot];
+        if(lock.validate(stamp)) return value;
+
+        stamp=lock.readLock();
+        try{
+            return var[slot];
+        }finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param slot The position of the item
+     * @return the number of elements in the sample, zero when it is not available
+     */
+    public int getN(int slot) {
+        long stamp=lock.tryOptimisticRead();
+        int value=n[slot];
+        if(lock.validate(stamp)) return value;
+
+        stamp=lock.readLock();
+        try{
+            return n[slot];
+        }finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param slot The position of the item
+     * @return the variance divided by n (See equations 8/11), NaN when it is not available
+     */
+    public double getSpread(int slot) {
+        long stamp=lock.tryOptimisticRead();
+        double value=spread[slot];
+        if(lock.validate(stamp)) return value;
+
+        stamp=lock.readLock();
+        try{
+            return spread[slot];
+        }finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * It copies the mean and the variance divided by n of an item, both of them taken from the same update
+     * @param slot The position of the item
+     * @param means The array receiving the mean
+     * @param spreads The array receiving the variance divided by n
+     * @param index The position into the arrays
+     */
+    public void copyTo(int slot,double means[],double spreads[],int index)
+    {
+        long stamp=lock.tryOptimisticRead();
+        double m=mean[slot];
+        double s=spread[slot];
+        if(!lock.validate(stamp))
+        {
+            stamp=lock.readLock();
+            try{
+                m=mean[slot];
+                s=spread[slot];
+            }finally{
+                lock.unlockRead(stamp);
+            }
+        }
+
+        means[index]=m;
+        spreads[index]=s;
+    }
+
+    /**
+     * @param slot The position of the item
+     * @return TRUE when the mean, variance, and n are available, FALSE otherwise
+     */
+    public boolean isPresent(int slot) {
+        long stamp=lock.tryOptimisticRead();
+        boolean present=!Double.isNaN(mean[slot]) && !Double.isNaN(spread[slot]);
+        if(lock.validate(stamp)) return present;
+
+        stamp=lock.readLock();
+        try{
+            return !Double.isNaN(mean[slot]) && !Double.isNaN(spread[slot]);
+        }finally{
+            lock.unlockRead(stamp);
+        }
+    }
+}
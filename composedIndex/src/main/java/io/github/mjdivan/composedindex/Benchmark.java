@@ -0,0 +1,255 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import org.ciedayap.ipd.IPD;
+import org.ciedayap.ipd.exception.ProcessingException;
+import org.ciedayap.ipd.utils.Sample;
+
+/**
+ * This class implements the command-line benchmarks of the composed index. Each benchmark warms up the
+ * measured code before recording the indicated number of iterations, and the results are stored in the file
+ * indicated as argument.
+ * <p>Usage: Benchmark (tiling|allocation) outputFile [maxNofProjects] [iterations]</p>
+ * <ul>
+ * <li>tiling: It compares the cell-at-a-time and the tiled computation when the number of projects varies</li>
+ * <li>allocation: It measures the bytes allocated per pair in the composed distance (node-based against allocation-free).
+ * The allocated bytes are reported as NaN when the JVM does not provide them.</li>
+ * </ul>
+ * @author mjdivan
+ * @version 1.0
+ */
+public class Benchmark {
+    /**
+     * The default maximum number of projects
+     */
+    public static final int DEFAULT_MAX_PROJECTS=500;
+    /**
+     * The default number of measured iterations
+     */
+    public static final int DEFAULT_ITERATIONS=5;
+    /**
+     * The number of warm-up iterations
+     */
+    public static final int WARMUP_ITERATIONS=2;
+
+    public static void main(String args[]) throws ProcessingException, Exception
+    {
+        if(args==null || args.length<2)
+        {
+            System.out.println("Usage: Benchmark (tiling|allocation) outputFile [maxNofProjects] [iterations]");
+            return;
+        }
+
+        int maxNofProjects=(args.length>2)?Integer.parseInt(args[2]):DEFAULT_MAX_PROJECTS;
+        int iterations=(args.length>3)?Integer.parseInt(args[3]):DEFAULT_ITERATIONS;
+
+        ArrayList<ArrayList> list;
+        switch(args[0])
+        {
+            case "tiling":
+                list=tiling(maxNofProjects,iterations);
+                break;
+            case "allocation":
+                list=allocation(maxNofProjects,iterations);
+                break;
+            default:
+                throw new ProcessingException("Unknown benchmark: "+args[0]);
+        }
+
+        Sample.store(args[1], list, ";");
+    }
+
+    /**
+     * It compares the distances computation time between the cell-at-a-time loop (tile size 0) and the tiled
+     * computation using different tile sizes, for both the OBJECT and TILED storages.
+     * @param maxNofProjects The maximum number of projects
+     * @param iterations The number of measured iterations for each configuration
+     * @return An array with the measures in the following order: #Projects, Storage mode, Tile size, Iteration, Distances computation time (ns)
+     * @throws ProcessingException It is raised when some inconvenient occures in the message creation
+     * @throws Exception It is raised when the matrix could not be created
+     */
+    public static ArrayList tiling(int maxNofProjects,int iterations) throws ProcessingException, Exception
+    {
+        if(maxNofProjects<50) throw new ProcessingException("The number of projects must be higher or equal to 50");
+        if(iterations<1) throw new ProcessingException("The number of iterations must be higher or equal to 1");
+
+        System.out.println("Tiled computation - To Vary the Number of projects between [50;"+maxNofProjects+"]");
+        System.out.println("Starting the tiling benchmark ["+ZonedDateTime.now()+"]...");
+
+        ArrayList results=new ArrayList();
+        ArrayList titles=new ArrayList();
+        titles.add("#Projects");
+        titles.add("Storage mode");
+        titles.add("Tile size");
+        titles.add("Iteration");
+        titles.add("Distances Computation time (ns)");
+        results.add(titles);
+
+        int tileSizes[]={0,16,32,64};
+        for(int i=50;i<=maxNofProjects;i+=50)
+        {
+            System.out.println("["+i+"] "+ZonedDateTime.now());
+            IPD message=Sample.generateIPDMessage(i,i);//ID, #Projects
+
+            for(MatrixStorageMode mode:new MatrixStorageMode[]{MatrixStorageMode.OBJECT,MatrixStorageMode.TILED})
+            {
+                for(int tileSize:tileSizes)
+                {
+                    if(mode==MatrixStorageMode.TILED && tileSize==0) continue;
+
+                    ComposedIndex ci=new ComposedIndex(message,mode);
+                    ci.setTileSize(tileSize);
+
+                    for(int it=-WARMUP_ITERATIONS;it<iterations;it++)
+                    {
+                        long before=System.nanoTime();
+                        ci.updateEstimationOfComposedIndex();
+                        long after=System.nanoTime();
+                        if(it<0) continue;
+
+                        ArrayList record=new ArrayList();
+                        record.add(i);
+                        record.add(mode);
+                        record.add(tileSize);
+                        record.add(it);
+                        record.add(after-before);
+                        results.add(record);
+                    }
+
+                    ci.releaseResources();
+                }
+            }
+
+            message.realeaseResources();
+            System.gc();
+            Thread.sleep(1000);
+        }
+
+        System.out.println("Finishing the tiling benchmark");
+        return results;
+    }
+
+    /**
+     * It measures the bytes allocated by the current thread per computed pair, comparing the composed distance
+     * stored in a node against the allocation-free variant working on a reusable scratch.
+     * @param maxNofProjects The maximum number of projects
+     * @param iterations The number of measured iterations for each variant
+     * @return An array with the measures in the following order: #Projects, Variant, Iteration, Pairs, Elapsed (ns), Allocated bytes per pair
+     * @throws ProcessingException It is raised when some inconvenient occures in the message creation
+     * @throws Exception It is raised when the matrix could not be created
+     */
+    public static ArrayList allocation(int maxNofProjects,int iterations) throws ProcessingException, Exception
+    {
+        if(maxNofProjects<50) throw new ProcessingException("The number of projects must be higher or equal to 50");
+        if(iterations<1) throw new ProcessingException("The number of iterations must be higher or equal to 1");
+        ThreadMXBean mx=ManagementFactory.getThreadMXBean();
+        Method allocatedBytes=getAllocatedBytesMethod();
+        long tid=Thread.currentThread().getId();
+        if(allocatedBytes==null) System.out.println("The allocated bytes per thread can not be measured in this JVM");
+
+        System.out.println("Allocation per pair - To Vary the Number of projects between [50;"+maxNofProjects+"]");
+        System.out.println("Starting the allocation benchmark ["+ZonedDateTime.now()+"]...");
+
+        ArrayList results=new ArrayList();
+        ArrayList titles=new ArrayList();
+        titles.add("#Projects");
+        titles.add("Variant");
+        titles.add("Iteration");
+        titles.add("Pairs");
+        titles.add("Elapsed (ns)");
+        titles.add("Allocated bytes per pair");
+        results.add(titles);
+
+        for(int i=50;i<=maxNofProjects;i+=50)
+        {
+            System.out.println("["+i+"] "+ZonedDateTime.now());
+            IPD message=Sample.generateIPDMessage(i,i);//ID, #Projects
+            ComposedIndex ci=new ComposedIndex(message,MatrixStorageMode.STRUCT_OF_ARRAYS);
+            Node prjs[]=ci.getProjectsByIndex();
+            long pairs=(((long)prjs.length)*(prjs.length+1))/2;
+
+            for(int variant=0;variant<2;variant++)
+            {
+                ComposedSimilarityNode node=new ComposedSimilarityNode();
+                PairScratch scratch=PairScratch.create();
+
+                for(int it=-WARMUP_ITERATIONS;it<iterations;it++)
+                {
+                    long bytesBefore=allocatedBytes(mx,allocatedBytes,tid);
+                    long before=System.nanoTime();
+                    for(int row=0;row<prjs.length;row++)
+                        for(int col=row;col<prjs.length;col++)
+                        {
+                            if(variant==0) ComposedIndex.composedDistance(prjs[row], prjs[col], node, ci.getAlfa(), ci.getBeta(), ci.getGama(), ci.getDelta(), ci.getW());
+                            else ComposedIndex.composedDistance(prjs[row], prjs[col], scratch, ci.getAlfa(), ci.getBeta(), ci.getGama(), ci.getDelta(), ci.getW());
+                        }
+                    long after=System.nanoTime();
+                    long bytesAfter=allocatedBytes(mx,allocatedBytes,tid);
+                    if(it<0) continue;
+
+                    ArrayList record=new ArrayList();
+                    record.add(i);
+                    record.add((variant==0)?"Node":"Scratch");
+                    record.add(it);
+                    record.add(pairs);
+                    record.add(after-before);
+                    record.add((bytesBefore<0 || bytesAfter<0)?Double.NaN:((double)(bytesAfter-bytesBefore))/((double)pairs));
+                    results.add(record);
+                }
+            }
+
+            ci.releaseResources();
+            message.realeaseResources();
+            System.gc();
+            Thread.sleep(1000);
+        }
+
+        System.out.println("Finishing the allocation benchmark");
+        return results;
+    }
+
+    /**
+     * It looks for the method providing the bytes allocated by a thread. The method is provided by some JVMs
+     * (e.g., HotSpot) through the com.sun.management.ThreadMXBean interface, so it is resolved at runtime.
+     * @return The method, or null when the JVM does not provide it
+     */
+    private static Method getAllocatedBytesMethod()
+    {
+        try{
+            Class<?> extended=Class.forName("com.sun.management.ThreadMXBean");
+            if(!extended.isInstance(ManagementFactory.getThreadMXBean())) return null;
+
+            return extended.getMethod("getThreadAllocatedBytes", long.class);
+        }catch(ClassNotFoundException | NoSuchMethodException | SecurityException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @param mx The thread bean
+     * @param method The method providing the allocated bytes. It could be null.
+     * @param tid The thread ID
+     * @return the bytes allocated by the thread, or -1 when they are not available
+     */
+    private static long allocatedBytes(ThreadMXBean mx,Method method,long tid)
+    {
+        if(method==null) return -1;
+
+        try{
+            return (Long)method.invoke(mx, tid);
+        }catch(ReflectiveOperationException | IllegalArgumentException e)
+        {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * It hands out ranges of consecutive cells (chunks) of the unidimensional space to the workers without locks. 
+ * Each claim is a single getAndAdd on an AtomicLong, so the workers do not serialize on a monitor per pair.
+ * The chunk size is adapted by each worker from the measured cost per pair (See adapt): the cheap pairs are
+ * claimed in large chunks, while the expensive ones are claimed in small chunks for keeping the load balanced.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class ChunkedCursor {
+    /**
+     * The expected duration of a chunk in nanoseconds
+     */
+    public static final long TARGET_CHUNK_NANOS=500000L;
+    /**
+     * The upper bound of the chunk size
+     */
+    public static final int MAX_CHUNK=1<<16;
+    /**
+     * The number of chunks per worker kept available at least for balancing the load at the end
+     */
+    public static final int CHUNKS_PER_WORKER=4;
+    /**
+     * The next position to be claimed
+     */
+    private final AtomicLong next=new AtomicLong(0);
+    /**
+     * The number of positions
+     */
+    private final long length;
+    /**
+     * The maximum chunk size
+     */
+    private final int maxChunk;
+
+    /**
+     * It creates a new cursor
+     * @param plength The number of positions
+     * @param workers The number of workers claiming the positions
+     * @throws Exception It is raised when the length is negative or there are no workers
+     */
+    public ChunkedCursor(long plength,int workers) throws Exception
+    {
+        if(plength<0) throw new Exception("Invalid length");
+        if(workers<1) throw new Exception("No workers available");
+
+        length=plength;
+        maxChunk=(int)Math.max(1, Math.min(MAX_CHUNK, plength/(((long)workers)*CHUNKS_PER_WORKER)));
+    }
+
+    /**
+     * Factory method
+     * @param plength The number of positions
+     * @param workers The number of workers claiming the positions
+     * @return A new cursor
+     * @throws Exception It is raised when the length is negative or there are no workers
+     */
+    public synchronized static ChunkedCursor create(long plength,int workers) throws Exception
+    {
+        return new ChunkedCursor(plength, workers);
+    }
+
+    /**
+     * @return the number of positions
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the maximum chunk size
+     */
+    public int getMaxChunk() {
+        return maxChunk;
+    }
+
+    /**
+     * It claims a chunk of positions
+     * @param size The chunk size
+     * @return The first position of the chunk, -1 when all the positions were claimed
+     */
+    public long claim(int size)
+    {
+        long start=next.getAndAdd(Math.max(1, size));
+
+        return (start<length)?start:-1;
+    }
+
+    /**
+     * @param start The first position of a claimed chunk
+     * @param size The chunk size
+     * @return The last position of the chunk (exclusive)
+     */
+    public long end(long start,int size)
+    {
+        return Math.min(length, start+Math.max(1, size));
+    }
+
+    /**
+     * It adapts the chunk size to the measured cost per pair, aiming at chunks lasting TARGET_CHUNK_NANOS. 
+     * The new size is smoothed with the current one for avoiding oscillations.
+     * @param current The current chunk size
+     * @param nanos The duration of the last chunk
+     * @param cells The number of cells of the last chunk
+     * @return The new chunk size between 1 and getMaxChunk()
+     */
+    public int adapt(int current,long nanos,long cells)
+    {
+        if(cells<=0) return current;
+        double costPerCell=Math.max(1.0, ((double)nanos)/((double)cells));
+        double target=TARGET_CHUNK_NANOS/costPerCell;
+        long size=Math.round((current+target)/2.0);
+
+        return (int)Math.max(1, Math.min(maxChunk, size));
+    }
+}
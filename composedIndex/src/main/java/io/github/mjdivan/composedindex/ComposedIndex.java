@@ -5,13 +5,33 @@
  */
 package io.github.mjdivan.composedindex;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 import org.ciedayap.ipd.IPD;
 import org.ciedayap.ipd.MeasurementProject;
 import org.ciedayap.ipd.exception.ProcessingException;
@@ -26,6 +46,19 @@ import org.ciedayap.ipd.utils.StringUtils;
  * @author mjdivan
  */
 public class ComposedIndex{
+   /**
+    * The first bytes of every snapshot file ("CISN")
+    */
+   public static final int SNAPSHOT_MAGIC=0x4349534E;
+   /**
+    * The version of the snapshot format written by saveSnapshot. The version 2 adds the CRC32 of the content after the header,
+    * and the version 3 adds the pairs kept by the sparse estimation.
+    */
+   public static final int SNAPSHOT_VERSION=3;
+   /**
+    * The position of the checksum into the snapshot header (after the magic number and the version)
+    */
+   private static final long SNAPSHOT_CHECKSUM_OFFSET=8;
    /**
      * The original IPD message
     */
@@ -34,10 +67,31 @@ public class ComposedIndex{
     * A pre-processed local cache based on the IPD message to make easy the similarity calculus. It is organized by projectID.
     */
    private ConcurrentHashMap<String,Node> projects;
+   /**
+    * The dense dictionary mapping each projectID to its row (or column) into the matrix. 
+    * The indexes follow the order of the projects into the IPD message.
+    */
+   private IdentifierDictionary projectDictionary;
+   /**
+    * The project nodes organized by their row (or column) into the matrix
+    */
+   private Node[] projectsByIndex;
    /**
     * A triangular matrix containing the detail about the similarity calculus
     */
    private ComposedSimilarityTriangularMatrix matrix;
+   /**
+    * The close pairs kept by the last sparse estimation
+    */
+   private SparseSimilarityMatrix sparseMatrix;
+   /**
+    * The log recording the incremental changes applied after the last snapshot
+    */
+   private volatile DeltaLog deltaLog;
+   /**
+    * The shared matrix published by another process, null when the index is computed locally
+    */
+   private SharedMatrixReader sharedReader;
    /**
     * It represents the relative importance between states and transitions (See equations 2 and 3)
     */
@@ -58,6 +112,89 @@ public class ComposedIndex{
     * It indicates the relative importance between the internal and the external distances (See equation 15)
     */
    private double w=0.5;
+   /**
+    * The way in which the cells of the triangular matrix are stored
+    */
+   private MatrixStorageMode storageMode=MatrixStorageMode.OBJECT;
+   /**
+    * It indicates whether the structural results (equations 1 to 6) kept in the cells are reused by the later
+    * estimations, recomputing only the behavioral part
+    */
+   private volatile boolean structuralCaching=false;
+   /**
+    * The matrix whose cells keep valid structural results, null when they are not valid
+    */
+   private volatile ComposedSimilarityTriangularMatrix structuralMatrix;
+   /**
+    * The alfa, beta, gama, and delta parameters used for computing the cached structural results
+    */
+   private final double structuralParams[]=new double[4];
+   /**
+    * It indicates whether the raw values of each cell are kept for re-weighting (See reweight)
+    */
+   private volatile boolean keepingRawRatios=false;
+   /**
+    * The raw values of each cell recorded by the last estimation, null when they are not kept
+    */
+   private volatile RawRatioMatrix rawRatios;
+   /**
+    * The composed distances computed by the last estimation under several weighting profiles
+    */
+   private ProfiledDistanceMatrix profiledMatrix;
+   /**
+    * The structural classes of the projects of the current message
+    */
+   private StructuralClasses structuralClasses;
+   /**
+    * The way in which the workers are organized when the cells are computed one by one
+    */
+   private volatile ExecutionStrategy executionStrategy=ExecutionStrategy.FORK_JOIN;
+   /**
+    * The number of workers used by the CHUNKED_CURSOR strategy, chosen from the observed throughput
+    */
+   private final WorkerSizing workerSizing=WorkerSizing.create();
+   /**
+    * The executor of the blocking ingestion tasks, created on demand (See submitIngestion)
+    */
+   private volatile ExecutorService ingestionExecutor;
+   /**
+    * The tenant of the shared scheduler running the workers of this instance. When it is null, each estimation uses its own pool.
+    */
+   private volatile ComputeScheduler.Tenant computeTenant;
+   /**
+    * The timer completing the asynchronous estimations whose timeout is reached (See updateEstimationAsync)
+    */
+   private static ScheduledExecutorService timeoutTimer;
+   /**
+    * The reusable state of each thread computing pairs through the node-based composedDistance
+    */
+   private static final ThreadLocal<PairScratch> PAIR_SCRATCH=new ThreadLocal<PairScratch>(){
+       @Override
+       protected PairScratch initialValue() {
+           return PairScratch.create();
+       }
+   };
+   /**
+    * The lock serializing the operations which read or write the matrix as a whole (i.e., the estimations, snapshots,
+    * and message changes). It also guards the state read by a running estimation (i.e., the raw values, the structural
+    * cache, the delta log, the execution strategy, and the tenant), so the configuration methods wait for the estimation.
+    * It is not the monitor of this instance, so the queries are not blocked while the workers are computing, and the 
+    * virtual threads waiting for it do not pin their carriers.
+    */
+   private final ReentrantLock estimationLock=new ReentrantLock();
+   /**
+    * The lock guarding the delta log against its opening or closing (write lock) while the stats updates are
+    * logged (read lock). It is always acquired after estimationLock.
+    */
+   private final ReentrantReadWriteLock deltaLogLock=new ReentrantReadWriteLock();
+   /**
+    * The file to be mapped when the storage mode is MEMORY_MAPPED. When it is null, a temporary file is used.
+    */
+   private Path matrixFile;
+   /**
+    * The number of rows and columns per tile claimed by each worker. Zero indicates that the workers claim one cell at a time.
+    */
+   private int tileSize=0;
 
    /**
     * The constructor creates the instance based on a BriefPD message expressed as a string.
@@ -98,6 +235,22 @@ public class ComposedIndex{
         setMessage(pmessage);
    }
 
+    /**
+     * The Constructor creates the instance based on an IPD instance, indicating the matrix storage
+     * @param pmessage The IPD instance (BriefPD message)
+     * @param mode The way in which the cells of the triangular matrix will be stored
+     * @throws ProcessingException It is raised when there is not a message, or when there is a project in the message.
+     */
+    public ComposedIndex(IPD pmessage, MatrixStorageMode mode) throws ProcessingException
+   {
+        if(pmessage==null) throw new ProcessingException("No projects to be processed");
+        if(pmessage.getProjects()==null || pmessage.getProjects().length()<=1)
+            throw new ProcessingException("There not exist enough projects to compare (Lenght: "+((pmessage.getProjects()==null?0:pmessage.getProjects().length()))+")");
+        if(mode!=null) this.storageMode=mode;
+        
+        setMessage(pmessage);
+   }
+
     /**
      * @return the IPD message
      */
@@ -110,40 +263,90 @@ public class ComposedIndex{
      * @param pmessage the IPD message to set
      * @throws org.ciedayap.ipd.exception.ProcessingException It is raised when there is not a message, or when there is a project in the message.
      */
-    public final synchronized void setMessage(IPD pmessage) throws ProcessingException {
-        if(pmessage==null) throw new ProcessingException("No projects to be processed");
-        if(pmessage.getProjects()==null || pmessage.getProjects().length()<=1)
-            throw new ProcessingException("There not exist enough projects to compare (Lenght: "+((pmessage.getProjects()==null?0:pmessage.getProjects().length()))+")");
+    public final void setMessage(IPD pmessage) throws ProcessingException {
+        estimationLock.lock();
+        try{
+            if(pmessage==null) throw new ProcessingException("No projects to be processed");
+            if(pmessage.getProjects()==null || pmessage.getProjects().length()<=1)
+                throw new ProcessingException("There not exist enough projects to compare (Lenght: "+((pmessage.getProjects()==null?0:pmessage.getProjects().length()))+")");
 
-        if(message!=null) this.message.realeaseResources();
+            if(message!=null) this.message.realeaseResources();
         
-        this.message = pmessage;
+            this.message = pmessage;
+            invalidateStructuralCache();
+            rawRatios=null;
         
-        if(projects!=null) projects.clear();
-        projects=new ConcurrentHashMap(pmessage.getProjects().length());
+            if(projects!=null) projects.clear();
+            projects=new ConcurrentHashMap(pmessage.getProjects().length());
+            projectDictionary=IdentifierDictionary.create(pmessage.getProjects().length());
+            ArrayList<Node> ordered=new ArrayList(pmessage.getProjects().length());
+            IdentifierDictionary signatureDictionary=IdentifierDictionary.create(64);
         
-        for(MeasurementProject mp:pmessage.getProjects().getProjects())
-        {
-            Node node=Node.create(mp);
-            if(node!=null)
-                projects.put(node.getProject().getID(), node);
-        }
+            for(MeasurementProject mp:pmessage.getProjects().getProjects())
+            {
+                Node node=Node.create(mp,signatureDictionary);
+                if(node!=null)
+                {
+                    projects.put(node.getProject().getID(), node);
+                    if(projectDictionary.add(node.getProject().getID())==ordered.size()) ordered.add(node);
+                }
+            }
         
-        if(projects.size()!=pmessage.getProjects().length())
-        {
-            throw new ProcessingException("[ConcurrentHashMap] there is a divergence in the length between projects and the IPD message");
-        }
+            if(projects.size()!=pmessage.getProjects().length() || projectDictionary.size()!=projects.size())
+            {
+                throw new ProcessingException("[ConcurrentHashMap] there is a divergence in the length between projects and the IPD message");
+            }
+            projectsByIndex=ordered.toArray(new Node[ordered.size()]);
+            try{
+                structuralClasses=StructuralClasses.create(projectsByIndex);
+            }catch(Exception e)
+            {
+                throw new ProcessingException("[StructuralClasses] Problems grouping the projects. Message: "+e.getMessage());
+            }
+            if(sparseMatrix!=null) sparseMatrix.releaseResources();
+            sparseMatrix=null;
+            profiledMatrix=null;
         
+            createMatrix();
+        }finally{
+            estimationLock.unlock();
+        }
+    }        
+    
+    /**
+     * It creates the matrix using the current storage mode, filling it with the project IDs
+     * @throws ProcessingException It is raised when the matrix could not be created or filled
+     */
+    private void createMatrix() throws ProcessingException
+    {
         try{
             if(matrix!=null) matrix.releaseResources();
+            matrix=allocateMatrix(storageMode,tileSize,projects.size());
+            if(matrix==null) return;
             
-            matrix=ComposedSimilarityTriangularMatrix.createSimilarityTriangularMatrix(projects.size());
             if(!fillMatrix()) throw new Exception("The matrix has not been filled");
         }catch(Exception e)
         {
             throw new ProcessingException("[TriangularMatrix] Problems creating the matrix. Message: "+e.getMessage());
         }
-    }        
+    }
+    
+    /**
+     * It allocates an empty matrix for the given storage mode
+     * @param mode The storage mode
+     * @param ptileSize The tile size used by the TILED storage (0 indicates the default tile size)
+     * @param dim The dimension of the matrix
+     * @return The new matrix, null when the mode is SPARSE
+     * @throws Exception It is raised when the matrix could not be allocated
+     */
+    private ComposedSimilarityTriangularMatrix allocateMatrix(MatrixStorageMode mode,int ptileSize,int dim) throws Exception
+    {
+        if(mode==MatrixStorageMode.SPARSE) return null;
+        if(mode==MatrixStorageMode.TILED)
+            return TiledSimilarityTriangularMatrix.create(dim,(ptileSize>0)?ptileSize:TriangularTiling.DEFAULT_TILE_SIZE);
+        
+        return ComposedSimilarityTriangularMatrix.createSimilarityTriangularMatrix(dim,mode,matrixFile);
+    }
     
     public final boolean fillBehavioralValues(boolean equal) throws ProcessingException
     {
@@ -232,19 +435,12 @@ public class ComposedIndex{
     
     public final boolean fillMatrix() throws ProcessingException
     {
-        if(matrix==null || projects==null) return false;
+        if(matrix==null || projects==null || projectDictionary==null) return false;
         if(!matrix.isCreated()) return false;
         if(matrix.getDim()!=projects.size()) throw new ProcessingException("There is not matching between the matrix dimmension and the nnumber of projects");
+        if(projectDictionary.size()!=projects.size()) throw new ProcessingException("There is not matching between the project dictionary and the number of projects");
         
-        ArrayList<Node> items = new ArrayList(projects.values());
-        for(int i=0;i<items.size();i++)
-           for(int j=i;j<items.size();j++)
-           {
-               ComposedSimilarityNode mynode=ComposedSimilarityNode.create(items.get(i).getProject().getID(), items.get(j).getProject().getID());
-               matrix.set(i, j, mynode);
-           }
-        
-        return true;
+        return matrix.initializeCells(projectDictionary.toArray());
     }
     
     /**
@@ -321,6 +517,294 @@ public class ComposedIndex{
         this.w = w;
     }
     
+    /**
+     * @return the project nodes organized by their row (or column) into the matrix
+     */
+    protected Node[] getProjectsByIndex() {
+        return projectsByIndex;
+    }
+    
+    /**
+     * @return the way in which the cells of the triangular matrix are stored
+     */
+    public MatrixStorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    /**
+     * @return the file to be mapped when the storage mode is MEMORY_MAPPED
+     */
+    public Path getMatrixFile() {
+        return matrixFile;
+    }
+
+    /**
+     * It establishes the file to be mapped when the storage mode is MEMORY_MAPPED.
+     * It is considered the next time that the matrix is created.
+     * @param matrixFile the file to be mapped. When it is null, a temporary file is used.
+     */
+    public void setMatrixFile(Path matrixFile) {
+        this.matrixFile = matrixFile;
+    }
+
+    /**
+     * @return TRUE when the raw values of each cell are kept for re-weighting
+     */
+    public boolean isKeepingRawRatios() {
+        return keepingRawRatios;
+    }
+
+    /**
+     * It establishes whether the raw values of each cell (the proportions of common elements and the behavioral distances)
+     * are kept by the estimations, so the composed index can be re-weighted without parsing the projects (See reweight).
+     * It requires RawRatioMatrix.RAW_FIELDS additional doubles per cell. When it is enabled, the estimations claim whole tiles.
+     * @param keepingRawRatios TRUE for keeping the raw values, FALSE for releasing them
+     */
+    public void setKeepingRawRatios(boolean keepingRawRatios) {
+        estimationLock.lock();
+        try{
+            this.keepingRawRatios = keepingRawRatios;
+            if(!keepingRawRatios) rawRatios=null;
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * @return TRUE when the structural results kept in the cells are reused by the later estimations
+     */
+    public boolean isStructuralCaching() {
+        return structuralCaching;
+    }
+
+    /**
+     * It establishes whether the structural results (equations 1 to 6) kept in the cells are reused. When it is enabled, 
+     * the first estimation computes every cell, while the later ones only recompute the behavioral distances and the
+     * internal, external, and composed distances. The structural results are computed again when the message, the matrix,
+     * or the alfa, beta, gama, or delta parameters change. It has no effect when the storage mode does not keep all the
+     * fields (See MatrixStorageMode.keepsAllFields).
+     * @param structuralCaching TRUE for reusing the structural results, FALSE for computing every cell on each estimation
+     */
+    public void setStructuralCaching(boolean structuralCaching) {
+        estimationLock.lock();
+        try{
+            this.structuralCaching = structuralCaching;
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It discards the cached structural results, so the next estimation computes every cell
+     */
+    public void invalidateStructuralCache() {
+        estimationLock.lock();
+        try{
+            structuralMatrix=null;
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * @return TRUE when the cells keep structural results computed for the current matrix and parameters
+     */
+    public boolean isStructuralCacheValid() {
+        return structuralMatrix!=null && structuralMatrix==matrix &&
+                structuralParams[0]==alfa && structuralParams[1]==beta && 
+                structuralParams[2]==gama && structuralParams[3]==delta;
+    }
+    
+    /**
+     * It records that the cells keep valid structural results for the current matrix and parameters
+     */
+    private void markStructuralCache()
+    {
+        if(matrix==null || !matrix.getStorageMode().keepsAllFields()) return;
+        
+        structuralMatrix=matrix;
+        structuralParams[0]=alfa;
+        structuralParams[1]=beta;
+        structuralParams[2]=gama;
+        structuralParams[3]=delta;
+    }
+
+    /**
+     * @return the number of rows and columns per tile claimed by each worker. Zero indicates one cell at a time.
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * It establishes the number of rows and columns per tile claimed by each worker. When the storage mode is TILED,
+     * the matrix is recreated using the new tile size.
+     * @param tileSize the number of rows and columns per tile. Zero indicates that the workers claim one cell at a time.
+     * @throws ProcessingException It is raised when the tile size is negative, or the TILED matrix could not be recreated.
+     */
+    public void setTileSize(int tileSize) throws ProcessingException {
+        estimationLock.lock();
+        try{
+            if(tileSize<0) throw new ProcessingException("The tile size must be higher or equal to 0");
+            this.tileSize = tileSize;
+        
+            if(tileSize>0 && (matrix instanceof TiledSimilarityTriangularMatrix) &&
+                    ((TiledSimilarityTriangularMatrix)matrix).getTiling().getTileSize()!=Math.min(tileSize, matrix.getDim()))
+                createMatrix();
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It returns the row (or column) associated with a project into the matrix
+     * @param projectID The project ID
+     * @return The row (or column) between 0 and (dim-1), -1 when the project is not present
+     */
+    public int getProjectIndex(String projectID)
+    {
+        if(sharedReader!=null)
+        {
+            SharedMatrixReader.Generation gen=currentSharedGeneration();
+            return (gen==null)?-1:gen.getDictionary().indexOf(projectID);
+        }
+        if(projectDictionary==null) return -1;
+        
+        return projectDictionary.indexOf(projectID);
+    }
+    
+    /**
+     * It returns the project ID associated with a row (or column) into the matrix
+     * @param index The row (or column) between 0 and (dim-1)
+     * @return The project ID, null when the index is out of range
+     */
+    public String getProjectID(int index)
+    {
+        if(sharedReader!=null)
+        {
+            SharedMatrixReader.Generation gen=currentSharedGeneration();
+            return (gen==null)?null:gen.getDictionary().getID(index);
+        }
+        if(projectDictionary==null) return null;
+        
+        return projectDictionary.getID(index);
+    }
+    
+    /**
+     * It returns the composed distance between two projects
+     * @param projectA The first project ID
+     * @param projectB The second project ID
+     * @return The composed distance (See equation 16), NaN when some project is not present or the distance is not available
+     */
+    public double distance(String projectA,String projectB)
+    {
+        if(sharedReader!=null)
+        {
+            SharedMatrixReader.Generation gen=currentSharedGeneration();
+            if(gen==null) return Double.NaN;
+            int row=gen.getDictionary().indexOf(projectA);
+            int col=gen.getDictionary().indexOf(projectB);
+            if(row<0 || col<0) return Double.NaN;
+            
+            return gen.getMatrix().getCdist(row, col);
+        }
+        if(projectDictionary==null) return Double.NaN;
+        int row=projectDictionary.indexOf(projectA);
+        if(row<0) return Double.NaN;
+        int col=projectDictionary.indexOf(projectB);
+        if(col<0) return Double.NaN;
+        
+        return getCdist(row, col);
+    }
+    
+    /**
+     * It returns the neighbours of a project kept by the last sparse estimation
+     * @param projectID The project ID
+     * @return The project IDs of the neighbours sorted by ascending composed distance, null when the project is not 
+     * present or there is no sparse estimation.
+     */
+    public String[] getNeighbours(String projectID)
+    {
+        if(sparseMatrix==null || projectDictionary==null) return null;
+        
+        return sparseMatrix.getNeighbourIDs(projectDictionary.indexOf(projectID));
+    }
+    
+    /**
+     * It returns the composed distances of the neighbours of a project kept by the last sparse estimation
+     * @param projectID The project ID
+     * @return The composed distances in the same order as getNeighbours, null when the project is not 
+     * present or there is no sparse estimation.
+     */
+    public float[] getNeighbourDistances(String projectID)
+    {
+        if(sparseMatrix==null || projectDictionary==null) return null;
+        
+        return sparseMatrix.getNeighbourDistances(projectDictionary.indexOf(projectID));
+    }
+    
+    /**
+     * @return the close pairs kept by the last sparse estimation, null when there is no sparse estimation
+     */
+    public SparseSimilarityMatrix getSparseMatrix() {
+        return sparseMatrix;
+    }
+    
+    /**
+     * @return the structural classes of the projects of the current message (i.e., the groups of projects with the same
+     * attributes, context properties, states, scenarios, and transitions), null when there is no message
+     */
+    public StructuralClasses getStructuralClasses() {
+        return structuralClasses;
+    }
+    
+    /**
+     * @return the composed distances computed by the last estimation under several weighting profiles, null when 
+     * there is no such estimation
+     */
+    public ProfiledDistanceMatrix getProfiledMatrix() {
+        return profiledMatrix;
+    }
+    
+    /**
+     * It returns the composed distance between two projects computed under a given weighting profile
+     * @param profile The name of the weighting profile
+     * @param projectA The first project ID
+     * @param projectB The second project ID
+     * @return The composed distance, NaN when the profile or projects are not present, or there is no profiled estimation
+     */
+    public double getProfiledCdist(String profile,String projectA,String projectB)
+    {
+        ProfiledDistanceMatrix pm=profiledMatrix;
+        if(pm==null || projectDictionary==null) return Double.NaN;
+        int k=pm.indexOfProfile(profile);
+        if(k<0) return Double.NaN;
+        
+        return pm.getCdist(k, projectDictionary.indexOf(projectA), projectDictionary.indexOf(projectB));
+    }
+    
+    /**
+     * It returns the vector related with a given project
+     * @param projectID The project ID
+     * @return The vector related to the project into the matrix, null when the project is not present
+     */
+    public ArrayList<ComposedSimilarityNode> getRow(String projectID)
+    {
+        if(sharedReader!=null)
+        {
+            SharedMatrixReader.Generation gen=currentSharedGeneration();
+            if(gen==null) return null;
+            int row=gen.getDictionary().indexOf(projectID);
+            
+            return (row<0)?null:gen.getMatrix().getRow(row);
+        }
+        if(matrix==null || projectDictionary==null) return null;
+        int row=projectDictionary.indexOf(projectID);
+        if(row<0) return null;
+        
+        return matrix.getRow(row);
+    }
+    
     /**
      * It returns the behavioral perspective of attributes and context properties to be updated
      * @param projectID The project ID 
@@ -336,37 +820,338 @@ public class ComposedIndex{
     }
     
     
-    public void showProjects() throws ProcessingException
-    {               
-        Collection<Node> col=projects.values();
-        Node a,b;
-        a=b=null;
-        
-       DecimalFormat df = new DecimalFormat("#.00");
-       String offset=null;
-       for(int i=0;i<matrix.getDim();i++)
-       {           
-           if(offset==null) offset="\t";
-           else offset=offset+"\t";
-           
-           for(int j=i;j<matrix.getDim();j++)
-           {
-               ComposedSimilarityNode item=matrix.get(i, j);
-               if(j==i)
-               {
-                   System.out.print("\n"+item.getProjectID_row()+offset);
-               }
-               
-               System.out.print(df.format(item.getCdist())+"\t");
-           }
-       }
-       System.out.println();
-    }
-    
     /**
-     * It computes the composed similarity, storing the results in the node instance.It uses the informed attributes of projectID_row and projectID_col to compute the mentioned distance.
-     * @param projects Information about the projects metadata loaded from the briefPD message
-     * @param node The instance from where the project IDs will be taken and where results will be stored.
+     * It updates the behavioral stats of an attribute (or context property). When a delta log is open, 
+     * the update is recorded and synced before being applied (write-ahead), so an applied update is never lost.
+     * The log can not be opened or closed meanwhile, but concurrent updates share the same sync.
+     * @param projectID The project ID
+     * @param itemID The attribute or context property ID
+     * @param isContextProperty TRUE indicates a context property, FALSE an attribute
+     * @param mean The mean
+     * @param var The variance
+     * @param n The number of observations
+     * @return TRUE when the stats were updated, FALSE when the project or item is not present
+     * @throws ProcessingException It is raised when n is lesser than 1, or the update could not be logged (the stats are not modified)
+     */
+    public boolean updateBehavioralStats(String projectID,String itemID,boolean isContextProperty,Double mean,Double var,Integer n) throws ProcessingException
+    {
+        if(n!=null && n<1) throw new ProcessingException("n must be higher or equal to one");
+        
+        deltaLogLock.readLock().lock();
+        try{
+            BehavioralItemNode item=findBehavioralItem(projectID,itemID,isContextProperty);
+            if(item==null) return false;
+            
+            DeltaLog log=deltaLog;
+            if(log!=null)
+            {
+                try{
+                    log.sync(log.logStat(projectID, itemID, isContextProperty, mean, var, n));
+                }catch(IOException e)
+                {
+                    throw new ProcessingException("[DeltaLog] The update could not be logged. Message: "+e.getMessage());
+                }
+            }
+            
+            item.setStats(mean, var, n);
+            return true;
+        }finally{
+            deltaLogLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * It applies the behavioral stats of an attribute (or context property) without logging them
+     * @param projectID The project ID
+     * @param itemID The attribute or context property ID
+     * @param isContextProperty TRUE indicates a context property, FALSE an attribute
+     * @param mean The mean
+     * @param var The variance
+     * @param n The number of observations
+     * @return TRUE when the stats were applied, FALSE when the project or item is not present
+     * @throws ProcessingException It is raised when n is lesser than 1
+     */
+    private boolean applyBehavioralStats(String projectID,String itemID,boolean isContextProperty,Double mean,Double var,Integer n) throws ProcessingException
+    {
+        BehavioralItemNode item=findBehavioralItem(projectID,itemID,isContextProperty);
+        if(item==null) return false;
+        
+        item.setStats(mean, var, n);
+        
+        return true;
+    }
+    
+    /**
+     * @param projectID The project ID
+     * @param itemID The attribute or context property ID
+     * @param isContextProperty TRUE indicates a context property, FALSE an attribute
+     * @return The attribute (or context property) of the project, null when the project or item is not present
+     */
+    private BehavioralItemNode findBehavioralItem(String projectID,String itemID,boolean isContextProperty)
+    {
+        BehavioralNode beh=getBehavioralPerspective(projectID);
+        if(beh==null || StringUtils.isNull(itemID)) return null;
+        
+        ConcurrentHashMap<String,BehavioralItemNode> items=isContextProperty?beh.getContextPropertiesAsHashMap():beh.getAttributesAsHashMap();
+        if(items==null) return null;
+        
+        return items.get(itemID);
+    }
+    
+    /**
+     * It recomputes only the cells related to a given project (its row and column), for instance, after updating
+     * its behavioral stats. When a delta log is open, the recomputed cells are recorded and committed as a group.
+     * @param projectID The project ID
+     * @return TRUE when the cells were recomputed, FALSE when the project is not present
+     * @throws ProcessingException It is raised when there is no matrix or message, or the cells could not be logged
+     */
+    public boolean updateEstimationOfProject(String projectID) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(matrix==null) throw new ProcessingException("No matrix to be processed");
+            if(message==null) throw new ProcessingException("No IPD message available. A snapshot loaded without the message only answers queries");
+            int index=getProjectIndex(projectID);
+            if(index<0) return false;
+        
+            try{
+                for(int k=0;k<projectsByIndex.length;k++)
+                {
+                    int row=Math.min(index, k);
+                    int col=Math.max(index, k);
+                    ComposedSimilarityNode cell=matrix.get(row, col);
+                    if(cell==null) continue;
+                    if(rawRatios!=null) rawRatios.invalidate(row, col);//The cell is derived from the projects again when re-weighting
+                
+                    try{
+                        composedDistance(projectsByIndex[row], projectsByIndex[col], cell, alfa, beta, gama, delta, w);
+                    }catch(ProcessingException pe)
+                    {
+                        continue;//The cell keeps its previous values
+                    }
+                
+                    if(deltaLog!=null) deltaLog.logCell(row, col, cell);
+                }
+            
+                if(deltaLog!=null) deltaLog.commit();
+            }catch(IOException e)
+            {
+                throw new ProcessingException("[DeltaLog] The cells could not be logged. Message: "+e.getMessage());
+            }
+        
+            return true;
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It opens a delta log recording the incremental changes (stats updates and recomputed cells) applied
+     * after the last snapshot. The previous log is closed. The existing records are kept, so they can be
+     * replayed through replayDeltaLog.
+     * @param file The log file. It is created when it does not exist.
+     * @throws ProcessingException It is raised when the log could not be opened
+     */
+    public void openDeltaLog(Path file) throws ProcessingException
+    {
+        estimationLock.lock();
+        deltaLogLock.writeLock().lock();
+        try{
+            closeDeltaLog();
+            try{
+                deltaLog=DeltaLog.open(file);
+            }catch(IOException e)
+            {
+                throw new ProcessingException("[DeltaLog] The log could not be opened. Message: "+e.getMessage());
+            }
+        }finally{
+            deltaLogLock.writeLock().unlock();
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It commits the pending records and closes the delta log
+     * @throws ProcessingException It is raised when the log could not be closed
+     */
+    public void closeDeltaLog() throws ProcessingException
+    {
+        estimationLock.lock();
+        deltaLogLock.writeLock().lock();
+        try{
+            if(deltaLog==null) return;
+        
+            try{
+                deltaLog.close();
+            }catch(IOException e)
+            {
+                throw new ProcessingException("[DeltaLog] The log could not be closed. Message: "+e.getMessage());
+            }finally
+            {
+                deltaLog=null;
+            }
+        }finally{
+            deltaLogLock.writeLock().unlock();
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * @return the log recording the incremental changes, null when it is not open
+     */
+    public DeltaLog getDeltaLog() {
+        return deltaLog;
+    }
+    
+    /**
+     * It replays the delta log on top of the current state (usually, just after loading the last snapshot),
+     * restoring the stats updates and the recomputed cells without a full estimation.
+     * @return The number of replayed records
+     * @throws ProcessingException It is raised when the log is not open, or some record could not be applied
+     */
+    public long replayDeltaLog() throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(deltaLog==null) throw new ProcessingException("[DeltaLog] The log is not open");
+            invalidateStructuralCache();
+            rawRatios=null;
+        
+            try{
+                return deltaLog.replay(new DeltaLog.RecordListener() {
+                    @Override
+                    public void onStat(String projectID, String itemID, boolean isContextProperty, Double mean, Double var, Integer n) throws Exception {
+                        applyBehavioralStats(projectID, itemID, isContextProperty, mean, var, n);
+                    }
+
+                    @Override
+                    public void onCell(int row, int col, double[] fields) throws Exception {
+                        if(matrix==null) return;
+                        ComposedSimilarityNode cell=matrix.get(row, col);
+                        if(cell==null) throw new ProcessingException("The cell ("+row+", "+col+") is not available");
+                    
+                        cell.setEq01_sim_str_ent(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ01_SIM_STR_ENT]);
+                        cell.setEq02_sim_sc_st(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ02_SIM_SC_ST]);
+                        cell.setEq03_idist_str(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ03_IDIST_STR]);
+                        cell.setEq04_sim_ctx(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ04_SIM_CTX]);
+                        cell.setEq05_sim_str_sc(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ05_SIM_STR_SC]);
+                        cell.setEq06_edist_str(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ06_EDIST_STR]);
+                        cell.setIdist_beh(fields[PrimitiveSimilarityTriangularMatrix.FIELD_IDIST_BEH]);
+                        cell.setEdist_beh(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EDIST_BEH]);
+                        cell.setIdist(fields[PrimitiveSimilarityTriangularMatrix.FIELD_IDIST]);
+                        cell.setEdist(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EDIST]);
+                        cell.setCdist(fields[PrimitiveSimilarityTriangularMatrix.FIELD_CDIST]);
+                    }
+                });
+            }catch(ProcessingException pe)
+            {
+                throw pe;
+            }catch(Exception e)
+            {
+                throw new ProcessingException("[DeltaLog] The log could not be replayed. Message: "+e.getMessage());
+            }
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It creates a read-only index answering the queries (e.g., distance, getRow, getProjectIndex) from a matrix
+     * published by another process. The matrix is mapped without copying it into the Java heap, and the index 
+     * switches to each new generation as soon as it is published.
+     * @param directory The directory containing the shared matrix
+     * @return A new read-only instance
+     * @throws ProcessingException It is raised when there is no published generation, or it could not be mapped
+     */
+    public synchronized static ComposedIndex createSharedReader(Path directory) throws ProcessingException
+    {
+        ComposedIndex ci=new ComposedIndex();
+        try{
+            ci.sharedReader=SharedMatrixReader.open(directory);
+        }catch(Exception e)
+        {
+            throw new ProcessingException("[SharedMatrix] The shared matrix could not be opened. Message: "+e.getMessage());
+        }
+        
+        return ci;
+    }
+    
+    /**
+     * It publishes the computed matrix, with its project dictionary, as a new generation of a shared matrix, 
+     * so the read-only indexes of other processes switch to it.
+     * @param directory The directory containing the shared matrix. It is created when it does not exist.
+     * @return The published generation number
+     * @throws ProcessingException It is raised when there is no matrix, or it could not be published
+     */
+    public long publishSharedMatrix(Path directory) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(matrix==null || projectDictionary==null) throw new ProcessingException("No matrix to be published");
+        
+            try{
+                return SharedMatrixReader.publish(directory, projectDictionary.toArray(), matrix);
+            }catch(Exception e)
+            {
+                throw new ProcessingException("[SharedMatrix] The matrix could not be published. Message: "+e.getMessage());
+            }
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * @return the shared matrix published by another process, null when the index is computed locally
+     */
+    public SharedMatrixReader getSharedReader() {
+        return sharedReader;
+    }
+    
+    /**
+     * It returns the generation of the shared matrix to be used by a query
+     * @return The generation, null when it could not be mapped
+     */
+    private SharedMatrixReader.Generation currentSharedGeneration()
+    {
+        try{
+            return sharedReader.current();
+        }catch(Exception e)
+        {
+            return null;
+        }
+    }
+    
+    public void showProjects() throws ProcessingException
+    {               
+        Collection<Node> col=projects.values();
+        Node a,b;
+        a=b=null;
+        
+       DecimalFormat df = new DecimalFormat("#.00");
+       String offset=null;
+       for(int i=0;i<matrix.getDim();i++)
+       {           
+           if(offset==null) offset="\t";
+           else offset=offset+"\t";
+           
+           for(int j=i;j<matrix.getDim();j++)
+           {
+               ComposedSimilarityNode item=matrix.get(i, j);
+               if(j==i)
+               {
+                   System.out.print("\n"+item.getProjectID_row()+offset);
+               }
+               
+               System.out.print(df.format(item.getCdist())+"\t");
+           }
+       }
+       System.out.println();
+    }
+    
+    /**
+     * It computes the composed similarity, storing the results in the node instance.It uses the informed attributes of projectID_row and projectID_col to compute the mentioned distance.
+     * @param projects Information about the projects metadata loaded from the briefPD message
+     * @param node The instance from where the project IDs will be taken and where results will be stored.
      * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
      * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
      * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
@@ -379,12 +1164,6 @@ public class ComposedIndex{
             double palfa,double pbeta,double pgama,double pdelta,double pw) throws ProcessingException
     {
         if(node==null) throw new ProcessingException("The informed node is null");
-        if(palfa<0 || palfa>1) throw new ProcessingException("The alfa parameter is out of range [0; 1]");
-        if(pbeta<0 || pbeta>1) throw new ProcessingException("The beta parameter is out of range [0; 1]");
-        if(pdelta<0 || pdelta>1) throw new ProcessingException("The delta parameter is out of range [0; 1]");
-        if(pgama<0 || pgama>1) throw new ProcessingException("The gama parameter is out of range [0; 1]");
-        if(pw<0 || pw>1) throw new ProcessingException("The w parameter is out of range [0; 1]");
-        
         if(StringUtils.isNull(node.getProjectID_row()) || 
                 StringUtils.isNull(node.getProjectID_col())) throw new ProcessingException("There are not enough projects ID to process");
         
@@ -394,6 +1173,66 @@ public class ComposedIndex{
        Node prjCol=projects.get(node.getProjectID_col());
        if(prjCol==null) throw new ProcessingException("The projectID "+node.getProjectID_col()+" are not available.");
        
+       return composedDistance(prjRow,prjCol,node,palfa,pbeta,pgama,pdelta,pw);
+    }
+    
+    /**
+     * It computes the composed similarity between two already resolved projects, storing the results in the node instance.
+     * @param prjRow The project located at the row
+     * @param prjCol The project located at the column
+     * @param node The instance where results will be stored.
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @return TRUE when the distance could be computed and stored in the node instance, FALSE otherwise
+     * @throws ProcessingException It is raised when the projects or the node are null, or some parameter is out of range.
+     */
+    public static boolean composedDistance(Node prjRow,Node prjCol,ComposedSimilarityNode node,
+            double palfa,double pbeta,double pgama,double pdelta,double pw) throws ProcessingException
+    {
+        return composedDistance(prjRow,prjCol,node,null,palfa,pbeta,pgama,pdelta,pw);
+    }
+    
+    /**
+     * It computes the composed similarity between two already resolved projects, storing the results in the node instance
+     * and the raw values in the indicated array.
+     * @param prjRow The project located at the row
+     * @param prjCol The project located at the column
+     * @param node The instance where results will be stored.
+     * @param rawValues The array receiving the raw values ordered as indicated by the RawRatioMatrix.RAW_* constants. It could be null.
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @return TRUE when the distance could be computed and stored in the node instance, FALSE otherwise
+     * @throws ProcessingException It is raised when the projects or the node are null, some parameter is out of range, 
+     * or the raw array is shorter than RawRatioMatrix.RAW_FIELDS.
+     */
+    public static boolean composedDistance(Node prjRow,Node prjCol,ComposedSimilarityNode node,double rawValues[],
+            double palfa,double pbeta,double pgama,double pdelta,double pw) throws ProcessingException
+    {
+        if(rawValues!=null && rawValues.length<RawRatioMatrix.RAW_FIELDS) throw new ProcessingException("The raw array is too short");
+        if(node==null) throw new ProcessingException("The informed node is null");
+        if(prjRow==null || prjCol==null) throw new ProcessingException("The project 1 or 2 are null");
+        if(palfa<0 || palfa>1) throw new ProcessingException("The alfa parameter is out of range [0; 1]");
+        if(pbeta<0 || pbeta>1) throw new ProcessingException("The beta parameter is out of range [0; 1]");
+        if(pdelta<0 || pdelta>1) throw new ProcessingException("The delta parameter is out of range [0; 1]");
+        if(pgama<0 || pgama>1) throw new ProcessingException("The gama parameter is out of range [0; 1]");
+        if(pw<0 || pw>1) throw new ProcessingException("The w parameter is out of range [0; 1]");
+        
+       if(prjRow.getSignature()!=null && prjCol.getSignature()!=null)
+       {//Intersection and union sizes through the precompiled signatures
+           PairScratch scratch=PAIR_SCRATCH.get();
+           if(!composedDistance(prjRow,prjCol,scratch,palfa,pbeta,pgama,pdelta,pw)) throw new ProcessingException("No attributes in the union");
+           storeComposedDistance(node,scratch.getFields());
+           if(rawValues!=null) System.arraycopy(scratch.getRaw(), 0, rawValues, 0, RawRatioMatrix.RAW_FIELDS);
+           
+           return true;
+       }
+       
        //Attributes (Intersection and Union)
        ArrayList<BehavioralItemNode> ent_common_atts=new ArrayList();
        ArrayList<BehavioralItemNode> ent_union_atts=new ArrayList();
@@ -402,7 +1241,6 @@ public class ComposedIndex{
        if(ent_union_atts.isEmpty()) throw new ProcessingException("No attributes in the union");
        
        double eq01_sim_str_ent=((double)ent_common_atts.size())/((double)ent_union_atts.size());
-       node.setEq01_sim_str_ent(eq01_sim_str_ent);
        
        //States
        ArrayList<ECState> ent_common_states=new ArrayList();
@@ -414,80 +1252,48 @@ public class ComposedIndex{
        ArrayList<StateTransition> ent_union_statetransitions=new ArrayList();
        ComposedIndex.parsingEntityStateTransitions(prjRow, prjCol, ent_common_statetransitions, ent_union_statetransitions);
        
-       double pstates;
-       if(ent_union_states.isEmpty())
-           pstates=0.0;
-       else
-           pstates=(((double)ent_common_states.size())/((double)ent_union_states.size()));
-
-       double pstatestransitions;
-       if(ent_union_statetransitions.isEmpty())
-           pstatestransitions=0.0;
-       else
-           pstatestransitions=(((double)ent_common_statetransitions.size())/((double)ent_union_statetransitions.size()));
-
-       double eq02_sim_str_sc=(palfa*pstates)+((1-palfa)*pstatestransitions);
-       node.setEq02_sim_sc_st(eq02_sim_str_sc);
-       
-       //Computing the internal structural distance
-       double eq03_idist_str=1-(pbeta*eq01_sim_str_ent+((1-pbeta)*eq02_sim_str_sc));
-       node.setEq03_idist_str(eq03_idist_str);
+       double pstates=ratio(ent_common_states.size(),ent_union_states.size());
+       double pstatestransitions=ratio(ent_common_statetransitions.size(),ent_union_statetransitions.size());
        
        //Contexts
        ArrayList<BehavioralItemNode> ent_common_ctx=new ArrayList();
        ArrayList<BehavioralItemNode> ent_union_ctx=new ArrayList();
        parsingContexts(prjRow,prjCol,ent_common_ctx,ent_union_ctx);
         
-       double eq04_sim_str_ctx;
-       if(ent_union_ctx.isEmpty())
-           eq04_sim_str_ctx=0;
-       else
-           eq04_sim_str_ctx=((double)ent_common_ctx.size())/((double)ent_union_ctx.size());
-       node.setEq04_sim_ctx(eq04_sim_str_ctx);
+       double eq04_sim_str_ctx=ratio(ent_common_ctx.size(),ent_union_ctx.size());
        
        //Scenarios
        ArrayList<Scenario> ent_common_scenarios=new ArrayList();
        ArrayList<Scenario> ent_union_scenarios=new ArrayList();
        parsingScenarios(prjRow,prjCol,ent_common_scenarios,ent_union_scenarios);
        
-       double pscenarios;
-       if(ent_union_scenarios.isEmpty()) pscenarios=0.0;
-       else pscenarios=((double)ent_common_scenarios.size())/((double)ent_union_scenarios.size());
+       double pscenarios=ratio(ent_common_scenarios.size(),ent_union_scenarios.size());
        
        //Scenario Transitions
        ArrayList<StateTransition> ent_common_scenariotransitions=new ArrayList();
        ArrayList<StateTransition> ent_union_scenariotransitions=new ArrayList();       
        parsingScenrioStateTransitions(prjRow,prjCol,ent_common_scenariotransitions,ent_union_scenariotransitions);
-       double pscenariosTransitions;
-       if(ent_union_scenariotransitions.isEmpty()) pscenariosTransitions=0;
-       else pscenariosTransitions=((double)ent_common_scenariotransitions.size())/((double)ent_union_scenariotransitions.size());
-       
-       double eq05_sim_str_sc=(pgama*pscenarios)+((1-pgama)*pscenariosTransitions);
-       node.setEq05_sim_str_sc(eq05_sim_str_sc);
-       
-       //Computing the external Structural Distance
-       double eq06_edist_str=1-((pdelta*eq04_sim_str_ctx)+((1-pdelta)*eq05_sim_str_sc));
-       node.setEq06_edist_str(eq06_edist_str);
+       double pscenariosTransitions=ratio(ent_common_scenariotransitions.size(),ent_union_scenariotransitions.size());
        
-       //Computing the internal behavioral distance
+       //Computing the internal and external behavioral distances
        double idist_beh=eq10_idist_beh(prjRow,prjCol,ent_common_atts);
-       node.setIdist_beh(idist_beh);
-       
-       //Computing the external behavioral distance
        double edist_beh=eq13_edist_beh(prjRow,prjCol,ent_common_ctx);
-       node.setEdist_beh(edist_beh);
-       
-       //Computing the internal distance
-       double idist=((eq03_idist_str+idist_beh)/2);
-       node.setIdist(idist);
-       
-       //Computing the external distance
-       double edist=((eq06_edist_str+edist_beh)/2);
-       node.setEdist(edist);
        
-       //Computing the composed distance
-       double cdist=((pw*idist+((1-pw)*edist)));
-       node.setCdist(cdist);
+       double fields[]=new double[PrimitiveSimilarityTriangularMatrix.FIELDS];
+       computeComposedDistance(fields,eq01_sim_str_ent,pstates,pstatestransitions,eq04_sim_str_ctx,pscenarios,pscenariosTransitions,
+               idist_beh,edist_beh,palfa,pbeta,pgama,pdelta,pw);
+       storeComposedDistance(node,fields);
+       if(rawValues!=null)
+       {
+           rawValues[RawRatioMatrix.RAW_EQ01]=eq01_sim_str_ent;
+           rawValues[RawRatioMatrix.RAW_PSTATES]=pstates;
+           rawValues[RawRatioMatrix.RAW_PSTATES_TRANSITIONS]=pstatestransitions;
+           rawValues[RawRatioMatrix.RAW_EQ04]=eq04_sim_str_ctx;
+           rawValues[RawRatioMatrix.RAW_PSCENARIOS]=pscenarios;
+           rawValues[RawRatioMatrix.RAW_PSCENARIOS_TRANSITIONS]=pscenariosTransitions;
+           rawValues[RawRatioMatrix.RAW_IDIST_BEH]=idist_beh;
+           rawValues[RawRatioMatrix.RAW_EDIST_BEH]=edist_beh;
+       }
        
        //Clear all the ArrayList before ending this function
        ent_common_atts.clear();
@@ -507,55 +1313,342 @@ public class ComposedIndex{
     }
     
     /**
-     * It is responsible to fill the common attributes (intersection) between two projects, but also to fill
-     * the union of the attributes among them.
-     * 
-     * @param prj1 The first measurement project to be compared
-     * @param prj2 The second measurement project to be compared
-     * @param ent_common_atts The list to be filled with common attributes. It should be created (It should not be null).
-     * @param ent_union_atts The list to be filled with the union of attributes. It should be created (It should not be null)
-     * @return TRUE when the lists could be filled, FALSE otherwise
-     * @throws ProcessingException  It is raised when no projects are present or there not exist attributes
+     * It computes the composed similarity between two projects without allocations. It uses the precompiled signatures
+     * of the nodes and the reusable state of the worker, leaving the results in the scratch fields 
+     * (See PrimitiveSimilarityTriangularMatrix.FIELD_*) and the raw values (See RawRatioMatrix.RAW_*). Instead of raising exceptions, it indicates through the
+     * returned value whether the distance could be computed, so it is intended for the workers in the hot path.
+     * @param prjRow The project located at the row
+     * @param prjCol The project located at the column
+     * @param scratch The reusable state of the worker where the results will be stored
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1.
+     * @return TRUE when the distance was computed. FALSE when some project, the scratch, or some signature are not available, 
+     * some parameter is out of range, or there are no attributes in the union (the scratch fields are not modified).
      */
-    public static boolean parsingEntityAttributes(Node prj1,Node prj2,
-            ArrayList<BehavioralItemNode> ent_common_atts, ArrayList<BehavioralItemNode> ent_union_atts) throws ProcessingException
+    public static boolean composedDistance(Node prjRow,Node prjCol,PairScratch scratch,
+            double palfa,double pbeta,double pgama,double pdelta,double pw)
     {
-        if(prj1==null || prj2==null)
-            throw new ProcessingException("The project 1 or 2 are null");
-        if(prj1.getBeh()==null || prj1.getBeh().getAttributes()==null)
-            throw new ProcessingException("No attributes for the project ID "+prj1.getProject().getID());
-        if(prj2.getBeh()==null || prj2.getBeh().getAttributes()==null)
-            throw new ProcessingException("No attributes for the project ID "+prj2.getProject().getID());
-        if(ent_common_atts==null || ent_union_atts==null)
-            throw new ProcessingException("One or both attributes' list is null");
-        else
-        {//The lists are cleaned because they could store previous results
-            ent_common_atts.clear();
-            ent_union_atts.clear();
-        }
+        if(prjRow==null || prjCol==null || scratch==null) return false;
+        if(palfa<0 || palfa>1 || pbeta<0 || pbeta>1 || pgama<0 || pgama>1 ||
+                pdelta<0 || pdelta>1 || pw<0 || pw>1) return false;
         
-        ConcurrentHashMap<String,BehavioralItemNode> prj1Map=prj1.getBeh().getAttributesAsHashMap();
-        if(prj1Map==null) throw new ProcessingException("No attributes as a hash map in project ID "+prj1.getProject().getID());
-        ConcurrentHashMap<String,BehavioralItemNode> prj2Map=prj2.getBeh().getAttributesAsHashMap();
-        if(prj2Map==null) throw new ProcessingException("No attributes as a hash map in project ID "+prj2.getProject().getID());
+        NodeSignature sigRow=prjRow.getSignature();
+        NodeSignature sigCol=prjCol.getSignature();
+        if(sigRow==null || sigCol==null) return false;
         
-        for(BehavioralItemNode node:prj1Map.values())
+        double raw[]=scratch.getRaw();
+        //The structural ratios are shared by the projects of the same structural classes
+        StructuralClasses classes=sigRow.getStructuralClasses();
+        if(classes!=null && classes==sigCol.getStructuralClasses())
         {
-            BehavioralItemNode node2=prj2Map.remove(node.getAttributeID());
-            if(node2==null)
-            {//Node is only present in prj1
-                ent_union_atts.add(node);
-            }
-            else
-            {//Node is common
-                ent_union_atts.add(node);
-                ent_common_atts.add(node);
-            }                        
+            if(!classes.structuralRatios(sigRow, sigCol, raw)) return false;
         }
+        else if(!structuralRatios(sigRow, sigCol, raw)) return false;
         
-        if(!prj2Map.isEmpty())
-        {//Attributes in prj2 that are not present in prj1
-            ent_union_atts.addAll(prj2Map.values());
+        raw[RawRatioMatrix.RAW_IDIST_BEH]=sigRow.idistBeh(sigCol,scratch);
+        raw[RawRatioMatrix.RAW_EDIST_BEH]=sigRow.edistBeh(sigCol,scratch);
+        
+        computeComposedDistance(scratch.getFields(),raw[RawRatioMatrix.RAW_EQ01],raw[RawRatioMatrix.RAW_PSTATES],raw[RawRatioMatrix.RAW_PSTATES_TRANSITIONS],
+                raw[RawRatioMatrix.RAW_EQ04],raw[RawRatioMatrix.RAW_PSCENARIOS],raw[RawRatioMatrix.RAW_PSCENARIOS_TRANSITIONS],
+                raw[RawRatioMatrix.RAW_IDIST_BEH],raw[RawRatioMatrix.RAW_EDIST_BEH],palfa,pbeta,pgama,pdelta,pw);
+        
+        return true;
+    }
+    
+    /**
+     * It computes the raw structural ratios between two signatures: the proportions of common attributes, states,
+     * state transitions, context properties, scenarios, and scenario transitions.
+     * @param sigRow The signature of the project located at the row
+     * @param sigCol The signature of the project located at the column
+     * @param raw The array receiving the ratios ordered as indicated by RawRatioMatrix.RAW_EQ01 to RAW_PSCENARIOS_TRANSITIONS
+     * @return TRUE when the ratios were computed, FALSE when there are no attributes in the union
+     */
+    protected static boolean structuralRatios(NodeSignature sigRow,NodeSignature sigCol,double raw[])
+    {
+        int common=sigRow.attributesInCommon(sigCol);
+        int union=sigRow.attributesInUnion(sigCol, common);
+        if(union==0) return false;
+        raw[RawRatioMatrix.RAW_EQ01]=((double)common)/((double)union);
+
+        common=sigRow.statesInCommon(sigCol);
+        raw[RawRatioMatrix.RAW_PSTATES]=ratio(common,sigRow.statesInUnion(sigCol, common));
+        common=sigRow.stateTransitionsInCommon(sigCol);
+        raw[RawRatioMatrix.RAW_PSTATES_TRANSITIONS]=ratio(common,sigRow.stateTransitionsInUnion(sigCol, common));
+        common=sigRow.contextPropertiesInCommon(sigCol);
+        raw[RawRatioMatrix.RAW_EQ04]=ratio(common,sigRow.contextPropertiesInUnion(sigCol, common));
+        common=sigRow.scenariosInCommon(sigCol);
+        raw[RawRatioMatrix.RAW_PSCENARIOS]=ratio(common,sigRow.scenariosInUnion(sigCol, common));
+        common=sigRow.scenarioTransitionsInCommon(sigCol);
+        raw[RawRatioMatrix.RAW_PSCENARIOS_TRANSITIONS]=ratio(common,sigRow.scenarioTransitionsInUnion(sigCol, common));
+        
+        return true;
+    }
+    
+    /**
+     * It computes the behavioral part of the composed similarity between two projects without allocations, reusing
+     * the internal and external structural distances already computed (See equations 3 and 6). The behavioral distances,
+     * and the internal, external, and composed distances are left in the scratch fields.
+     * @param prjRow The project located at the row
+     * @param prjCol The project located at the column
+     * @param eq03_idist_str The internal structural distance (See equation 3)
+     * @param eq06_edist_str The external structural distance (See equation 6)
+     * @param scratch The reusable state of the worker where the results will be stored
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1.
+     * @return TRUE when the distances were computed. FALSE when some project, the scratch, or some signature are not available, 
+     * w is out of range, or some structural distance is not available (NaN).
+     */
+    public static boolean behavioralDistance(Node prjRow,Node prjCol,double eq03_idist_str,double eq06_edist_str,PairScratch scratch,double pw)
+    {
+        if(prjRow==null || prjCol==null || scratch==null) return false;
+        if(pw<0 || pw>1 || Double.isNaN(eq03_idist_str) || Double.isNaN(eq06_edist_str)) return false;
+        
+        NodeSignature sigRow=prjRow.getSignature();
+        NodeSignature sigCol=prjCol.getSignature();
+        if(sigRow==null || sigCol==null) return false;
+        
+        combineDistances(scratch.getFields(),eq03_idist_str,eq06_edist_str,sigRow.idistBeh(sigCol,scratch),sigRow.edistBeh(sigCol,scratch),pw);
+        
+        return true;
+    }
+    
+    /**
+     * It computes the internal, external, and composed distances (See equations 14 to 16)
+     * @param fields The array where the results are stored (See PrimitiveSimilarityTriangularMatrix.FIELD_*)
+     * @param eq03_idist_str The internal structural distance (See equation 3)
+     * @param eq06_edist_str The external structural distance (See equation 6)
+     * @param idist_beh The internal behavioral distance (See equation 10)
+     * @param edist_beh The external behavioral distance (See equation 13)
+     * @param pw The w parameter
+     */
+    private static void combineDistances(double fields[],double eq03_idist_str,double eq06_edist_str,double idist_beh,double edist_beh,double pw)
+    {
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_IDIST_BEH]=idist_beh;
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_EDIST_BEH]=edist_beh;
+       
+       //Computing the internal distance
+       double idist=((eq03_idist_str+idist_beh)/2);
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_IDIST]=idist;
+       
+       //Computing the external distance
+       double edist=((eq06_edist_str+edist_beh)/2);
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_EDIST]=edist;
+       
+       //Computing the composed distance
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_CDIST]=((pw*idist+((1-pw)*edist)));
+    }
+    
+    /**
+     * It computes the proportion of common elements in the union
+     * @param common The number of common elements (intersection)
+     * @param union The number of elements in the union
+     * @return The proportion, 0 when the union is empty
+     */
+    private static double ratio(int common,int union)
+    {
+        if(union==0) return 0.0;
+        
+        return ((double)common)/((double)union);
+    }
+    
+    /**
+     * It computes the structural, internal, external, and composed distances (See equations 1 to 16) from the
+     * proportions of common elements and the behavioral distances.
+     * @param fields The array where the results are stored (See PrimitiveSimilarityTriangularMatrix.FIELD_*)
+     * @param eq01_sim_str_ent The proportion of common attributes (See equation 1)
+     * @param pstates The proportion of common entity states
+     * @param pstatestransitions The proportion of common entity state transitions
+     * @param eq04_sim_str_ctx The proportion of common context properties (See equation 4)
+     * @param pscenarios The proportion of common scenarios
+     * @param pscenariosTransitions The proportion of common scenario transitions
+     * @param idist_beh The internal behavioral distance (See equation 10)
+     * @param edist_beh The external behavioral distance (See equation 13)
+     * @param palfa The alfa parameter
+     * @param pbeta The beta parameter
+     * @param pgama The gama parameter
+     * @param pdelta The delta parameter
+     * @param pw The w parameter
+     */
+    protected static void computeComposedDistance(double fields[],double eq01_sim_str_ent,double pstates,double pstatestransitions,
+            double eq04_sim_str_ctx,double pscenarios,double pscenariosTransitions,double idist_beh,double edist_beh,
+            double palfa,double pbeta,double pgama,double pdelta,double pw)
+    {
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ01_SIM_STR_ENT]=eq01_sim_str_ent;
+       
+       double eq02_sim_str_sc=(palfa*pstates)+((1-palfa)*pstatestransitions);
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ02_SIM_SC_ST]=eq02_sim_str_sc;
+       
+       //Computing the internal structural distance
+       double eq03_idist_str=1-(pbeta*eq01_sim_str_ent+((1-pbeta)*eq02_sim_str_sc));
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ03_IDIST_STR]=eq03_idist_str;
+       
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ04_SIM_CTX]=eq04_sim_str_ctx;
+       
+       double eq05_sim_str_sc=(pgama*pscenarios)+((1-pgama)*pscenariosTransitions);
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ05_SIM_STR_SC]=eq05_sim_str_sc;
+       
+       //Computing the external Structural Distance
+       double eq06_edist_str=1-((pdelta*eq04_sim_str_ctx)+((1-pdelta)*eq05_sim_str_sc));
+       fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ06_EDIST_STR]=eq06_edist_str;
+       
+       combineDistances(fields,eq03_idist_str,eq06_edist_str,idist_beh,edist_beh,pw);
+    }
+    
+    /**
+     * It stores the computed fields in the node instance
+     * @param node The instance where results will be stored.
+     * @param fields The computed fields (See PrimitiveSimilarityTriangularMatrix.FIELD_*)
+     */
+    protected static void storeComposedDistance(ComposedSimilarityNode node,double fields[])
+    {
+       node.setEq01_sim_str_ent(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ01_SIM_STR_ENT]);
+       node.setEq02_sim_sc_st(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ02_SIM_SC_ST]);
+       node.setEq03_idist_str(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ03_IDIST_STR]);
+       node.setEq04_sim_ctx(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ04_SIM_CTX]);
+       node.setEq05_sim_str_sc(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ05_SIM_STR_SC]);
+       node.setEq06_edist_str(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EQ06_EDIST_STR]);
+       node.setIdist_beh(fields[PrimitiveSimilarityTriangularMatrix.FIELD_IDIST_BEH]);
+       node.setEdist_beh(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EDIST_BEH]);
+       node.setIdist(fields[PrimitiveSimilarityTriangularMatrix.FIELD_IDIST]);
+       node.setEdist(fields[PrimitiveSimilarityTriangularMatrix.FIELD_EDIST]);
+       node.setCdist(fields[PrimitiveSimilarityTriangularMatrix.FIELD_CDIST]);
+    }
+    
+    /**
+     * It computes a cell of the matrix. The allocation-free path writes the fields directly into the primitive storage
+     * (or the node of the cell), and records the raw values when they are kept. When the signatures are not available, 
+     * the cell is computed through the parsing methods, recording its raw values. The raw values are invalidated when the
+     * cell could not be computed.
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param matrix The triangular matrix
+     * @param primitive The matrix when it uses a primitive storage, null otherwise
+     * @param raw The raw values of the cells. It could be null.
+     * @param row The row
+     * @param col The column. It must be greater or equal than the row.
+     * @param scratch The reusable state of the worker
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1.
+     */
+    protected static void computeCell(Node projs[],ComposedSimilarityTriangularMatrix matrix,PrimitiveSimilarityTriangularMatrix primitive,
+            RawRatioMatrix raw,int row,int col,PairScratch scratch,double palfa,double pbeta,double pgama,double pdelta,double pw)
+    {
+        if(composedDistance(projs[row], projs[col], scratch, palfa,pbeta,pgama,pdelta,pw))
+        {
+            if(primitive!=null) primitive.set(row, col, scratch.getFields());
+            else
+            {
+                ComposedSimilarityNode cell=matrix.get(row, col);
+                if(cell!=null) storeComposedDistance(cell, scratch.getFields());
+            }
+            if(raw!=null) raw.set(row, col, scratch.getRaw());
+            return;
+        }
+
+        try {
+            double rawValues[]=(raw!=null)?scratch.getRaw():null;
+            if(composedDistance(projs[row], projs[col], matrix.get(row, col), rawValues, palfa,pbeta,pgama,pdelta,pw))
+            {
+                if(raw!=null) raw.set(row, col, rawValues);
+                return;
+            }
+        } catch (ProcessingException ex) {
+            //The cell keeps its previous values
+        }
+        if(raw!=null) raw.invalidate(row, col);
+    }
+    
+    /**
+     * It computes the cells located between two unidimensional positions, in row-major order of the upper triangular matrix
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param matrix The triangular matrix
+     * @param start The first unidimensional position (inclusive)
+     * @param end The last unidimensional position (exclusive)
+     * @param scratch The reusable state of the worker
+     * @param stop The flag checked before each cell for stopping the computation. It could be null.
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1.
+     */
+    protected static void computeRange(Node projs[],ComposedSimilarityTriangularMatrix matrix,long start,long end,PairScratch scratch,
+            AtomicBoolean stop,double palfa,double pbeta,double pgama,double pdelta,double pw)
+    {
+        PrimitiveSimilarityTriangularMatrix primitive=(matrix instanceof PrimitiveSimilarityTriangularMatrix)?
+                (PrimitiveSimilarityTriangularMatrix)matrix:null;
+        int dim=matrix.getDim();
+        int row=matrix.computingRowFromPosition(start);
+        int col=matrix.computingColFromPosition(start);
+        for(long position=start;position<end;position++)
+        {
+            if(stop!=null && stop.get()) return;
+            computeCell(projs,matrix,primitive,null,row,col,scratch,palfa,pbeta,pgama,pdelta,pw);
+
+            //The next cell in row-major order of the upper triangular matrix
+            col++;
+            if(col==dim)
+            {
+                row++;
+                col=row;
+            }
+        }
+    }
+    
+    /**
+     * It is responsible to fill the common attributes (intersection) between two projects, but also to fill
+     * the union of the attributes among them.
+     * 
+     * @param prj1 The first measurement project to be compared
+     * @param prj2 The second measurement project to be compared
+     * @param ent_common_atts The list to be filled with common attributes. It should be created (It should not be null).
+     * @param ent_union_atts The list to be filled with the union of attributes. It should be created (It should not be null)
+     * @return TRUE when the lists could be filled, FALSE otherwise
+     * @throws ProcessingException  It is raised when no projects are present or there not exist attributes
+     */
+    public static boolean parsingEntityAttributes(Node prj1,Node prj2,
+            ArrayList<BehavioralItemNode> ent_common_atts, ArrayList<BehavioralItemNode> ent_union_atts) throws ProcessingException
+    {
+        if(prj1==null || prj2==null)
+            throw new ProcessingException("The project 1 or 2 are null");
+        if(prj1.getBeh()==null || prj1.getBeh().getAttributes()==null)
+            throw new ProcessingException("No attributes for the project ID "+prj1.getProject().getID());
+        if(prj2.getBeh()==null || prj2.getBeh().getAttributes()==null)
+            throw new ProcessingException("No attributes for the project ID "+prj2.getProject().getID());
+        if(ent_common_atts==null || ent_union_atts==null)
+            throw new ProcessingException("One or both attributes' list is null");
+        else
+        {//The lists are cleaned because they could store previous results
+            ent_common_atts.clear();
+            ent_union_atts.clear();
+        }
+        
+        ConcurrentHashMap<String,BehavioralItemNode> prj1Map=prj1.getBeh().getAttributesAsHashMap();
+        if(prj1Map==null) throw new ProcessingException("No attributes as a hash map in project ID "+prj1.getProject().getID());
+        ConcurrentHashMap<String,BehavioralItemNode> prj2Map=prj2.getBeh().getAttributesAsHashMap();
+        if(prj2Map==null) throw new ProcessingException("No attributes as a hash map in project ID "+prj2.getProject().getID());
+        
+        for(BehavioralItemNode node:prj1Map.values())
+        {
+            BehavioralItemNode node2=prj2Map.remove(node.getAttributeID());
+            if(node2==null)
+            {//Node is only present in prj1
+                ent_union_atts.add(node);
+            }
+            else
+            {//Node is common
+                ent_union_atts.add(node);
+                ent_common_atts.add(node);
+            }                        
+        }
+        
+        if(!prj2Map.isEmpty())
+        {//Attributes in prj2 that are not present in prj1
+            ent_union_atts.addAll(prj2Map.values());
         }
         
         prj2Map.clear();
@@ -957,6 +2050,38 @@ public class ComposedIndex{
                 (Math.sqrt((p1_att1.getVar()/p1_att1.getN().doubleValue())+(p2_att1.getVar()/p2_att1.getN().doubleValue())));
     }
     
+    /**
+     * It implements the equation 8/11 on primitive values, without allocations
+     * @param mean1 The mean of the attribute in the project 1
+     * @param spread1 The variance divided by n of the attribute in the project 1
+     * @param mean2 The mean of the attribute in the project 2
+     * @param spread2 The variance divided by n of the attribute in the project 2
+     * @return The Z value, NaN when some value is missing (i.e., NaN)
+     */
+    public static double eq08_11_zpi(double mean1,double spread1,double mean2,double spread2)
+    {
+        return (mean1-mean2)/Math.sqrt(spread1+spread2);
+    }
+    
+    /**
+     * It implements the equation 9/12 on primitive values, without allocations
+     * @param mean1 The mean of the attribute in the project 1
+     * @param spread1 The variance divided by n of the attribute in the project 1
+     * @param mean2 The mean of the attribute in the project 2
+     * @param spread2 The variance divided by n of the attribute in the project 2
+     * @return The interpretation of Z value based on equations 9/12, NaN when some value is missing (i.e., NaN)
+     */
+    public static double eq09_12_izpi(double mean1,double spread1,double mean2,double spread2)
+    {
+        double z=Math.abs(eq08_11_zpi(mean1,spread1,mean2,spread2));
+        
+        if(Double.isNaN(z)) return Double.NaN;
+        if(z<2) return 1.0;
+        if(z>3) return 0.0;
+        
+        return 3.0-z;
+    }
+    
     /**
      * It implements the equation 9/12 to implement the Z-test interpretation for the same attribute in two different projects
      * @param p1_att1 The behavioral information about the attribute 1 in the project 1
@@ -1070,33 +2195,1135 @@ public class ComposedIndex{
      */
     public boolean updateEstimationOfComposedIndex() throws ProcessingException
     {
-        if(matrix==null) throw new ProcessingException("No matrix to be processed");
-        if(projects==null || projects.isEmpty()) throw new ProcessingException("No projects available");
-        matrix.restartThreadPosition();        
+        estimationLock.lock();
+        try{
+            if(matrix==null) throw new ProcessingException("No matrix to be processed");
+            if(projects==null || projects.isEmpty()) throw new ProcessingException("No projects available");
+            if(message==null) throw new ProcessingException("No IPD message available. A snapshot loaded without the message only answers queries");
+            if(structuralCaching && isStructuralCacheValid()) return updateBehavioralEstimation();
         
-        int nthreads=1;
-        int factor=matrix.unidimensionalLength()/5;
-        if(factor>1)
+            boolean ret;
+            if(tileSize>0 || keepingRawRatios || (matrix instanceof TiledSimilarityTriangularMatrix)) ret=updateEstimationByTiles();
+            else ret=updateEstimationByCells();
+        
+            if(ret) markStructuralCache();
+        
+            return ret;
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It updates the composed index estimation computing the cells one by one, using the execution strategy. 
+     * By default, the cells are split into balanced tasks executed by a work-stealing pool sized to the available 
+     * processors (See ForkJoinIndexEstimator).
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when some parameter is out of range, or the computation was interrupted.
+     */
+    protected boolean updateEstimationByCells() throws ProcessingException
+    {
+        if(executionStrategy==ExecutionStrategy.CHUNKED_CURSOR || executionStrategy==ExecutionStrategy.VIRTUAL_THREADS || computeTenant!=null) 
+            return updateEstimationByChunks(null);
+        
+        ForkJoinIndexEstimator.create(projectsByIndex,matrix,alfa,beta,gama,delta,w).execute();
+        
+        return true;
+    }
+    
+    /**
+     * It updates the composed index estimation letting each worker claim chunks of cells from a lock-free cursor.
+     * The number of workers is chosen from the cores and the throughput observed in the previous runs (See WorkerSizing).
+     * The workers run on virtual threads for the VIRTUAL_THREADS strategy when they are available.
+     * @param control The control of an asynchronous estimation, null for a synchronous one
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when some parameter is out of range, or the computation was interrupted.
+     */
+    private boolean updateEstimationByChunks(EstimationControl control) throws ProcessingException
+    {
+        long length=matrix.unidimensionalLongLength();
+        int nthreads=capWorkers((int)Math.max(1, Math.min(workerSizing.getWorkers(), length)));
+        ChunkedCursor cursor;
+        try{
+            cursor=ChunkedCursor.create(length, nthreads);
+        }catch(Exception e)
         {
-            nthreads=nthreads*factor;
+            throw new ProcessingException("[ChunkedCursor] Problems creating the cursor. Message: "+e.getMessage());
         }
         
-        ExecutorService pool=Executors.newFixedThreadPool(nthreads);
+        long t0=System.nanoTime();
+        ArrayList<Runnable> workers=new ArrayList();
         for(int i=0;i<nthreads;i++)
         {
-            pool.execute(IndexEstimator.create(projects,matrix,alfa,beta,gama,delta,w));
+            IndexEstimator estimator=IndexEstimator.create(projectsByIndex,matrix,cursor,alfa,beta,gama,delta,w);
+            estimator.setControl(control);
+            workers.add(estimator);
         }
+        runWorkers(workers,"The estimation has been interrupted");
+        
+        //The elapsed time under a shared scheduler includes the turns of the other tenants
+        if(computeTenant==null && (control==null || !control.isStopped())) workerSizing.record(nthreads, length, System.nanoTime()-t0);
+        
+        return true;
+    }
+    
+    /**
+     * @return the way in which the workers are organized when the cells are computed one by one
+     */
+    public ExecutionStrategy getExecutionStrategy() {
+        return executionStrategy;
+    }
 
+    /**
+     * It establishes the way in which the workers are organized when the cells are computed one by one
+     * @param pstrategy The execution strategy
+     * @throws ProcessingException It is raised when the strategy is null
+     */
+    public void setExecutionStrategy(ExecutionStrategy pstrategy) throws ProcessingException {
+        estimationLock.lock();
+        try{
+            if(pstrategy==null) throw new ProcessingException("The execution strategy is null");
+        
+            if(pstrategy!=executionStrategy && ingestionExecutor!=null)
+            {
+                //The submitted ingestion tasks are completed by the previous executor
+                ingestionExecutor.shutdown();
+                ingestionExecutor=null;
+            }
+            this.executionStrategy = pstrategy;
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It establishes the scheduler shared with other instances, registering this instance as a tenant. The workers of
+     * every estimation are queued into the tenant and served by the scheduler threads through a weighted round-robin,
+     * chunk by chunk (or tile by tile, row by row), so the total number of computing threads is bounded by the scheduler.
+     * While a scheduler is established, the cells are claimed in chunks whatever the execution strategy.
+     * @param scheduler The shared scheduler. When it is null, the previous tenant is unregistered and each estimation uses its own pool.
+     * @param tenantName The name of the tenant
+     * @param weight The number of slices run per turn. It must be greater than 0.
+     * @param maxConcurrency The maximum number of slices of this instance in progress at the same time. It must be greater than 0.
+     * @throws ProcessingException It is raised when the tenant could not be registered
+     */
+    public void setComputeScheduler(ComputeScheduler scheduler,String tenantName,int weight,int maxConcurrency) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            ComputeScheduler.Tenant next=(scheduler==null)?null:scheduler.register(tenantName, weight, maxConcurrency);
+        
+            if(computeTenant!=null) computeTenant.getScheduler().unregister(computeTenant);
+            computeTenant=next;
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * @return the tenant of the shared scheduler, null when each estimation uses its own pool
+     */
+    public ComputeScheduler.Tenant getComputeTenant() {
+        return computeTenant;
+    }
+    
+    /**
+     * It limits the number of workers to the concurrency cap of the tenant, when a shared scheduler is established
+     * @param nthreads The number of workers
+     * @return The number of workers to be created
+     */
+    private int capWorkers(int nthreads)
+    {
+        if(computeTenant==null) return nthreads;
+        
+        return Math.max(1, Math.min(nthreads, computeTenant.getMaxConcurrency()));
+    }
+    
+    /**
+     * It runs the workers waiting until all of them have finished. They are queued into the tenant of the shared scheduler
+     * when it is established, or run on a pool created for the execution strategy otherwise.
+     * @param workers The workers
+     * @param interruptedMessage The message of the exception raised when the waiting thread is interrupted
+     * @throws ProcessingException It is raised when the computation was interrupted, or some worker failed. When it is
+     * interrupted, it returns once the workers in progress have stopped, so no worker writes the matrix afterwards.
+     */
+    private void runWorkers(ArrayList<Runnable> workers,String interruptedMessage) throws ProcessingException
+    {
+        if(computeTenant!=null)
+        {
+            try{
+                computeTenant.execute(workers);
+            }catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new ProcessingException(interruptedMessage);
+            }
+            
+            return;
+        }
+        
+        ExecutorService pool=VirtualThreadSupport.newExecutor(executionStrategy,workers.size());
+        for(Runnable r:workers) pool.execute(r);
+        
         pool.shutdown();
         
-        while(!pool.isTerminated()){}
+        try{
+            while(!pool.awaitTermination(1, TimeUnit.SECONDS)){}
+        }catch(InterruptedException e)
+        {
+            //The workers stop between slices, and they must be finished before the lock is released
+            pool.shutdownNow();
+            awaitTerminationUninterruptibly(pool);
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(interruptedMessage);
+        }
+    }
+    
+    /**
+     * It waits for the termination of a pool ignoring the interruptions. The interruption status is not restored.
+     * @param pool The pool
+     */
+    private static void awaitTerminationUninterruptibly(ExecutorService pool)
+    {
+        while(true)
+        {
+            try{
+                if(pool.awaitTermination(1, TimeUnit.SECONDS)) return;
+            }catch(InterruptedException e)
+            {
+                //It keeps waiting for the workers in progress
+            }
+        }
+    }
+    
+    /**
+     * It submits a blocking ingestion task (e.g., reading stats from disk and updating them through updateBehavioralStats,
+     * or parsing an IPD message). For the VIRTUAL_THREADS strategy, each task runs on a virtual thread when they are
+     * available, so the blocking steps do not hold platform threads. Otherwise, a cached pool of platform threads is used.
+     * The tasks calling the estimation methods wait on the estimation lock (a ReentrantLock), which does not pin the carrier thread.
+     * @param <T> The type of the result
+     * @param task The ingestion task
+     * @return The future result of the task
+     * @throws ProcessingException It is raised when the task is null
+     */
+    public <T> Future<T> submitIngestion(Callable<T> task) throws ProcessingException
+    {
+        if(task==null) throw new ProcessingException("The ingestion task is null");
+        
+        FutureTask<T> future=new FutureTask<T>(task);
+        executeIngestion(future);
         
-        return true;
+        return future;
     }
     
-    public void releaseResources() throws ProcessingException
+    /**
+     * It runs a task on the executor of the ingestion tasks and asynchronous estimations, created on demand.
+     * The executor is replaced under the estimation lock (See setExecutionStrategy), but it is read without the lock,
+     * so submitting a task does not wait for a running estimation. When the executor was shut down meanwhile, 
+     * the task is submitted again holding the lock.
+     * @param task The task
+     */
+    private void executeIngestion(Runnable task)
     {
-        if(matrix!=null) matrix.releaseResources();
-        if(projects!=null) projects.clear();        
+        ExecutorService current=ingestionExecutor;
+        if(current!=null)
+        {
+            try{
+                current.execute(task);
+                return;
+            }catch(RejectedExecutionException e)
+            {
+                //The executor was replaced or shut down
+            }
+        }
+        
+        estimationLock.lock();
+        try{
+            if(ingestionExecutor==null || ingestionExecutor.isShutdown()) ingestionExecutor=VirtualThreadSupport.newIngestionExecutor(executionStrategy);
+            ingestionExecutor.execute(task);
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It starts the composed index estimation in background, returning immediately (See updateEstimationAsync(ProgressListener,long,TimeUnit)).
+     * @return The future result of the estimation
+     * @throws ProcessingException It is raised when does not exist a matrix, projects, or message.
+     */
+    public CompletableFuture<Boolean> updateEstimationAsync() throws ProcessingException
+    {
+        return updateEstimationAsync(null,0,TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * It starts the composed index estimation in background, returning immediately (See updateEstimationAsync(ProgressListener,long,TimeUnit)).
+     * @param progress The listener receiving the number of computed cells. It could be null.
+     * @return The future result of the estimation
+     * @throws ProcessingException It is raised when does not exist a matrix, projects, or message.
+     */
+    public CompletableFuture<Boolean> updateEstimationAsync(EstimationControl.ProgressListener progress) throws ProcessingException
+    {
+        return updateEstimationAsync(progress,0,TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * It starts the composed index estimation in background, returning immediately. The estimation follows the same 
+     * paths as updateEstimationOfComposedIndex, but the cells computed one by one are always claimed in chunks 
+     * (See ExecutionStrategy.CHUNKED_CURSOR), so the workers can check the cancellation and the timeout between 
+     * chunks (or tiles). The progress is reported after each chunk (or tile).
+     * <ul>
+     * <li>Cancelling the future stops the workers once their current chunks are completed.</li>
+     * <li>When the timeout is reached, the future is completed exceptionally with a TimeoutException, even when the 
+     * estimation is still waiting for the estimation lock or computing a chunk. The workers stop once their current 
+     * chunks are completed, and the estimation lock is released after them.</li>
+     * </ul>
+     * A stopped estimation leaves the matrix partially updated, so the cached structural results are invalidated.
+     * @param progress The listener receiving the number of computed cells. It could be null.
+     * @param timeout The maximum duration of the estimation. Zero or a negative value indicates no timeout.
+     * @param unit The unit of the timeout
+     * @return The future result of the estimation
+     * @throws ProcessingException It is raised when does not exist a matrix, projects, or message.
+     */
+    public CompletableFuture<Boolean> updateEstimationAsync(EstimationControl.ProgressListener progress,long timeout,TimeUnit unit) throws ProcessingException
+    {
+        if(matrix==null) throw new ProcessingException("No matrix to be processed");
+        if(projects==null || projects.isEmpty()) throw new ProcessingException("No projects available");
+        if(message==null) throw new ProcessingException("No IPD message available. A snapshot loaded without the message only answers queries");
+        
+        final CompletableFuture<Boolean> future=new CompletableFuture();
+        final EstimationControl control=EstimationControl.create(matrix.unidimensionalLongLength(), progress, 
+                (timeout>0 && unit!=null)?unit.toNanos(timeout):0);
+        //The timer is armed now, so the deadline also covers the time spent waiting for the estimation lock
+        final ScheduledFuture<?> timer=(timeout>0 && unit!=null)?getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                control.expire();
+                future.completeExceptionally(new TimeoutException("The estimation exceeded the timeout"));
+            }
+        }, timeout, unit):null;
+        future.whenComplete(new BiConsumer<Boolean,Throwable>() {
+            @Override
+            public void accept(Boolean t, Throwable u) {
+                if(timer!=null) timer.cancel(false);
+                if(future.isCancelled()) control.cancel();
+            }
+        });
+        
+        executeIngestion(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    boolean ret=runEstimation(control);
+                    if(ret) future.complete(true);
+                    else if(control.isTimedOut()) future.completeExceptionally(new TimeoutException("The estimation exceeded the timeout"));
+                    else if(control.isCancelled()) future.cancel(false);
+                    else future.complete(false);
+                }catch(Throwable t)
+                {
+                    future.completeExceptionally(t);
+                }
+            }
+        });
+        
+        return future;
+    }
+    
+    /**
+     * @return the timer shared by the asynchronous estimations for completing them when their timeout is reached, created on demand
+     */
+    private synchronized static ScheduledExecutorService getTimer()
+    {
+        if(timeoutTimer==null)
+        {
+            ScheduledThreadPoolExecutor executor=new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t=new Thread(r,"composedIndex-timeout");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            timeoutTimer=executor;
+        }
+        
+        return timeoutTimer;
+    }
+    
+    /**
+     * It runs an asynchronous estimation holding the estimation lock, so it is serialized with the synchronous estimations
+     * @param control The control of the estimation
+     * @return TRUE when the estimation has been completed, FALSE when it was stopped or could not be completed.
+     * @throws ProcessingException It is raised when does not exist a matrix, projects, or message, or the computation was interrupted.
+     */
+    private boolean runEstimation(EstimationControl control) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(control.isStopped()) return false;
+            if(matrix==null) throw new ProcessingException("No matrix to be processed");
+            if(projects==null || projects.isEmpty()) throw new ProcessingException("No projects available");
+            if(message==null) throw new ProcessingException("No IPD message available. A snapshot loaded without the message only answers queries");
+        
+            boolean ret;
+            if(structuralCaching && isStructuralCacheValid()) ret=runTiledEstimation(true,control);
+            else if(tileSize>0 || keepingRawRatios || (matrix instanceof TiledSimilarityTriangularMatrix)) ret=runTiledEstimation(false,control);
+            else ret=updateEstimationByChunks(control);
+        
+            //A late stop does not discard an estimation whose cells were all computed
+            if(control.getDone()<control.getTotal() && control.isStopped())
+            {
+                invalidateStructuralCache();
+                return false;
+            }
+            if(ret) markStructuralCache();
+        
+            return ret;
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * @return the number of workers used by the CHUNKED_CURSOR strategy, and the throughput observed by them
+     */
+    public WorkerSizing getWorkerSizing() {
+        return workerSizing;
+    }
+    
+    /**
+     * It updates the composed index estimation letting each worker claim whole tiles of the matrix. 
+     * So, the project nodes related to the rows and columns of a tile stay cache-resident while
+     * all its pairs are computed.
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when the tiling could not be created, or the computation was interrupted.
+     */
+    protected boolean updateEstimationByTiles() throws ProcessingException
+    {
+        return runTiledEstimation(false,null);
+    }
+    
+    /**
+     * It refreshes only the behavioral part of the composed index estimation, reusing the structural results
+     * (equations 1 to 6) kept in the cells. The behavioral distances (equations 10 and 13), and the internal, 
+     * external, and composed distances are recomputed using the current statistics and the w parameter. 
+     * When the cached structural results are not valid, every cell is computed (See updateEstimationOfComposedIndex).
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when does not exist a matrix or projects, or the computation was interrupted.
+     */
+    public boolean updateBehavioralEstimation() throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(matrix==null) throw new ProcessingException("No matrix to be processed");
+            if(message==null) throw new ProcessingException("No IPD message available. A snapshot loaded without the message only answers queries");
+            if(!isStructuralCacheValid())
+            {
+                boolean ret;
+                if(tileSize>0 || keepingRawRatios || (matrix instanceof TiledSimilarityTriangularMatrix)) ret=updateEstimationByTiles();
+                else ret=updateEstimationByCells();
+                if(ret) markStructuralCache();
+            
+                return ret;
+            }
+        
+            return runTiledEstimation(true,null);
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It changes the alfa, beta, gama, delta, and w parameters, deriving again every cell from the raw values recorded by
+     * the last estimation (See setKeepingRawRatios). The derivation is a parallel streaming pass over primitive arrays, 
+     * without parsing the projects. The cells without raw values are completely recomputed, and when no raw values are 
+     * available, the whole estimation is updated (See updateEstimationOfComposedIndex).
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1.
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when some parameter is out of range, there is no matrix or message, 
+     * or the computation was interrupted.
+     */
+    public boolean reweight(double palfa,double pbeta,double pgama,double pdelta,double pw) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(palfa<0 || palfa>1) throw new ProcessingException("The alfa parameter is out of range [0; 1]");
+            if(pbeta<0 || pbeta>1) throw new ProcessingException("The beta parameter is out of range [0; 1]");
+            if(pgama<0 || pgama>1) throw new ProcessingException("The gama parameter is out of range [0; 1]");
+            if(pdelta<0 || pdelta>1) throw new ProcessingException("The delta parameter is out of range [0; 1]");
+            if(pw<0 || pw>1) throw new ProcessingException("The w parameter is out of range [0; 1]");
+            if(matrix==null) throw new ProcessingException("No matrix to be processed");
+            if(message==null) throw new ProcessingException("No IPD message available. A snapshot loaded without the message only answers queries");
+        
+            alfa=palfa;
+            beta=pbeta;
+            gama=pgama;
+            delta=pdelta;
+            w=pw;
+        
+            if(rawRatios==null || rawRatios.getDim()!=matrix.getDim()) return updateEstimationOfComposedIndex();
+        
+            AtomicInteger cursor=new AtomicInteger(0);
+            int nthreads=capWorkers(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), projectsByIndex.length)));
+            ArrayList<Runnable> workers=new ArrayList();
+            for(int i=0;i<nthreads;i++)
+            {
+                workers.add(ReweightEstimator.create(projectsByIndex,matrix,rawRatios,cursor,alfa,beta,gama,delta,w));
+            }
+            runWorkers(workers,"The re-weighting has been interrupted");
+        
+            markStructuralCache();
+        
+            return true;
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It runs the tiled workers on the matrix
+     * @param behavioralOnly TRUE indicates that only the behavioral part of the cells is refreshed
+     * @param control The control of an asynchronous estimation, null for a synchronous one
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when the tiling could not be created, or the computation was interrupted.
+     */
+    private boolean runTiledEstimation(boolean behavioralOnly,EstimationControl control) throws ProcessingException
+    {
+        int ptileSize=(tileSize>0)?tileSize:TriangularTiling.DEFAULT_TILE_SIZE;
+        TriangularTiling tiling;
+        try{
+            if(matrix instanceof TiledSimilarityTriangularMatrix)
+                tiling=((TiledSimilarityTriangularMatrix)matrix).getTiling();
+            else
+                tiling=TriangularTiling.create(matrix.getDim(), ptileSize);
+        }catch(Exception e)
+        {
+            throw new ProcessingException("[TriangularTiling] Problems creating the tiling. Message: "+e.getMessage());
+        }
+        tiling.restart();
+        
+        if(keepingRawRatios && (rawRatios==null || rawRatios.getDim()!=matrix.getDim()))
+        {
+            try{
+                rawRatios=RawRatioMatrix.create(matrix.getDim());
+            }catch(Exception e)
+            {
+                throw new ProcessingException("[RawRatioMatrix] Problems creating the raw values. Message: "+e.getMessage());
+            }
+        }
+        RawRatioMatrix raw=keepingRawRatios?rawRatios:null;
+        
+        int nthreads=capWorkers(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), tiling.getTileCount())));
+        ArrayList<Runnable> workers=new ArrayList();
+        for(int i=0;i<nthreads;i++)
+        {
+            TiledIndexEstimator estimator=behavioralOnly?
+                    TiledIndexEstimator.createBehavioralRefresh(projectsByIndex,matrix,tiling,raw,alfa,beta,gama,delta,w):
+                    TiledIndexEstimator.create(projectsByIndex,matrix,tiling,raw,alfa,beta,gama,delta,w);
+            estimator.setControl(control);
+            workers.add(estimator);
+        }
+        runWorkers(workers,"The estimation has been interrupted");
+        
+        return true;
+    }
+    
+    /**
+     * It updates the composed index estimation keeping only the pairs whose composed distance is lesser or
+     * equal than a threshold. The pairs are queried by project through getNeighbours and getNeighbourDistances.
+     * When the storage mode is SPARSE, no triangular matrix is allocated.
+     * @param threshold The maximum composed distance of a kept pair
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when there are no projects, the threshold is invalid, or the computation was interrupted.
+     */
+    public boolean updateSparseEstimationByThreshold(double threshold) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(projectDictionary==null || projectsByIndex==null) throw new ProcessingException("No projects available");
+        
+            try{
+                return updateSparseEstimation(SparseSimilarityMatrix.createByThreshold(projectDictionary.toArray(), threshold));
+            }catch(ProcessingException pe)
+            {
+                throw pe;
+            }catch(Exception e)
+            {
+                throw new ProcessingException("[SparseMatrix] Problems creating the sparse matrix. Message: "+e.getMessage());
+            }
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It updates the composed index estimation keeping only the k nearest neighbours of each project.
+     * The pairs are queried by project through getNeighbours and getNeighbourDistances.
+     * When the storage mode is SPARSE, no triangular matrix is allocated.
+     * @param k The number of nearest neighbours kept per project
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when there are no projects, k is lesser than 1, or the computation was interrupted.
+     */
+    public boolean updateSparseEstimationByNearest(int k) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(projectDictionary==null || projectsByIndex==null) throw new ProcessingException("No projects available");
+        
+            try{
+                return updateSparseEstimation(SparseSimilarityMatrix.createByNearest(projectDictionary.toArray(), k));
+            }catch(ProcessingException pe)
+            {
+                throw pe;
+            }catch(Exception e)
+            {
+                throw new ProcessingException("[SparseMatrix] Problems creating the sparse matrix. Message: "+e.getMessage());
+            }
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It updates the composed index estimation under several weighting profiles in a single pass. The raw structural
+     * and behavioral terms of each pair are computed once, and one composed distance per profile is derived from them
+     * (See getProfiledMatrix and getProfiledCdist). When the raw values are kept (See setKeepingRawRatios), the 
+     * available cells are derived without parsing the projects. The matrix and parameters of this instance are not changed.
+     * @param profiles The weighting profiles
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when there are no projects, message, or profiles, the names of the profiles
+     * are repeated, or the computation was interrupted.
+     */
+    public boolean updateProfiledEstimation(List<WeightingProfile> profiles) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(projectDictionary==null || projectsByIndex==null) throw new ProcessingException("No projects available");
+            if(message==null) throw new ProcessingException("No IPD message available. A snapshot loaded without the message only answers queries");
+            if(profiles==null || profiles.isEmpty()) throw new ProcessingException("No weighting profiles available");
+        
+            ProfiledDistanceMatrix target;
+            try{
+                target=ProfiledDistanceMatrix.create(projectDictionary.toArray(), profiles);
+            }catch(Exception e)
+            {
+                throw new ProcessingException("[ProfiledMatrix] Problems creating the profiled matrix. Message: "+e.getMessage());
+            }
+            for(int k=0;k<target.getProfileCount();k++)
+            {
+                if(target.indexOfProfile(target.getProfile(k).getName())!=k) throw new ProcessingException("The profile name "+target.getProfile(k).getName()+" is repeated");
+            }
+        
+            RawRatioMatrix raw=(rawRatios!=null && rawRatios.getDim()==projectsByIndex.length)?rawRatios:null;
+            AtomicInteger cursor=new AtomicInteger(0);
+            int nthreads=capWorkers(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), projectsByIndex.length)));
+            ArrayList<Runnable> workers=new ArrayList();
+            for(int i=0;i<nthreads;i++)
+            {
+                workers.add(ProfiledIndexEstimator.create(projectsByIndex,target,raw,cursor));
+            }
+            runWorkers(workers,"The estimation has been interrupted");
+        
+            profiledMatrix=target;
+        
+            return true;
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It computes every pair offering it to the sparse matrix, which is built once all the workers have finished.
+     * @param target The sparse matrix receiving the pairs
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when the computation was interrupted.
+     */
+    private boolean updateSparseEstimation(SparseSimilarityMatrix target) throws ProcessingException
+    {
+        if(message==null) throw new ProcessingException("No IPD message available. A snapshot loaded without the message only answers queries");
+        AtomicInteger cursor=new AtomicInteger(0);
+        int nthreads=capWorkers(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), projectsByIndex.length)));
+        ArrayList<Runnable> workers=new ArrayList();
+        for(int i=0;i<nthreads;i++)
+        {
+            workers.add(SparseIndexEstimator.create(projectsByIndex,target,cursor,alfa,beta,gama,delta,w));
+        }
+        runWorkers(workers,"The estimation has been interrupted");
+        
+        target.build();
+        if(sparseMatrix!=null) sparseMatrix.releaseResources();
+        sparseMatrix=target;
+        
+        return true;
+    }
+    
+    /**
+     * It updates the composed index estimation using the indicated storage mode for the matrix.
+     * When the mode differs from the current one, the matrix is created again using the new mode.
+     * @param mode The way in which the cells of the triangular matrix will be stored
+     * @return TRUE when the estimation has been completed, FALSE otherwise.
+     * @throws ProcessingException It is raised when does not exist a matrix or projects, or the matrix could not be created.
+     */
+    public boolean updateEstimationOfComposedIndex(MatrixStorageMode mode) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(mode==null) throw new ProcessingException("The storage mode is null");
+            if(projects==null || projects.isEmpty()) throw new ProcessingException("No projects available");
+        
+            if(matrix==null || matrix.getStorageMode()!=mode)
+            {
+                storageMode=mode;
+                createMatrix();
+            }
+        
+            return updateEstimationOfComposedIndex();
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It returns the composed distance between the projects located at the given row and column of the matrix.
+     * The precision depends on the storage mode (See getCdistMaximumError).
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @return The composed distance, NaN when it is not available
+     */
+    public double getCdist(int row,int col)
+    {
+        if(sharedReader!=null)
+        {
+            SharedMatrixReader.Generation gen=currentSharedGeneration();
+            return (gen==null)?Double.NaN:gen.getMatrix().getCdist(row, col);
+        }
+        if(matrix==null)
+            return (sparseMatrix==null)?Double.NaN:sparseMatrix.getCdist(row, col);
+        
+        return matrix.getCdist(row, col);
+    }
+    
+    /**
+     * It informs the maximum absolute error of the composed distances returned by the current matrix
+     * @return The maximum absolute error, zero when the composed distance is kept as it was computed. NaN when there is no matrix.
+     */
+    public double getCdistMaximumError()
+    {
+        if(matrix==null) return Double.NaN;
+        
+        return matrix.getCdistMaximumError();
+    }
+    
+    /**
+     * It writes a binary snapshot of the computed index: the project dictionary, the weighting parameters
+     * (alfa, beta, gama, delta, and w), the storage mode, the behavioral stats, the matrix, and the pairs kept by the last
+     * sparse estimation (as CSR-style arrays). The cells are written in row-major order, independently of the storage layout,
+     * and the header keeps the CRC32 of the content.
+     * The snapshot is written into a temporary file (file.tmp) which is forced and atomically renamed, so the previous
+     * snapshot is kept when the writing fails. When a delta log is open, it is reset once the snapshot has been renamed.
+     * @param file The snapshot file. It is created when it does not exist, or replaced otherwise.
+     * @throws ProcessingException It is raised when there are no projects, or the snapshot could not be written.
+     */
+    public void saveSnapshot(Path file) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(file==null) throw new ProcessingException("The snapshot file is null");
+            if(projectDictionary==null || projectsByIndex==null) throw new ProcessingException("No projects available");
+        
+            Path tmp=file.resolveSibling(file.getFileName()+".tmp");
+            try{
+                try(SnapshotChannel out=SnapshotChannel.openForWriting(tmp))
+                {
+                    out.putInt(SNAPSHOT_MAGIC);
+                    out.putInt(SNAPSHOT_VERSION);
+                    out.putLong(0);//The checksum is written once the content is known
+                    out.startChecksum();
+                    writeSnapshotContent(out);
+                    out.putLongAt(SNAPSHOT_CHECKSUM_OFFSET, out.getChecksum());
+                }
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }catch(IOException e)
+            {
+                try{
+                    Files.deleteIfExists(tmp);
+                }catch(IOException ex)
+                {
+                    //The temporary file is replaced by the next snapshot
+                }
+                throw new ProcessingException("[Snapshot] The snapshot could not be written. Message: "+e.getMessage());
+            }
+        
+            //The snapshot covers all the logged changes
+            try{
+                if(deltaLog!=null) deltaLog.reset();
+            }catch(IOException e)
+            {
+                throw new ProcessingException("[DeltaLog] The log could not be reset. Message: "+e.getMessage());
+            }
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It writes the content of a snapshot after its header
+     * @param out The snapshot channel
+     * @throws IOException It is raised when the content could not be written
+     */
+    private void writeSnapshotContent(SnapshotChannel out) throws IOException
+    {
+        out.putDouble(alfa);
+        out.putDouble(beta);
+        out.putDouble(gama);
+        out.putDouble(delta);
+        out.putDouble(w);
+        out.putString(storageMode.name());
+        out.putInt(tileSize);
+
+        int dim=projectDictionary.size();
+        out.putInt(dim);
+        for(int i=0;i<dim;i++) out.putString(projectDictionary.getID(i));
+
+        for(int i=0;i<dim;i++)
+        {
+            BehavioralNode beh=projectsByIndex[i].getBeh();
+            writeBehavioralItems(out,(beh==null)?null:beh.getAttributes());
+            writeBehavioralItems(out,(beh==null)?null:beh.getContextProperties());
+        }
+
+        if(matrix==null)
+        {
+            out.putByte((byte)0);
+        }
+        else if(matrix instanceof PrimitiveSimilarityTriangularMatrix)
+        {
+            //The fields are read from the primitive storage, without creating a view per cell
+            PrimitiveSimilarityTriangularMatrix primitive=(PrimitiveSimilarityTriangularMatrix)matrix;
+            out.putByte((byte)1);
+            for(int i=0;i<dim;i++)
+                for(int j=i;j<dim;j++)
+                    for(int f=0;f<PrimitiveSimilarityTriangularMatrix.FIELDS;f++)
+                        out.putDouble(primitive.getValue(i, j, f));
+        }
+        else
+        {
+            out.putByte((byte)1);
+            for(int i=0;i<dim;i++)
+                for(int j=i;j<dim;j++)
+                    writeCell(out,matrix.get(i, j));
+        }
+
+        if(sparseMatrix==null || !sparseMatrix.isBuilt())
+        {
+            out.putByte((byte)0);
+        }
+        else
+        {
+            out.putByte((byte)1);
+            sparseMatrix.write(out);
+        }
+    }
+    
+    /**
+     * It restores a snapshot written by saveSnapshot, skipping the recomputation of the distances.
+     * When the current message contains the same projects (in the same order), the snapshot is restored over it,
+     * and the index can be updated later. Otherwise, the message is discarded and the index only answers
+     * queries (e.g., distance, getRow, getNeighbours, getBehavioralPerspective) until a new message is set.
+     * The instance is not modified when the snapshot could not be read, or its content does not match the checksum of the header
+     * (the snapshots written by the version 1 have no checksum).
+     * @param file The snapshot file
+     * @throws ProcessingException It is raised when the file is not a snapshot, its version is not supported, it is corrupted, or it could not be read.
+     */
+    public void loadSnapshot(Path file) throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(file==null) throw new ProcessingException("The snapshot file is null");
+        
+            ComposedSimilarityTriangularMatrix newMatrix=null;
+            SparseSimilarityMatrix newSparse=null;
+            try(SnapshotChannel in=SnapshotChannel.openForReading(file))
+            {
+                if(in.getInt()!=SNAPSHOT_MAGIC) throw new ProcessingException("[Snapshot] The file is not a snapshot of the composed index");
+                int version=in.getInt();
+                if(version<1 || version>SNAPSHOT_VERSION) throw new ProcessingException("[Snapshot] Unsupported snapshot version: "+version);
+                long expectedChecksum=-1;
+                if(version>=2)
+                {
+                    expectedChecksum=in.getLong();
+                    in.startChecksum();
+                }
+            
+                double palfa=in.getDouble();
+                double pbeta=in.getDouble();
+                double pgama=in.getDouble();
+                double pdelta=in.getDouble();
+                double pw=in.getDouble();
+                MatrixStorageMode mode=MatrixStorageMode.valueOf(in.getString());
+                int ptileSize=in.getInt();
+            
+                int dim=in.getInt();
+                if(dim<2) throw new ProcessingException("[Snapshot] There not exist enough projects (Length: "+dim+")");
+                IdentifierDictionary dictionary=IdentifierDictionary.create(dim);
+                for(int i=0;i<dim;i++)
+                {
+                    String id=in.getString();
+                    if(StringUtils.isNull(id) || dictionary.add(id)!=i) throw new ProcessingException("[Snapshot] Invalid or duplicated project ID: "+id);
+                }
+            
+                boolean attached=(message!=null && projectDictionary!=null && projectsByIndex!=null && projectDictionary.size()==dim);
+                for(int i=0;attached && i<dim;i++)
+                    attached=dictionary.getID(i).equals(projectDictionary.getID(i));
+            
+                ArrayList<ArrayList<BehavioralItemNode>> attributes=new ArrayList(dim);
+                ArrayList<ArrayList<BehavioralItemNode>> contextProperties=new ArrayList(dim);
+                for(int i=0;i<dim;i++)
+                {
+                    attributes.add(readBehavioralItems(in,dictionary.getID(i),false));
+                    contextProperties.add(readBehavioralItems(in,dictionary.getID(i),true));
+                }
+            
+                byte hasMatrix=in.getByte();
+                if(hasMatrix==1)
+                {
+                    if(mode==MatrixStorageMode.SPARSE) throw new ProcessingException("[Snapshot] A SPARSE snapshot can not contain a matrix");
+                    newMatrix=allocateMatrix(mode,ptileSize,dim);
+                    if(!newMatrix.initializeCells(dictionary.toArray())) throw new ProcessingException("[Snapshot] The matrix has not been filled");
+                    if(newMatrix instanceof PrimitiveSimilarityTriangularMatrix)
+                    {
+                        //The fields are written into the primitive storage, without creating a view per cell
+                        PrimitiveSimilarityTriangularMatrix primitive=(PrimitiveSimilarityTriangularMatrix)newMatrix;
+                        double fields[]=new double[PrimitiveSimilarityTriangularMatrix.FIELDS];
+                        for(int i=0;i<dim;i++)
+                            for(int j=i;j<dim;j++)
+                            {
+                                for(int f=0;f<fields.length;f++) fields[f]=in.getDouble();
+                                primitive.set(i, j, fields);
+                            }
+                    }
+                    else
+                    {
+                        for(int i=0;i<dim;i++)
+                            for(int j=i;j<dim;j++)
+                                readCell(in,newMatrix.get(i, j));
+                    }
+                }
+                if(version>=3 && in.getByte()==1) newSparse=SparseSimilarityMatrix.read(in, dictionary.toArray());
+                if(version>=2 && in.getChecksum()!=expectedChecksum) throw new ProcessingException("[Snapshot] The snapshot is corrupted (the checksum does not match)");
+            
+                //The snapshot has been completely read
+                if(attached)
+                {
+                    for(int i=0;i<dim;i++)
+                    {
+                        restoreBehavioralItems(projectsByIndex[i].getBeh().getAttributesAsHashMap(),attributes.get(i));
+                        restoreBehavioralItems(projectsByIndex[i].getBeh().getContextPropertiesAsHashMap(),contextProperties.get(i));
+                    }
+                }
+                else
+                {
+                    if(message!=null) message.realeaseResources();
+                    message=null;
+                
+                    Node nodes[]=new Node[dim];
+                    ConcurrentHashMap<String,Node> pprojects=new ConcurrentHashMap(dim);
+                    for(int i=0;i<dim;i++)
+                    {
+                        BehavioralNode beh=new BehavioralNode();
+                        beh.setAttributes(attributes.get(i));
+                        beh.setContextProperties(contextProperties.get(i));
+                        nodes[i]=new Node(beh);
+                        pprojects.put(dictionary.getID(i), nodes[i]);
+                    }
+                
+                    if(projects!=null) projects.clear();
+                    projects=pprojects;
+                    projectDictionary=dictionary;
+                    projectsByIndex=nodes;
+                    structuralClasses=null;
+                }
+            
+                //The cached values were computed from the previous state
+                invalidateStructuralCache();
+                rawRatios=null;
+                alfa=palfa;
+                beta=pbeta;
+                gama=pgama;
+                delta=pdelta;
+                w=pw;
+                storageMode=mode;
+                tileSize=ptileSize;
+            
+                if(sparseMatrix!=null) sparseMatrix.releaseResources();
+                sparseMatrix=newSparse;
+                profiledMatrix=null;
+                if(matrix!=null) matrix.releaseResources();
+                matrix=newMatrix;
+                newMatrix=null;
+            }catch(ProcessingException pe)
+            {
+                throw pe;
+            }catch(Exception e)
+            {
+                throw new ProcessingException("[Snapshot] The snapshot could not be read. Message: "+e.getMessage());
+            }finally
+            {
+                if(newMatrix!=null) newMatrix.releaseResources();
+            }
+        }finally{
+            estimationLock.unlock();
+        }
+    }
+    
+    /**
+     * It writes the behavioral stats of a list of attributes (or context properties)
+     * @param out The snapshot channel
+     * @param items The attributes or context properties. It could be null.
+     * @throws IOException It is raised when the stats could not be written
+     */
+    private static void writeBehavioralItems(SnapshotChannel out,ArrayList<BehavioralItemNode> items) throws IOException
+    {
+        if(items==null)
+        {
+            out.putInt(-1);
+            return;
+        }
+        
+        out.putInt(items.size());
+        for(BehavioralItemNode item:items)
+        {
+            out.putString(item.getAttributeID());
+            out.putDouble((item.getMean()==null)?Double.NaN:item.getMean());
+            out.putDouble((item.getVar()==null)?Double.NaN:item.getVar());
+            out.putInt((item.getN()==null)?0:item.getN());
+        }
+    }
+    
+    /**
+     * It reads the behavioral stats written by writeBehavioralItems
+     * @param in The snapshot channel
+     * @param projectID The project related to the stats
+     * @param isContextProperty TRUE indicates that the stats are related to context properties, FALSE to attributes
+     * @return The list of attributes (or context properties), null when it was written as null
+     * @throws IOException It is raised when the stats could not be read
+     * @throws ProcessingException It is raised when the stats are invalid
+     */
+    private static ArrayList<BehavioralItemNode> readBehavioralItems(SnapshotChannel in,String projectID,boolean isContextProperty) throws IOException, ProcessingException
+    {
+        int count=in.getInt();
+        if(count<0) return null;
+        
+        ArrayList<BehavioralItemNode> items=new ArrayList(count);
+        for(int i=0;i<count;i++)
+        {
+            String id=in.getString();
+            double mean=in.getDouble();
+            double var=in.getDouble();
+            int n=in.getInt();
+            
+            BehavioralItemNode item=BehavioralItemNode.create(projectID, id, !isContextProperty,
+                    Double.isNaN(mean)?null:mean, Double.isNaN(var)?null:var, (n<1)?null:n);
+            item.setIsContextProperty(isContextProperty);
+            items.add(item);
+        }
+        
+        return items;
+    }
+    
+    /**
+     * It restores the behavioral stats over the attributes (or context properties) of an existing project
+     * @param current The current attributes (or context properties) organized by ID. It could be null.
+     * @param restored The stats read from the snapshot. It could be null.
+     * @throws ProcessingException It is raised when some stat is invalid
+     */
+    private static void restoreBehavioralItems(ConcurrentHashMap<String,BehavioralItemNode> current,ArrayList<BehavioralItemNode> restored) throws ProcessingException
+    {
+        if(current==null || restored==null) return;
+        
+        for(BehavioralItemNode item:restored)
+        {
+            BehavioralItemNode target=current.get(item.getAttributeID());
+            if(target==null) continue;
+            
+            target.setStats(item.getMean(), item.getVar(), item.getN());
+        }
+    }
+    
+    /**
+     * It writes the fields of a cell. A null cell is written as NaN values.
+     * @param out The snapshot channel
+     * @param node The cell
+     * @throws IOException It is raised when the cell could not be written
+     */
+    private static void writeCell(SnapshotChannel out,ComposedSimilarityNode node) throws IOException
+    {
+        if(node==null)
+        {
+            for(int f=0;f<PrimitiveSimilarityTriangularMatrix.FIELDS;f++) out.putDouble(Double.NaN);
+            return;
+        }
+        
+        out.putDouble(node.getEq01_sim_str_ent());
+        out.putDouble(node.getEq02_sim_sc_st());
+        out.putDouble(node.getEq03_idist_str());
+        out.putDouble(node.getEq04_sim_ctx());
+        out.putDouble(node.getEq05_sim_str_sc());
+        out.putDouble(node.getEq06_edist_str());
+        out.putDouble(node.getIdist_beh());
+        out.putDouble(node.getEdist_beh());
+        out.putDouble(node.getIdist());
+        out.putDouble(node.getEdist());
+        out.putDouble(node.getCdist());
+    }
+    
+    /**
+     * It reads the fields of a cell written by writeCell
+     * @param in The snapshot channel
+     * @param node The cell where the fields will be stored
+     * @throws IOException It is raised when the cell could not be read
+     */
+    private static void readCell(SnapshotChannel in,ComposedSimilarityNode node) throws IOException
+    {
+        node.setEq01_sim_str_ent(in.getDouble());
+        node.setEq02_sim_sc_st(in.getDouble());
+        node.setEq03_idist_str(in.getDouble());
+        node.setEq04_sim_ctx(in.getDouble());
+        node.setEq05_sim_str_sc(in.getDouble());
+        node.setEq06_edist_str(in.getDouble());
+        node.setIdist_beh(in.getDouble());
+        node.setEdist_beh(in.getDouble());
+        node.setIdist(in.getDouble());
+        node.setEdist(in.getDouble());
+        node.setCdist(in.getDouble());
+    }
+    
+    public void releaseResources() throws ProcessingException
+    {
+        estimationLock.lock();
+        try{
+            if(matrix!=null) matrix.releaseResources();
+            if(sparseMatrix!=null) sparseMatrix.releaseResources();
+            sparseMatrix=null;
+            profiledMatrix=null;
+            closeDeltaLog();
+            if(sharedReader!=null) sharedReader.releaseResources();
+            sharedReader=null;
+            if(projects!=null) projects.clear();        
+            projectDictionary=null;
+            projectsByIndex=null;
+            structuralClasses=null;
+            if(ingestionExecutor!=null) ingestionExecutor.shutdown();
+            ingestionExecutor=null;
+            if(computeTenant!=null) computeTenant.getScheduler().unregister(computeTenant);
+            computeTenant=null;
+        }finally{
+            estimationLock.unlock();
+        }
     }
 }
@@ -0,0 +1,229 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It is a lightweight view on a cell of a PrimitiveSimilarityTriangularMatrix.
+ * It does not keep any value, all the getters and setters read and write directly on the matrix storage.
+ *
+ * @author mjdivan
+ */
+public class ComposedSimilarityNodeView extends ComposedSimilarityNode {
+    /**
+     * The matrix containing the values
+     */
+    private final PrimitiveSimilarityTriangularMatrix matrix;
+    /**
+     * The unidimensional position of the cell
+     */
+    private final long position;
+    /**
+     * The row related to the cell
+     */
+    private final int row;
+    /**
+     * The column related to the cell
+     */
+    private final int col;
+
+    /**
+     * It creates a new view on the cell located at the given position
+     * @param m The matrix containing the values
+     * @param pos The unidimensional position of the cell
+     * @param prow The row related to the position
+     * @param pcol The column related to the position
+     */
+    protected ComposedSimilarityNodeView(PrimitiveSimilarityTriangularMatrix m,long pos,int prow,int pcol)
+    {
+        this.matrix=m;
+        this.position=pos;
+        this.row=prow;
+        this.col=pcol;
+    }
+
+    /**
+     * It creates a detached copy containing the current values of the cell
+     * @return A new ComposedSimilarityNode without any dependence on the matrix
+     * @throws CloneNotSupportedException It is raised when the instance could not be cloned
+     */
+    @Override
+    public ComposedSimilarityNode clone() throws CloneNotSupportedException
+    {
+        ComposedSimilarityNode sec=new ComposedSimilarityNode();
+        sec.setProjectID_row(getProjectID_row());
+        sec.setProjectID_col(getProjectID_col());
+        sec.setEq01_sim_str_ent(getEq01_sim_str_ent());
+        sec.setEq02_sim_sc_st(getEq02_sim_sc_st());
+        sec.setEq03_idist_str(getEq03_idist_str());
+        sec.setEq04_sim_ctx(getEq04_sim_ctx());
+        sec.setEq05_sim_str_sc(getEq05_sim_str_sc());
+        sec.setEq06_edist_str(getEq06_edist_str());
+        sec.setIdist_beh(getIdist_beh());
+        sec.setEdist_beh(getEdist_beh());
+        sec.setIdist(getIdist());
+        sec.setEdist(getEdist());
+        sec.setCdist(getCdist());
+
+        return sec;
+    }
+
+    /**
+     * @return the unidimensional position of the cell
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the row related to the cell
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @return the column related to the cell
+     */
+    public int getCol() {
+        return col;
+    }
+
+    @Override
+    public String getProjectID_row() {
+        return matrix.getProjectID(row);
+    }
+
+    /**
+     * The project ID is implied by the cell position, so it can not be changed
+     * @param projectID_row Ignored
+     */
+    @Override
+    public void setProjectID_row(String projectID_row) {
+    }
+
+    @Override
+    public String getProjectID_col() {
+        return matrix.getProjectID(col);
+    }
+
+    /**
+     * The project ID is implied by the cell position, so it can not be changed
+     * @param projectID_col Ignored
+     */
+    @Override
+    public void setProjectID_col(String projectID_col) {
+    }
+
+    @Override
+    public double getEq01_sim_str_ent() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ01_SIM_STR_ENT);
+    }
+
+    @Override
+    public void setEq01_sim_str_ent(double eq01_sim_str_ent) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ01_SIM_STR_ENT,eq01_sim_str_ent);
+    }
+
+    @Override
+    public double getEq02_sim_sc_st() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ02_SIM_SC_ST);
+    }
+
+    @Override
+    public void setEq02_sim_sc_st(double eq02_sim_sc_st) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ02_SIM_SC_ST,eq02_sim_sc_st);
+    }
+
+    @Override
+    public double getEq03_idist_str() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ03_IDIST_STR);
+    }
+
+    @Override
+    public void setEq03_idist_str(double eq03_idist_str) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ03_IDIST_STR,eq03_idist_str);
+    }
+
+    @Override
+    public double getEq04_sim_ctx() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ04_SIM_CTX);
+    }
+
+    @Override
+    public void setEq04_sim_ctx(double eq04_sim_ctx) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ04_SIM_CTX,eq04_sim_ctx);
+    }
+
+    @Override
+    public double getEq05_sim_str_sc() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ05_SIM_STR_SC);
+    }
+
+    @Override
+    public void setEq05_sim_str_sc(double eq05_sim_str_sc) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ05_SIM_STR_SC,eq05_sim_str_sc);
+    }
+
+    @Override
+    public double getEq06_edist_str() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ06_EDIST_STR);
+    }
+
+    @Override
+    public void setEq06_edist_str(double eq06_edist_str) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_EQ06_EDIST_STR,eq06_edist_str);
+    }
+
+    @Override
+    public double getIdist_beh() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_IDIST_BEH);
+    }
+
+    @Override
+    public void setIdist_beh(double idist_beh) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_IDIST_BEH,idist_beh);
+    }
+
+    @Override
+    public double getEdist_beh() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_EDIST_BEH);
+    }
+
+    @Override
+    public void setEdist_beh(double edist_beh) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_EDIST_BEH,edist_beh);
+    }
+
+    @Override
+    public double getIdist() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_IDIST);
+    }
+
+    @Override
+    public void setIdist(double idist) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_IDIST,idist);
+    }
+
+    @Override
+    public double getEdist() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_EDIST);
+    }
+
+    @Override
+    public void setEdist(double edist) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_EDIST,edist);
+    }
+
+    @Override
+    public double getCdist() {
+        return matrix.read(position,PrimitiveSimilarityTriangularMatrix.FIELD_CDIST);
+    }
+
+    @Override
+    public void setCdist(double cdist) {
+        matrix.write(position,PrimitiveSimilarityTriangularMatrix.FIELD_CDIST,cdist);
+    }
+}
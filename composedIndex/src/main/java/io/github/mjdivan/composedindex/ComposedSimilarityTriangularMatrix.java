@@ -5,8 +5,11 @@
  */
 package io.github.mjdivan.composedindex;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.ciedayap.ipd.exception.ProcessingException;
 
 /**
  * It implements a composed similarity triangular matrix using an 
@@ -22,14 +25,17 @@ public class ComposedSimilarityTriangularMatrix{
      */
     private final Integer dim;       
     /**
-     * The unidimensional matrix for storing and retrieving the data
+     * The unidimensional matrix for storing and retrieving the data. The cell accessors are not synchronized,
+     * because each worker reads and writes its own slots. Only the structural operations (e.g., initializeCells
+     * or reinitialize) take the monitor of the matrix.
      */
-    private ComposedSimilarityNode umatrix[];
+    private volatile ComposedSimilarityNode umatrix[];
     /**
      * Last read position from the unidimensional array containing the ComposedSimilarity.
-     * It is a reading control variable used for the threads to estimate the distances.
+     * It is a reading control variable used for the threads to estimate the distances. 
+     * A negative value indicates that no position has been read. It is advanced without locks.
      */
-    private Integer currentThreadPosition;
+    private final AtomicLong currentThreadPosition=new AtomicLong(-1);
     
     /**
      * Constructor where the dimension is established for the triangular matrix.
@@ -86,6 +92,24 @@ public class ComposedSimilarityTriangularMatrix{
         reinitialize(value);
     }
     
+    /**
+     * Constructor used by the storages which do not keep ComposedSimilarityNode instances.
+     * It only establishes the dimension, the cells must be allocated by the subclass.
+     * @param thedim The dimension will produce a dimxdim triangular matrix
+     * @param allocateCells TRUE indicates that the array of ComposedSimilarityNode must be allocated, FALSE otherwise
+     * @throws Exception An exception could happen when the dimension is null or lesser than 1, or even
+     * when the required space for the matrix is not available.
+     */
+    protected ComposedSimilarityTriangularMatrix(Integer thedim, boolean allocateCells) throws Exception
+    {
+        if(thedim==null || thedim<1) throw new Exception("Invalid Dimmension");
+        long requiredSpace=computingUnidimensionalMatrixLongSpace(thedim);
+        if(requiredSpace<1) throw new Exception("Invalid space computing");
+        if(allocateCells && requiredSpace>Integer.MAX_VALUE) throw new Exception("The required space exceeds the array capacity");
+        dim=thedim;
+        umatrix=(allocateCells)?new ComposedSimilarityNode[(int)requiredSpace]:null;
+    }
+    
     /**
      * It generates a hard copy from the original matrix
      * @return a new instance without any dependence on the original instance
@@ -125,12 +149,70 @@ public class ComposedSimilarityTriangularMatrix{
         return new ComposedSimilarityTriangularMatrix(thedim,value);
     }
 
+    /**
+     * Factory method indicating the storage mode
+     * @param thedim The dimension related to the triangular matrix 
+     * @param mode The way in which the cells will be stored. When it is null, the OBJECT mode is assumed.
+     * @return A new instance of the TriangularMatrix using the indicated storage
+     * @throws Exception it happens when the dimension is invalid or there is not the enough memory space.
+     */
+    public synchronized static ComposedSimilarityTriangularMatrix createSimilarityTriangularMatrix(int thedim, MatrixStorageMode mode) throws Exception
+    {
+        return createSimilarityTriangularMatrix(thedim,mode,null);
+    }
+
+    /**
+     * Factory method indicating the storage mode and the file to be used by the MEMORY_MAPPED mode
+     * @param thedim The dimension related to the triangular matrix 
+     * @param mode The way in which the cells will be stored. When it is null, the OBJECT mode is assumed.
+     * @param file The file to be mapped when the mode is MEMORY_MAPPED. When it is null, a temporary file is used. It is ignored by the rest of the modes.
+     * @return A new instance of the TriangularMatrix using the indicated storage
+     * @throws Exception it happens when the dimension is invalid or there is not the enough memory space.
+     */
+    public synchronized static ComposedSimilarityTriangularMatrix createSimilarityTriangularMatrix(int thedim, MatrixStorageMode mode, Path file) throws Exception
+    {
+        if(mode==null) return new ComposedSimilarityTriangularMatrix(thedim);
+        
+        switch(mode)
+        {
+            case STRUCT_OF_ARRAYS:
+                return StructOfArraysSimilarityTriangularMatrix.create(thedim);
+            case OFF_HEAP:
+                return OffHeapSimilarityTriangularMatrix.createDirect(thedim);
+            case MEMORY_MAPPED:
+                return OffHeapSimilarityTriangularMatrix.createMapped(thedim,file);
+            case CDIST_QUANTIZED_16:
+                return QuantizedSimilarityTriangularMatrix.create(thedim,false);
+            case CDIST_FLOAT:
+                return QuantizedSimilarityTriangularMatrix.create(thedim,true);
+            case SEGMENTED:
+                return SegmentedSimilarityTriangularMatrix.create(thedim);
+            case TILED:
+                return TiledSimilarityTriangularMatrix.create(thedim,TriangularTiling.DEFAULT_TILE_SIZE);
+            case SPARSE:
+                throw new Exception("The SPARSE mode does not allocate a triangular matrix");
+            case SHARED:
+                throw new Exception("The SHARED mode is opened through SharedMatrixReader");
+            default:
+                return new ComposedSimilarityTriangularMatrix(thedim);
+        }
+    }
+    
+    /**
+     * It informs the way in which the cells are stored
+     * @return The storage mode related to the matrix
+     */
+    public MatrixStorageMode getStorageMode()
+    {
+        return MatrixStorageMode.OBJECT;
+    }
+
     /**
      * restart the matrix's cells to a given value
      * @param value The value to initialize the 
      * @return TRUE when it was reinitialized, FALSE otherwise.
      */
-    public final synchronized boolean reinitialize(ComposedSimilarityNode value)
+    public synchronized boolean reinitialize(ComposedSimilarityNode value)
     {
         if(value==null) return false;
         
@@ -141,35 +223,124 @@ public class ComposedSimilarityTriangularMatrix{
     /**
      * It computes the unidimensional total space required for storing the matrix in memory
      * @param dim The wished dimensionality for the matrix
-     * @return The total positions required for storing the matrix as an unidimensional array
+     * @return The total positions required for storing the matrix as an unidimensional array,
+     * -1 when the space exceeds Integer.MAX_VALUE (See computingUnidimensionalMatrixLongSpace).
      */
     protected final static int computingUnidimensionalMatrixSpace(int dim)
+    {
+        long space=computingUnidimensionalMatrixLongSpace(dim);
+        if(space>Integer.MAX_VALUE) return -1;
+        
+        return (int)space;
+    }
+
+    /**
+     * It computes the unidimensional total space required for storing the matrix using long arithmetic
+     * @param dim The wished dimensionality for the matrix
+     * @return The total positions required for storing the matrix as an unidimensional space
+     */
+    protected final static long computingUnidimensionalMatrixLongSpace(long dim)
     {
         if(dim<1) return 0;                
         return (dim*(dim+1))/2;
     }
     
     /**
-     * It calculates the unidimensional position.
+     * It calculates the unidimensional position. The position is computed using long arithmetic, 
+     * so the products do not overflow for large dimensions.
      * Mandatory: row must be <= col
      * @param row the number of row between 0 and (dim-1)
      * @param col the number of column between 0 and (dim-1)
-     * @return The unidimensional position in the array
+     * @return The unidimensional position in the array, -1 when the row or column are out of range or 
+     * the position exceeds Integer.MAX_VALUE (See computingUnidimensionalLongPosition)
      */
     protected final int computingUnidimensionalPosition(int row,int col)
     {
-        return ((getDim()*row)+col-((row*(row+1))/2));
+        if(row<0 || col<row || col>=getDim()) return -1;
+        
+        long position=computingUnidimensionalLongPosition(row,col);
+        if(position>Integer.MAX_VALUE) return -1;
+        
+        return (int)position;
+    }
+
+    /**
+     * It calculates the unidimensional position using long arithmetic.
+     * Mandatory: row must be <= col
+     * @param row the number of row between 0 and (dim-1)
+     * @param col the number of column between 0 and (dim-1)
+     * @return The unidimensional position 
+     */
+    protected final long computingUnidimensionalLongPosition(long row,long col)
+    {
+        return ((((long)getDim())*row)+col-((row*(row+1))/2));
+    }
+
+    /**
+     * It calculates the row associated with a given unidimensional position.
+     * @param position The unidimensional position between 0 and (unidimensionalLength()-1)
+     * @return The row related to the position, -1 when the position is out of range.
+     */
+    protected final int computingRowFromPosition(long position)
+    {
+        return computingRowFromPosition(getDim(),position);
+    }
+
+    /**
+     * It calculates the row associated with a given unidimensional position in a triangular matrix of the given dimension.
+     * @param dim The dimension of the triangular matrix
+     * @param position The unidimensional position between 0 and (computingUnidimensionalMatrixLongSpace(dim)-1)
+     * @return The row related to the position, -1 when the position is out of range.
+     */
+    static int computingRowFromPosition(long dim,long position)
+    {
+        if(position<0 || position>=computingUnidimensionalMatrixLongSpace(dim)) return -1;
+        
+        double b=(2.0*dim)+1.0;
+        long row=(long)Math.floor((b-Math.sqrt((b*b)-(8.0*position)))/2.0);
+        //Adjusting the floating point error
+        while(row>0 && ((dim*row)-((row*(row-1))/2))>position) row--;
+        while((row+1)<dim && ((dim*(row+1))-(((row+1)*row)/2))<=position) row++;
+        
+        return (int)row;
     }
 
+    /**
+     * It calculates the column associated with a given unidimensional position.
+     * @param position The unidimensional position between 0 and (unidimensionalLength()-1)
+     * @return The column related to the position, -1 when the position is out of range.
+     */
+    protected final int computingColFromPosition(long position)
+    {
+        int row=computingRowFromPosition(position);
+        if(row<0) return -1;
+        
+        return (int)(position-(((long)getDim())*row)+((((long)row)*(row+1))/2));
+    }
+    
     /**
      * It informs the array length for the triangular matrix implemented through a unidimensional array.
-     * @return NULL when no dimension is defined. The unidimensional array length.
+     * @return NULL when no dimension is defined or the length exceeds Integer.MAX_VALUE. The unidimensional array length.
      */
     public final Integer unidimensionalLength()
     {
         if(this.dim==null) return null;
         
-        return computingUnidimensionalMatrixSpace(this.dim);
+        long length=computingUnidimensionalMatrixLongSpace(this.dim);
+        if(length>Integer.MAX_VALUE) return null;
+        
+        return (int)length;
+    }
+
+    /**
+     * It informs the unidimensional length for the triangular matrix using long arithmetic.
+     * @return The unidimensional length, zero when no dimension is defined.
+     */
+    public final long unidimensionalLongLength()
+    {
+        if(this.dim==null) return 0;
+        
+        return computingUnidimensionalMatrixLongSpace(this.dim);
     }
         
     /**
@@ -179,7 +350,7 @@ public class ComposedSimilarityTriangularMatrix{
      * @param value The value to be incorporated
      * @return TRUE when the value was succesfully incorporated, FALSE otherwise.
      */
-    public synchronized boolean set(int row,int col,ComposedSimilarityNode value)
+    public boolean set(int row,int col,ComposedSimilarityNode value)
     {
         int nrow,ncol;
         if(row>col)
@@ -195,10 +366,11 @@ public class ComposedSimilarityTriangularMatrix{
         
         if(row<0 || col<0 || row>=getDim() || col>=getDim()) return false;
         
+        ComposedSimilarityNode cells[]=umatrix;
         int position=computingUnidimensionalPosition(nrow,ncol);
-        if(position<0 || position>=umatrix.length) return false; 
+        if(cells==null || position<0 || position>=cells.length) return false; 
         
-        umatrix[position]=value;
+        cells[position]=value;
         return true;
     }
     
@@ -209,7 +381,7 @@ public class ComposedSimilarityTriangularMatrix{
      * @return The value at the given row and column. It is possible to obtain a NULL when
      * the position (row and column) has not been initialized.
      */
-    public synchronized ComposedSimilarityNode get(int row,int col)
+    public ComposedSimilarityNode get(int row,int col)
     {
         int nrow,ncol;
         if(row>col)
@@ -225,10 +397,92 @@ public class ComposedSimilarityTriangularMatrix{
         
         if(row<0 || col<0 || row>=getDim() || col>=getDim()) return null;
         
+        ComposedSimilarityNode cells[]=umatrix;
         int position=computingUnidimensionalPosition(nrow,ncol);
-        if(position<0 || position>=umatrix.length) return null; 
+        if(cells==null || position<0 || position>=cells.length) return null; 
+        
+        return cells[position];
+    }
+
+    /**
+     * Get the value on the given unidimensional position
+     * @param position The unidimensional position between 0 and (unidimensionalLongLength()-1)
+     * @return The value at the given position, null when the position is out of range or it has not been initialized.
+     */
+    protected ComposedSimilarityNode getByPosition(long position)
+    {
+        ComposedSimilarityNode cells[]=umatrix;
+        if(cells==null || position<0 || position>=cells.length) return null;
+        
+        return cells[(int)position];
+    }
+
+    /**
+     * Get the value on the given unidimensional position
+     * @param position The unidimensional position between 0 and (unidimensionalLongLength()-1)
+     * @return The value at the given position, null when the position is out of range or it has not been initialized.
+     */
+    public ComposedSimilarityNode get(long position)
+    {
+        return getByPosition(position);
+    }
+
+    /**
+     * Set the value on the given unidimensional position
+     * @param position The unidimensional position between 0 and (unidimensionalLongLength()-1)
+     * @param value The value to be incorporated
+     * @return TRUE when the value was succesfully incorporated, FALSE otherwise.
+     */
+    public boolean set(long position,ComposedSimilarityNode value)
+    {
+        ComposedSimilarityNode cells[]=umatrix;
+        if(cells==null || position<0 || position>=cells.length) return false;
         
-        return umatrix[position];
+        cells[(int)position]=value;
+        return true;
+    }
+    
+    /**
+     * It returns the composed distance on the given row and column
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @return The composed distance (See equation 16), NaN when the cell is not available.
+     */
+    public double getCdist(int row,int col)
+    {
+        ComposedSimilarityNode item=get(row,col);
+        if(item==null) return Double.NaN;
+        
+        return item.getCdist();
+    }
+
+    /**
+     * It informs the maximum absolute error of the composed distances returned by the matrix
+     * @return The maximum absolute error. Zero indicates that the composed distance is kept as it was computed.
+     */
+    public double getCdistMaximumError()
+    {
+        return 0.0;
+    }
+    
+    /**
+     * It initializes each cell of the matrix with the project IDs related to its row and column.
+     * @param projectIDs The project IDs ordered by its row (or column) into the matrix
+     * @return TRUE when the cells were initialized, FALSE otherwise
+     * @throws ProcessingException It is raised when some project ID is null or empty
+     */
+    public synchronized boolean initializeCells(String[] projectIDs) throws ProcessingException
+    {
+        if(projectIDs==null || projectIDs.length!=getDim()) return false;
+        
+        for(int i=0;i<projectIDs.length;i++)
+           for(int j=i;j<projectIDs.length;j++)
+           {
+               ComposedSimilarityNode mynode=ComposedSimilarityNode.create(projectIDs[i], projectIDs[j]);
+               set(i, j, mynode);
+           }
+        
+        return true;
     }
     
     /**
@@ -236,7 +490,7 @@ public class ComposedSimilarityTriangularMatrix{
      * @param row The row 
      * @return The vector related to the row into the matrix, null otherwise
      */
-    public synchronized ArrayList<ComposedSimilarityNode> getRow(int row)
+    public ArrayList<ComposedSimilarityNode> getRow(int row)
     {
         if(row<0 || row>=getDim()) return null;
         
@@ -266,6 +520,7 @@ public class ComposedSimilarityTriangularMatrix{
     public boolean isCreated()
     {
         if(this.dim==null || this.dim<1) return false;
+        if(umatrix==null) return false;
                 
         int target=ComposedSimilarityTriangularMatrix.computingUnidimensionalMatrixSpace(this.dim);
         
@@ -274,25 +529,28 @@ public class ComposedSimilarityTriangularMatrix{
 
     /**
      * It controls the order in which each element of the matrix is read
-     * @return the currentThreadPosition to be read on the unidimensional array
+     * @return the currentThreadPosition to be read on the unidimensional array. 
+     * NULL when all the positions were read or the position exceeds Integer.MAX_VALUE (See nextCurrentThreadLongPosition).
      */
-    public synchronized Integer nextCurrentThreadPosition() {
-        if(this.umatrix==null) return null;
-        if(!this.isCreated()) return null;        
-        if(this.umatrix.length<=0) return null;
+    public Integer nextCurrentThreadPosition() {
+        Long pos=nextCurrentThreadLongPosition();
+        if(pos==null || pos>Integer.MAX_VALUE) return null;
         
-        if(currentThreadPosition==null)
-        {
-            currentThreadPosition=0;
-            return currentThreadPosition;
-        }
+        return pos.intValue();
+    }
+
+    /**
+     * It controls the order in which each element of the matrix is read using long positions
+     * @return the currentThreadPosition to be read on the unidimensional space, NULL when all the positions were read.
+     */
+    public Long nextCurrentThreadLongPosition() {
+        if(!this.isCreated()) return null;        
+        long length=unidimensionalLongLength();
+        if(length<=0) return null;
         
-        if((currentThreadPosition+1)<umatrix.length)
-        {
-            
-            currentThreadPosition++;
-            return currentThreadPosition;
-        }
+        //The cursor could go beyond the length, but such positions are never returned
+        long pos=currentThreadPosition.incrementAndGet();
+        if(pos<length) return pos;
         
         return null;
     }
@@ -302,19 +560,19 @@ public class ComposedSimilarityTriangularMatrix{
      * In this case, the element is directly returned.
      * @return the element to be read on the unidimensional array
      */
-    public synchronized ComposedSimilarityNode nextCurrentThreadElement() {
-        Integer pos=nextCurrentThreadPosition();
+    public ComposedSimilarityNode nextCurrentThreadElement() {
+        Long pos=nextCurrentThreadLongPosition();
         if(pos==null) return null;
                 
-        return umatrix[pos];
+        return getByPosition(pos);
     }
     
     /**
      * It restart the counter for controlling the thread access to the unidimensional matrix
      */
-    public synchronized void restartThreadPosition()
+    public void restartThreadPosition()
     {
-        currentThreadPosition=null;
+        currentThreadPosition.set(-1);
     }
     
 }
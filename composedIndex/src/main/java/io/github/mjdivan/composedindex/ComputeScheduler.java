@@ -0,0 +1,403 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import org.ciedayap.ipd.exception.ProcessingException;
+
+/**
+ * It implements a compute scheduler shared by several ComposedIndex instances (e.g., one per tenant), so the 
+ * total number of threads computing distances is bounded whatever the number of concurrent estimations.
+ * Each instance is registered as a tenant with a weight and a concurrency cap (See ComposedIndex.setComputeScheduler).
+ * <p>The workers of an estimation are executed by slices (i.e., a chunk, tile, or row at a time, See Slice). After
+ * each slice, the worker goes back to the queue of its tenant, and the scheduler threads serve the tenants through
+ * a weighted round-robin: a tenant with weight k runs up to k slices per turn, as long as the number of its slices
+ * in progress is lesser than its concurrency cap.</p>
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class ComputeScheduler {
+    /**
+     * It represents a worker able to run its work by slices
+     */
+    public interface Slice {
+        /**
+         * It runs the next slice of work (e.g., a chunk, tile, or row)
+         * @return TRUE when there is remaining work, FALSE when the worker has finished
+         */
+        public boolean runSlice();
+    }
+
+    /**
+     * It represents an instance sharing the scheduler
+     */
+    public class Tenant {
+        private final String name;
+        private final int weight;
+        private final int maxConcurrency;
+        /**
+         * The workers waiting for a scheduler thread
+         */
+        private final ArrayDeque<Job> queue=new ArrayDeque();
+        /**
+         * The number of slices in progress
+         */
+        private int running=0;
+        /**
+         * The number of slices run in the current turn
+         */
+        private int served=0;
+
+        private Tenant(String pname,int pweight,int pmaxConcurrency)
+        {
+            name=pname;
+            weight=pweight;
+            maxConcurrency=pmaxConcurrency;
+        }
+
+        /**
+         * @return the name of the tenant
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of slices run per turn
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return the maximum number of slices in progress at the same time
+         */
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        /**
+         * @return the scheduler of the tenant
+         */
+        public ComputeScheduler getScheduler() {
+            return ComputeScheduler.this;
+        }
+
+        /**
+         * It runs the workers through the scheduler, waiting until all of them have finished. The workers implementing
+         * Slice are run by slices, while the rest of them are run as a single slice.
+         * @param workers The workers
+         * @throws InterruptedException It is raised when the waiting thread was interrupted. The waiting workers are discarded,
+         * and it returns once the slices in progress are completed, so no worker is running when the exception is raised.
+         * @throws ProcessingException It is raised when the tenant is not registered (or it was unregistered meanwhile), or some worker failed
+         */
+        public void execute(Collection<? extends Runnable> workers) throws InterruptedException, ProcessingException
+        {
+            if(workers==null || workers.isEmpty()) return;
+            Batch batch=new Batch(workers.size());
+            synchronized(ComputeScheduler.this)
+            {
+                if(shutdown || !tenants.contains(this)) throw new ProcessingException("The tenant "+name+" is not registered");
+                for(Runnable r:workers) queue.addLast(new Job(this,batch,r));
+                ComputeScheduler.this.notifyAll();
+            }
+
+            try{
+                batch.await();
+            }catch(InterruptedException e)
+            {
+                synchronized(ComputeScheduler.this)
+                {
+                    batch.cancelled=true;
+                    Iterator<Job> it=queue.iterator();
+                    while(it.hasNext())
+                    {
+                        if(it.next().batch==batch)
+                        {
+                            it.remove();
+                            batch.done();
+                        }
+                    }
+                }
+                //The slices in progress are still writing, so it waits for them before leaving
+                batch.awaitUninterruptibly();
+                throw e;
+            }
+
+            if(batch.failure!=null) throw new ProcessingException("A worker failed. Message: "+batch.failure);
+            if(batch.cancelled) throw new ProcessingException("The tenant "+name+" was unregistered before completing the workers");
+        }
+
+        /**
+         * @return TRUE when the tenant has waiting workers and its cap allows one more slice
+         */
+        private boolean isEligible()
+        {
+            return !queue.isEmpty() && running<maxConcurrency;
+        }
+    }
+
+    /**
+     * It waits for the completion of the workers submitted together
+     */
+    private static class Batch {
+        private int pending;
+        private volatile boolean cancelled=false;
+        private volatile Throwable failure;
+
+        Batch(int ppending)
+        {
+            pending=ppending;
+        }
+
+        synchronized void done()
+        {
+            pending--;
+            if(pending<=0) notifyAll();
+        }
+
+        synchronized void await() throws InterruptedException
+        {
+            while(pending>0) wait();
+        }
+
+        /**
+         * It waits for the completion ignoring the interruptions, which are restored before returning
+         */
+        synchronized void awaitUninterruptibly()
+        {
+            boolean interrupted=false;
+            while(pending>0)
+            {
+                try{
+                    wait();
+                }catch(InterruptedException e)
+                {
+                    interrupted=true;
+                }
+            }
+            if(interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A worker waiting in the queue of its tenant
+     */
+    private static class Job {
+        private final Tenant tenant;
+        private final Batch batch;
+        private final Runnable worker;
+
+        Job(Tenant ptenant,Batch pbatch,Runnable pworker)
+        {
+            tenant=ptenant;
+            batch=pbatch;
+            worker=pworker;
+        }
+
+        /**
+         * @return TRUE when the worker has remaining work
+         */
+        boolean run()
+        {
+            if(worker instanceof Slice) return ((Slice)worker).runSlice();
+
+            worker.run();
+            return false;
+        }
+    }
+
+    /**
+     * The registered tenants in round-robin order
+     */
+    private final ArrayList<Tenant> tenants=new ArrayList();
+    /**
+     * The tenant whose turn is in progress
+     */
+    private int turn=0;
+    /**
+     * The scheduler threads
+     */
+    private final Thread threads[];
+    /**
+     * It indicates whether the scheduler was shut down
+     */
+    private boolean shutdown=false;
+
+    /**
+     * It creates a new scheduler, starting its threads
+     * @param nthreads The number of scheduler threads, that is, the maximum number of slices in progress
+     * @throws ProcessingException It is raised when the number of threads is lesser than 1
+     */
+    public ComputeScheduler(int nthreads) throws ProcessingException
+    {
+        if(nthreads<1) throw new ProcessingException("The number of threads must be greater than 0");
+
+        threads=new Thread[nthreads];
+        for(int i=0;i<nthreads;i++)
+        {
+            threads[i]=new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve();
+                }
+            },"composedIndex-scheduler-"+i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Factory method
+     * @return A new scheduler with one thread per available processor
+     * @throws ProcessingException It is raised when the scheduler could not be created
+     */
+    public synchronized static ComputeScheduler create() throws ProcessingException
+    {
+        return new ComputeScheduler(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Factory method
+     * @param nthreads The number of scheduler threads
+     * @return A new scheduler
+     * @throws ProcessingException It is raised when the number of threads is lesser than 1
+     */
+    public synchronized static ComputeScheduler create(int nthreads) throws ProcessingException
+    {
+        return new ComputeScheduler(nthreads);
+    }
+
+    /**
+     * @return the number of scheduler threads
+     */
+    public int getThreadCount() {
+        return threads.length;
+    }
+
+    /**
+     * It registers a new tenant
+     * @param name The name of the tenant
+     * @param weight The number of slices run per turn. It must be greater than 0.
+     * @param maxConcurrency The maximum number of slices in progress at the same time. It must be greater than 0.
+     * @return The tenant
+     * @throws ProcessingException It is raised when the name is null or empty, the weight or cap are invalid, or the scheduler was shut down
+     */
+    public synchronized Tenant register(String name,int weight,int maxConcurrency) throws ProcessingException
+    {
+        if(name==null || name.trim().isEmpty()) throw new ProcessingException("The tenant name is null or empty");
+        if(weight<1) throw new ProcessingException("The weight must be greater than 0");
+        if(maxConcurrency<1) throw new ProcessingException("The concurrency cap must be greater than 0");
+        if(shutdown) throw new ProcessingException("The scheduler was shut down");
+
+        Tenant t=new Tenant(name,weight,Math.min(maxConcurrency, threads.length));
+        tenants.add(t);
+
+        return t;
+    }
+
+    /**
+     * It unregisters a tenant. Its waiting workers are discarded.
+     * @param tenant The tenant
+     */
+    public synchronized void unregister(Tenant tenant)
+    {
+        if(tenant==null) return;
+        int index=tenants.indexOf(tenant);
+        if(index<0) return;
+
+        tenants.remove(index);
+        if(turn>index) turn--;
+        if(turn>=tenants.size()) turn=0;
+        for(Job job:tenant.queue)
+        {
+            job.batch.cancelled=true;
+            job.batch.done();
+        }
+        tenant.queue.clear();
+    }
+
+    /**
+     * It stops the scheduler threads once their slices in progress are completed. The waiting workers are discarded.
+     */
+    public synchronized void shutdown()
+    {
+        shutdown=true;
+        while(!tenants.isEmpty()) unregister(tenants.get(0));
+        notifyAll();
+    }
+
+    /**
+     * It chooses the next worker through the weighted round-robin
+     * @return The next job, null when no tenant is eligible
+     */
+    private Job next()
+    {
+        int n=tenants.size();
+        for(int k=0;k<=2*n && n>0;k++)
+        {
+            Tenant t=tenants.get(turn);
+            if(t.served<t.weight && t.isEligible())
+            {
+                t.served++;
+                t.running++;
+                return t.queue.pollFirst();
+            }
+
+            //The turn is over
+            t.served=0;
+            turn=(turn+1)%n;
+        }
+
+        return null;
+    }
+
+    /**
+     * The loop of each scheduler thread
+     */
+    private void serve()
+    {
+        while(true)
+        {
+            Job job;
+            synchronized(this)
+            {
+                job=next();
+                while(job==null)
+                {
+                    if(shutdown) return;
+                    try{
+                        wait();
+                    }catch(InterruptedException e)
+                    {
+                        return;
+                    }
+                    job=next();
+                }
+            }
+
+            boolean remaining=false;
+            try{
+                if(!job.batch.cancelled) remaining=job.run();
+            }catch(Throwable t)
+            {
+                job.batch.failure=t;
+            }
+
+            synchronized(this)
+            {
+                job.tenant.running--;
+                if(remaining && !job.batch.cancelled && tenants.contains(job.tenant)) job.tenant.queue.addLast(job);
+                else job.batch.done();
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * It implements an append-only binary log of the incremental changes applied between snapshots: the updates
+ * of the behavioral stats and the writes of recomputed cells. Each record is checksummed (CRC32), so a torn
+ * or corrupted tail is detected and discarded when the log is opened.
+ * The records are accumulated in memory and written in groups: a commit writes all the pending records and
+ * forces them to the storage device once, and the committers waiting for it share the same force.
+ * <p>Record layout: [int length][byte type][payload][int CRC32 of type and payload], where length counts
+ * the type and payload bytes.</p>
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class DeltaLog implements AutoCloseable{
+    /**
+     * The first bytes of every log file ("CIDL")
+     */
+    public static final int LOG_MAGIC=0x4349444C;
+    /**
+     * The version of the log format
+     */
+    public static final int LOG_VERSION=1;
+    /**
+     * The number of bytes of the header (magic and version)
+     */
+    private static final int HEADER_BYTES=2*Integer.BYTES;
+    /**
+     * The record type related to an update of the behavioral stats
+     */
+    public static final byte RECORD_STAT=1;
+    /**
+     * The record type related to the write of a cell
+     */
+    public static final byte RECORD_CELL=2;
+    /**
+     * The maximum number of bytes of a record (type and payload)
+     */
+    private static final int MAX_RECORD_BYTES=1<<20;
+    /**
+     * The number of pending bytes from which the appending thread commits the group
+     */
+    private static final int MAX_PENDING_BYTES=1<<22;
+
+    /**
+     * It receives the records read from the log
+     */
+    public interface RecordListener {
+        /**
+         * It receives an update of the behavioral stats
+         * @param projectID The project ID
+         * @param itemID The attribute or context property ID
+         * @param isContextProperty TRUE indicates a context property, FALSE an attribute
+         * @param mean The mean, null when it is not available
+         * @param var The variance, null when it is not available
+         * @param n The number of observations, null when it is not available
+         * @throws Exception It is raised when the update could not be applied
+         */
+        public void onStat(String projectID,String itemID,boolean isContextProperty,Double mean,Double var,Integer n) throws Exception;
+        /**
+         * It receives the write of a cell
+         * @param row The row of the cell
+         * @param col The column of the cell
+         * @param fields The FIELDS values of the cell (See PrimitiveSimilarityTriangularMatrix)
+         * @throws Exception It is raised when the cell could not be written
+         */
+        public void onCell(int row,int col,double fields[]) throws Exception;
+    }
+
+    /**
+     * The log file
+     */
+    private final Path file;
+    /**
+     * The channel related to the log file
+     */
+    private FileChannel channel;
+    /**
+     * The records appended but not yet written
+     */
+    private ByteBuffer pending;
+    /**
+     * The buffer reused for the next group
+     */
+    private ByteBuffer spare;
+    /**
+     * The number of appended records
+     */
+    private long appendedSeq;
+    /**
+     * The number of records durably written
+     */
+    private volatile long durableSeq;
+    /**
+     * The lock guarding the appends
+     */
+    private final Object appendLock=new Object();
+    /**
+     * The lock guarding the writes on the file
+     */
+    private final Object flushLock=new Object();
+    /**
+     * The checksum used while appending
+     */
+    private final CRC32 crc=new CRC32();
+
+    /**
+     * It opens a log file. It is created when it does not exist. Otherwise, the header is validated and the
+     * log is truncated after the last valid record.
+     * @param pfile The log file
+     * @throws IOException It is raised when the file could not be opened, or it is not a delta log
+     */
+    protected DeltaLog(Path pfile) throws IOException
+    {
+        file=pfile;
+        channel=FileChannel.open(pfile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try{
+            if(channel.size()==0)
+            {
+                ByteBuffer header=ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(LOG_MAGIC).putInt(LOG_VERSION).flip();
+                while(header.hasRemaining()) channel.write(header, HEADER_BYTES-header.remaining());
+                channel.force(true);
+            }
+            else
+            {
+                ByteBuffer header=ByteBuffer.allocate(HEADER_BYTES);
+                readFully(header, 0);
+                header.flip();
+                if(header.remaining()<HEADER_BYTES || header.getInt()!=LOG_MAGIC) throw new IOException("The file is not a delta log");
+                int version=header.getInt();
+                if(version!=LOG_VERSION) throw new IOException("Unsupported delta log version: "+version);
+            }
+
+            long end=scan(null);
+            if(end<channel.size())
+            {
+                channel.truncate(end);
+                channel.force(true);
+            }
+            channel.position(end);
+        }catch(IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        pending=ByteBuffer.allocate(1<<16);
+        spare=ByteBuffer.allocate(1<<16);
+        appendedSeq=0;
+        durableSeq=0;
+    }
+
+    /**
+     * Factory method
+     * @param pfile The log file
+     * @return A new instance positioned after the last valid record
+     * @throws IOException It is raised when the file could not be opened, or it is not a delta log
+     */
+    public synchronized static DeltaLog open(Path pfile) throws IOException
+    {
+        if(pfile==null) throw new IOException("The log file is null");
+
+        return new DeltaLog(pfile);
+    }
+
+    /**
+     * @return the log file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * It reads bytes from a given position until the buffer is full or the file ends
+     * @param buffer The buffer to be filled
+     * @param position The position into the file
+     * @throws IOException It is raised when the file could not be read
+     */
+    private void readFully(ByteBuffer buffer,long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+        {
+            int read=channel.read(buffer, position);
+            if(read<0) return;
+            position+=read;
+        }
+    }
+
+    /**
+     * It guarantees the required space into the pending buffer
+     * @param bytes The number of bytes to be appended
+     */
+    private void ensurePending(int bytes)
+    {
+        if(pending.remaining()>=bytes) return;
+
+        ByteBuffer bigger=ByteBuffer.allocate(Math.max(pending.capacity()*2, pending.position()+bytes));
+        pending.flip();
+        bigger.put(pending);
+        pending=bigger;
+    }
+
+    /**
+     * It appends a string using UTF-8, preceded by its length in bytes (-1 for null)
+     * @param value The string
+     */
+    private void putString(String value)
+    {
+        if(value==null)
+        {
+            ensurePending(Integer.BYTES);
+            pending.putInt(-1);
+            return;
+        }
+
+        byte bytes[]=value.getBytes(StandardCharsets.UTF_8);
+        ensurePending(Integer.BYTES+bytes.length);
+        pending.putInt(bytes.length);
+        pending.put(bytes);
+    }
+
+    /**
+     * It starts a record into the pending buffer
+     * @param type The record type
+     * @return The position of the record into the pending buffer
+     */
+    private int beginRecord(byte type)
+    {
+        ensurePending(Integer.BYTES+Byte.BYTES);
+        int start=pending.position();
+        pending.putInt(0);
+        pending.put(type);
+
+        return start;
+    }
+
+    /**
+     * It completes a record into the pending buffer, establishing its length and checksum
+     * @param start The position of the record into the pending buffer
+     * @return The sequence number of the record
+     */
+    private long endRecord(int start)
+    {
+        int length=pending.position()-start-Integer.BYTES;
+        pending.putInt(start, length);
+
+        crc.reset();
+        crc.update(pending.array(), pending.arrayOffset()+start+Integer.BYTES, length);
+        ensurePending(Integer.BYTES);
+        pending.putInt((int)crc.getValue());
+
+        return ++appendedSeq;
+    }
+
+    /**
+     * It appends an update of the behavioral stats. It is not durable until it is committed.
+     * @param projectID The project ID
+     * @param itemID The attribute or context property ID
+     * @param isContextProperty TRUE indicates a context property, FALSE an attribute
+     * @param mean The mean, null when it is not available
+     * @param var The variance, null when it is not available
+     * @param n The number of observations, null when it is not available
+     * @return The sequence number of the record
+     * @throws IOException It is raised when the log is closed, or the group could not be committed
+     */
+    public long logStat(String projectID,String itemID,boolean isContextProperty,Double mean,Double var,Integer n) throws IOException
+    {
+        long seq;
+        boolean full;
+        synchronized(appendLock)
+        {
+            if(channel==null) throw new IOException("The delta log is closed");
+
+            int start=beginRecord(RECORD_STAT);
+            putString(projectID);
+            putString(itemID);
+            ensurePending(Byte.BYTES+(2*Double.BYTES)+Integer.BYTES);
+            pending.put((byte)(isContextProperty?1:0));
+            pending.putDouble((mean==null)?Double.NaN:mean);
+            pending.putDouble((var==null)?Double.NaN:var);
+            pending.putInt((n==null)?0:n);
+            seq=endRecord(start);
+            full=pending.position()>=MAX_PENDING_BYTES;
+        }
+
+        if(full) sync(seq);
+        return seq;
+    }
+
+    /**
+     * It appends the write of a cell. It is not durable until it is committed.
+     * @param row The row of the cell
+     * @param col The column of the cell
+     * @param node The values of the cell
+     * @return The sequence number of the record
+     * @throws IOException It is raised when the log is closed, or the group could not be committed
+     */
+    public long logCell(int row,int col,ComposedSimilarityNode node) throws IOException
+    {
+        if(node==null) throw new IOException("The cell is null");
+
+        long seq;
+        boolean full;
+        synchronized(appendLock)
+        {
+            if(channel==null) throw new IOException("The delta log is closed");
+
+            int start=beginRecord(RECORD_CELL);
+            ensurePending((2*Integer.BYTES)+(PrimitiveSimilarityTriangularMatrix.FIELDS*Double.BYTES));
+            pending.putInt(row);
+            pending.putInt(col);
+            pending.putDouble(node.getEq01_sim_str_ent());
+            pending.putDouble(node.getEq02_sim_sc_st());
+            pending.putDouble(node.getEq03_idist_str());
+            pending.putDouble(node.getEq04_sim_ctx());
+            pending.putDouble(node.getEq05_sim_str_sc());
+            pending.putDouble(node.getEq06_edist_str());
+            pending.putDouble(node.getIdist_beh());
+            pending.putDouble(node.getEdist_beh());
+            pending.putDouble(node.getIdist());
+            pending.putDouble(node.getEdist());
+            pending.putDouble(node.getCdist());
+            seq=endRecord(start);
+            full=pending.position()>=MAX_PENDING_BYTES;
+        }
+
+        if(full) sync(seq);
+        return seq;
+    }
+
+    /**
+     * It guarantees that the record with the given sequence number (and all the previous ones) is durable.
+     * When another thread is writing a group, it waits for it and writes the following group including
+     * all the records appended meanwhile.
+     * @param seq The sequence number of the record
+     * @throws IOException It is raised when the records could not be written
+     */
+    public void sync(long seq) throws IOException
+    {
+        if(durableSeq>=seq) return;
+
+        synchronized(flushLock)
+        {
+            if(durableSeq>=seq) return;
+
+            ByteBuffer batch;
+            long upTo;
+            synchronized(appendLock)
+            {
+                if(channel==null) throw new IOException("The delta log is closed");
+                batch=pending;
+                pending=spare;
+                pending.clear();
+                upTo=appendedSeq;
+            }
+
+            batch.flip();
+            while(batch.hasRemaining()) channel.write(batch);
+            channel.force(false);
+            batch.clear();
+
+            synchronized(appendLock)
+            {
+                spare=batch;
+            }
+            durableSeq=upTo;
+        }
+    }
+
+    /**
+     * It makes durable all the records appended until now (group commit)
+     * @throws IOException It is raised when the records could not be written
+     */
+    public void commit() throws IOException
+    {
+        long seq;
+        synchronized(appendLock)
+        {
+            seq=appendedSeq;
+        }
+
+        sync(seq);
+    }
+
+    /**
+     * It discards all the records (pending or durable). It is used once a snapshot covering them has been written.
+     * @throws IOException It is raised when the file could not be truncated
+     */
+    public void reset() throws IOException
+    {
+        synchronized(flushLock)
+        {
+            synchronized(appendLock)
+            {
+                if(channel==null) throw new IOException("The delta log is closed");
+                pending.clear();
+                channel.truncate(HEADER_BYTES);
+                channel.position(HEADER_BYTES);
+                channel.force(true);
+                durableSeq=appendedSeq;
+            }
+        }
+    }
+
+    /**
+     * It reads the durable records in order, delivering them to the listener
+     * @param listener The listener receiving the records
+     * @return The number of records delivered
+     * @throws Exception It is raised when the log could not be read, or the listener could not apply a record
+     */
+    public long replay(RecordListener listener) throws Exception
+    {
+        if(listener==null) throw new IOException("The listener is null");
+
+        commit();
+        long count[]=new long[1];
+        synchronized(flushLock)
+        {
+            scan(new RecordListener() {
+                @Override
+                public void onStat(String projectID, String itemID, boolean isContextProperty, Double mean, Double var, Integer n) throws Exception {
+                    listener.onStat(projectID, itemID, isContextProperty, mean, var, n);
+                    count[0]++;
+                }
+
+                @Override
+                public void onCell(int row, int col, double[] fields) throws Exception {
+                    listener.onCell(row, col, fields);
+                    count[0]++;
+                }
+            });
+        }
+
+        return count[0];
+    }
+
+    /**
+     * It reads the records from the beginning, stopping at the first incomplete or corrupted record
+     * @param listener The listener receiving the records. It could be null.
+     * @return The position after the last valid record
+     * @throws IOException It is raised when the log could not be read
+     */
+    private long scan(RecordListener listener) throws IOException
+    {
+        long size=channel.size();
+        long position=HEADER_BYTES;
+        ByteBuffer lengthBuffer=ByteBuffer.allocate(Integer.BYTES);
+        CRC32 check=new CRC32();
+
+        while(position+Integer.BYTES<=size)
+        {
+            lengthBuffer.clear();
+            readFully(lengthBuffer, position);
+            int length=lengthBuffer.getInt(0);
+            if(length<1 || length>MAX_RECORD_BYTES || (position+Integer.BYTES+length+Integer.BYTES)>size) break;
+
+            ByteBuffer record=ByteBuffer.allocate(length+Integer.BYTES);
+            readFully(record, position+Integer.BYTES);
+            if(record.hasRemaining()) break;
+
+            check.reset();
+            check.update(record.array(), 0, length);
+            if(record.getInt(length)!=(int)check.getValue()) break;
+
+            if(listener!=null)
+            {
+                record.flip();
+                record.limit(length);
+                try{
+                    deliver(record,listener);
+                }catch(IOException e)
+                {
+                    throw e;
+                }catch(Exception e)
+                {
+                    throw new IOException("The record at "+position+" could not be applied. Message: "+e.getMessage());
+                }
+            }
+
+            position+=Integer.BYTES+length+Integer.BYTES;
+        }
+
+        return position;
+    }
+
+    /**
+     * It decodes a record delivering it to the listener
+     * @param record The record bytes (type and payload)
+     * @param listener The listener
+     * @throws Exception It is raised when the record is unknown, or the listener could not apply it
+     */
+    private static void deliver(ByteBuffer record,RecordListener listener) throws Exception
+    {
+        byte type=record.get();
+        switch(type)
+        {
+            case RECORD_STAT:
+                String projectID=getString(record);
+                String itemID=getString(record);
+                boolean isContextProperty=record.get()!=0;
+                double mean=record.getDouble();
+                double var=record.getDouble();
+                int n=record.getInt();
+                listener.onStat(projectID, itemID, isContextProperty, Double.isNaN(mean)?null:mean, Double.isNaN(var)?null:var, (n<1)?null:n);
+                break;
+            case RECORD_CELL:
+                int row=record.getInt();
+                int col=record.getInt();
+                double fields[]=new double[PrimitiveSimilarityTriangularMatrix.FIELDS];
+                for(int f=0;f<fields.length;f++) fields[f]=record.getDouble();
+                listener.onCell(row, col, fields);
+                break;
+            default:
+                throw new IOException("Unknown record type: "+type);
+        }
+    }
+
+    /**
+     * It reads a string written by putString
+     * @param record The record bytes
+     * @return The string, null when it was written as null
+     */
+    private static String getString(ByteBuffer record)
+    {
+        int length=record.getInt();
+        if(length<0) return null;
+
+        byte bytes[]=new byte[length];
+        record.get(bytes);
+
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    /**
+     * It commits the pending records and closes the log
+     * @throws IOException It is raised when the records could not be written or the channel could not be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(channel==null) return;
+
+        try{
+            commit();
+        }finally
+        {
+            synchronized(flushLock)
+            {
+                synchronized(appendLock)
+                {
+                    if(channel!=null) channel.close();
+                    channel=null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * It keeps the state shared between an asynchronous estimation and its workers (See ComposedIndex.updateEstimationAsync):
+ * the number of computed cells, the cancellation request, and the deadline. The workers check whether the estimation
+ * must stop between chunks (or tiles), and they report the computed cells after each one. So, the cancellation is
+ * cooperative: the chunks in progress are completed before the workers finish.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class EstimationControl {
+    /**
+     * It receives the progress of an estimation
+     */
+    public interface ProgressListener {
+        /**
+         * It receives the progress of the estimation. It is invoked by the workers after each chunk (or tile), 
+         * so it could be concurrently invoked and it should return quickly.
+         * @param done The number of computed cells
+         * @param total The number of cells of the matrix
+         */
+        public void onProgress(long done,long total);
+    }
+
+    /**
+     * The number of cells of the matrix
+     */
+    private final long total;
+    /**
+     * The number of computed cells
+     */
+    private final AtomicLong done=new AtomicLong(0);
+    /**
+     * The listener receiving the progress, null when the progress is not reported
+     */
+    private final ProgressListener listener;
+    /**
+     * The deadline according to System.nanoTime(), only used when hasDeadline is true
+     */
+    private final long deadline;
+    /**
+     * It indicates whether the estimation has a deadline
+     */
+    private final boolean hasDeadline;
+    /**
+     * It indicates whether the cancellation was requested
+     */
+    private volatile boolean cancelled=false;
+    /**
+     * It indicates whether the deadline was reached
+     */
+    private volatile boolean timedOut=false;
+
+    /**
+     * It creates a new control
+     * @param ptotal The number of cells of the matrix
+     * @param plistener The listener receiving the progress. It could be null.
+     * @param timeoutNanos The maximum duration of the estimation in nanoseconds. Zero or a negative value indicates no timeout.
+     */
+    public EstimationControl(long ptotal,ProgressListener plistener,long timeoutNanos)
+    {
+        total=Math.max(0, ptotal);
+        listener=plistener;
+        hasDeadline=timeoutNanos>0;
+        deadline=hasDeadline?System.nanoTime()+timeoutNanos:0;
+    }
+
+    /**
+     * Factory method
+     * @param ptotal The number of cells of the matrix
+     * @param plistener The listener receiving the progress. It could be null.
+     * @param timeoutNanos The maximum duration of the estimation in nanoseconds. Zero or a negative value indicates no timeout.
+     * @return A new control
+     */
+    public synchronized static EstimationControl create(long ptotal,ProgressListener plistener,long timeoutNanos)
+    {
+        return new EstimationControl(ptotal, plistener, timeoutNanos);
+    }
+
+    /**
+     * It requests the cancellation of the estimation
+     */
+    public void cancel()
+    {
+        cancelled=true;
+    }
+
+    /**
+     * It marks the deadline as reached, so the workers stop after their current chunks (e.g., when a timer expires
+     * before the estimation checks the deadline)
+     */
+    public void expire()
+    {
+        timedOut=true;
+    }
+
+    /**
+     * @return TRUE when the cancellation was requested, FALSE otherwise
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return TRUE when the deadline was reached, FALSE otherwise
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * It indicates whether the workers must stop, that is, the cancellation was requested or the deadline was reached
+     * @return TRUE when the workers must stop, FALSE otherwise
+     */
+    public boolean isStopped()
+    {
+        if(cancelled || timedOut) return true;
+        if(hasDeadline && System.nanoTime()-deadline>=0)
+        {
+            timedOut=true;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * It records the cells computed by a worker, reporting the progress to the listener
+     * @param cells The number of computed cells
+     */
+    public void advance(long cells)
+    {
+        if(cells<=0) return;
+        long current=done.addAndGet(cells);
+        if(listener==null) return;
+
+        try{
+            listener.onProgress(current, total);
+        }catch(RuntimeException e)
+        {
+            //A failing listener does not stop the estimation
+        }
+    }
+
+    /**
+     * @return the number of computed cells
+     */
+    public long getDone() {
+        return done.get();
+    }
+
+    /**
+     * @return the number of cells of the matrix
+     */
+    public long getTotal() {
+        return total;
+    }
+}
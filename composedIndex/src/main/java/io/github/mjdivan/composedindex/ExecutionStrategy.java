@@ -0,0 +1,30 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It indicates the way in which the workers are organized when the cells of the matrix are computed
+ * one by one (i.e., the matrix is not tiled)
+ *
+ * @author mjdivan
+ */
+public enum ExecutionStrategy {
+    /**
+     * The cells are recursively split into balanced tasks executed by a shared work-stealing pool 
+     * (See ForkJoinIndexEstimator)
+     */
+    FORK_JOIN,
+    /**
+     * The workers claim chunks of cells from a lock-free cursor, adapting the chunk size to the cost per pair.
+     * The number of workers is chosen from the cores and the observed throughput (See ChunkedCursor and WorkerSizing).
+     */
+    CHUNKED_CURSOR,
+    /**
+     * As CHUNKED_CURSOR, but the workers and the ingestion tasks run on virtual threads (JDK 21 or later).
+     * On older JDKs, it falls back to platform threads (See VirtualThreadSupport).
+     */
+    VIRTUAL_THREADS
+}
@@ -0,0 +1,194 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.ciedayap.ipd.exception.ProcessingException;
+
+/**
+ * This class implements a work-stealing engine for computing the composed index. The unidimensional range of the
+ * triangular matrix is recursively split into balanced halves until a task holds a few cells, and the tasks are
+ * executed by a ForkJoinPool sized to the available processors. The pool is shared by every estimation, so no
+ * thread is created per run, and the caller waits through a join instead of polling the termination. The pool
+ * could be closed through shutdownEngine() (e.g., when the application is stopped), and it is created again by the
+ * next estimation.
+ * @author mjdivan
+ * @version 1.0 
+ */
+public class ForkJoinIndexEstimator extends RecursiveAction{
+    private static final long serialVersionUID=1L;
+    /**
+     * The number of tasks per processor. More tasks than processors let the idle workers steal from the busy ones.
+     */
+    public static final int TASKS_PER_PROCESSOR=8;
+    /**
+     * The minimum number of cells of a task
+     */
+    public static final int MIN_CELLS=64;
+    /**
+     * The pool shared by the estimations, created on demand
+     */
+    private static ForkJoinPool engine;
+    
+    private final Node[] projects;
+    private final ComposedSimilarityTriangularMatrix matrix;
+    private final long from;
+    private final long to;
+    private final long grain;
+    private final double alfa;
+    private final double beta;
+    private final double gama;
+    private final double delta;
+    private final double w;
+    /**
+     * The flag shared by the tasks of an estimation for stopping them when the estimation is interrupted
+     */
+    private final AtomicBoolean cancelled;
+    
+    /**
+     * It creates a new task for estimating the composed index of a range of cells
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param m The triangular matrix
+     * @param pfrom The first unidimensional position (inclusive)
+     * @param pto The last unidimensional position (exclusive)
+     * @param pgrain The maximum number of cells computed without splitting the task
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @param pcancelled The flag shared by the tasks of the estimation for stopping them
+     */
+    protected ForkJoinIndexEstimator(Node[] projs,ComposedSimilarityTriangularMatrix m,long pfrom,long pto,long pgrain,
+            double palfa, double pbeta, double pgama, double pdelta, double pw,AtomicBoolean pcancelled)
+    {
+        this.projects=projs;
+        this.matrix=m;
+        this.from=pfrom;
+        this.to=pto;
+        this.grain=pgrain;
+        this.alfa=palfa;
+        this.beta=pbeta;
+        this.gama=pgama;
+        this.delta=pdelta;
+        this.w=pw;
+        this.cancelled=pcancelled;
+    }
+
+    /**
+     * A factory method to create the root task covering the whole matrix
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param m The triangular matrix
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @return The root task
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1],
+     * or the projects do not match the matrix
+     */
+    public static synchronized ForkJoinIndexEstimator create(Node[] projs,ComposedSimilarityTriangularMatrix m,
+            double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        if(palfa<0 || palfa>1) throw new ProcessingException("The alfa parameter is out of range [0; 1]");
+        if(pbeta<0 || pbeta>1) throw new ProcessingException("The beta parameter is out of range [0; 1]");
+        if(pdelta<0 || pdelta>1) throw new ProcessingException("The delta parameter is out of range [0; 1]");
+        if(pgama<0 || pgama>1) throw new ProcessingException("The gama parameter is out of range [0; 1]");
+        if(pw<0 || pw>1) throw new ProcessingException("The w parameter is out of range [0; 1]");
+        if(projs==null) throw new ProcessingException("No projects to be processed");
+        if(m==null || !m.isCreated()) throw new ProcessingException("No matrix available");
+        if(projs.length!=m.getDim()) throw new ProcessingException("The projects do not match the matrix");
+        
+        long length=m.unidimensionalLongLength();
+        long tasks=(long)getEngine().getParallelism()*TASKS_PER_PROCESSOR;
+        long pgrain=Math.max(MIN_CELLS, (length+tasks-1)/tasks);
+        
+        return new ForkJoinIndexEstimator(projs, m, 0, length, pgrain, palfa, pbeta, pgama, pdelta, pw, new AtomicBoolean(false));
+    }
+    
+    /**
+     * @return the pool shared by the estimations, whose parallelism is the number of available processors
+     */
+    public static synchronized ForkJoinPool getEngine()
+    {
+        if(engine==null) engine=new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        
+        return engine;
+    }
+    
+    /**
+     * It shuts down the shared pool, waiting for the running estimations up to the indicated time.
+     * The next estimation creates a new pool.
+     * @param timeout The maximum time to wait for the running estimations in milliseconds. Zero or negative for not waiting.
+     * @return TRUE when the pool was closed or it was not created, FALSE when some estimation is still running
+     * @throws InterruptedException It is raised when the current thread is interrupted while waiting
+     */
+    public static boolean shutdownEngine(long timeout) throws InterruptedException
+    {
+        ForkJoinPool current;
+        synchronized(ForkJoinIndexEstimator.class)
+        {
+            current=engine;
+            engine=null;
+        }
+        if(current==null) return true;
+        
+        current.shutdown();
+        if(timeout<=0) return current.isTerminated();
+        
+        return current.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * It runs the task into the shared pool, waiting for its completion
+     * @throws ProcessingException It is raised when the computation was interrupted or failed
+     */
+    public void execute() throws ProcessingException
+    {
+        ForkJoinTask<Void> task;
+        try{
+            task=getEngine().submit(this);
+        }catch(RejectedExecutionException e)
+        {
+            throw new ProcessingException("The engine has been shut down");
+        }
+        
+        try{
+            task.get();
+        }catch(InterruptedException e)
+        {
+            //The leaves in progress keep writing the matrix until they see the flag, so it waits for them
+            cancelled.set(true);
+            task.quietlyJoin();
+            Thread.currentThread().interrupt();
+            throw new ProcessingException("The estimation has been interrupted");
+        }catch(ExecutionException e)
+        {
+            throw new ProcessingException("The estimation has failed. Message: "+e.getCause());
+        }
+    }
+    
+    @Override
+    protected void compute() {
+        if(cancelled.get()) return;
+        if(to-from>grain)
+        {
+            long mid=(from+to)>>>1;
+            invokeAll(new ForkJoinIndexEstimator(projects, matrix, from, mid, grain, alfa, beta, gama, delta, w, cancelled),
+                    new ForkJoinIndexEstimator(projects, matrix, mid, to, grain, alfa, beta, gama, delta, w, cancelled));
+            return;
+        }
+        
+        ComposedIndex.computeRange(projects, matrix, from, to, PairScratch.create(), cancelled, alfa,beta,gama,delta,w);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.Arrays;
+
+/**
+ * It implements a dense dictionary mapping identifiers (e.g., project IDs) to consecutive indexes
+ * and vice versa. The indexes are assigned in the same order in which the identifiers are added,
+ * so the ordering is deterministic. The lookups are solved using an open-addressing table of
+ * primitive indexes (linear probing).
+ * The additions are synchronized among them, while the lookups are not. So, the dictionary is safe
+ * for concurrent lookups once the additions have finished.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class IdentifierDictionary {
+    /**
+     * The value used in the table for indicating an empty slot
+     */
+    private static final int EMPTY=-1;
+    /**
+     * The identifiers organized by index
+     */
+    private String ids[];
+    /**
+     * The open-addressing table containing the index of each identifier
+     */
+    private int table[];
+    /**
+     * The mask used for obtaining the slot into the table
+     */
+    private int mask;
+    /**
+     * The number of identifiers into the dictionary
+     */
+    private int size;
+
+    /**
+     * It creates a new empty dictionary
+     * @param expectedSize The expected number of identifiers
+     */
+    public IdentifierDictionary(int expectedSize)
+    {
+        int capacity=tableCapacity(Math.max(expectedSize, 4));
+        ids=new String[Math.max(expectedSize, 4)];
+        table=new int[capacity];
+        Arrays.fill(table, EMPTY);
+        mask=capacity-1;
+        size=0;
+    }
+
+    /**
+     * Factory method
+     * @param expectedSize The expected number of identifiers
+     * @return A new empty dictionary
+     */
+    public synchronized static IdentifierDictionary create(int expectedSize)
+    {
+        return new IdentifierDictionary(expectedSize);
+    }
+
+    /**
+     * It computes a table capacity (power of two) keeping the load factor under 0.5
+     * @param entries The number of entries
+     * @return The table capacity
+     */
+    private static int tableCapacity(int entries)
+    {
+        int capacity=Integer.highestOneBit(entries*2);
+        if(capacity<(entries*2)) capacity=capacity<<1;
+
+        return capacity;
+    }
+
+    /**
+     * It spreads the bits of the hash code
+     * @param id The identifier
+     * @return The spread hash code
+     */
+    private static int hash(String id)
+    {
+        int h=id.hashCode();
+        return h^(h>>>16);
+    }
+
+    /**
+     * It incorporates an identifier into the dictionary when it is not present
+     * @param id The identifier to be added
+     * @return The index associated with the identifier, -1 when the identifier is null
+     */
+    public synchronized int add(String id)
+    {
+        if(id==null) return -1;
+
+        int slot=hash(id)&mask;
+        while(table[slot]!=EMPTY)
+        {
+            if(ids[table[slot]].equals(id)) return table[slot];
+            slot=(slot+1)&mask;
+        }
+
+        if(size==ids.length) ids=Arrays.copyOf(ids, ids.length*2);
+        ids[size]=id;
+        table[slot]=size;
+        size++;
+
+        if((size*2)>table.length) rehash();
+
+        return size-1;
+    }
+
+    /**
+     * It doubles the table capacity, relocating the indexes
+     */
+    private void rehash()
+    {
+        int capacity=table.length*2;
+        int newTable[]=new int[capacity];
+        Arrays.fill(newTable, EMPTY);
+        int newMask=capacity-1;
+
+        for(int i=0;i<size;i++)
+        {
+            int slot=hash(ids[i])&newMask;
+            while(newTable[slot]!=EMPTY) slot=(slot+1)&newMask;
+            newTable[slot]=i;
+        }
+
+        table=newTable;
+        mask=newMask;
+    }
+
+    /**
+     * It returns the index associated with an identifier
+     * @param id The identifier
+     * @return The index associated with the identifier, -1 when it is not present
+     */
+    public int indexOf(String id)
+    {
+        if(id==null) return -1;
+
+        int slot=hash(id)&mask;
+        int idx;
+        while((idx=table[slot])!=EMPTY)
+        {
+            if(ids[idx].equals(id)) return idx;
+            slot=(slot+1)&mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * It returns the identifier associated with an index
+     * @param index The index between 0 and (size()-1)
+     * @return The identifier, null when the index is out of range
+     */
+    public String getID(int index)
+    {
+        if(index<0 || index>=size) return null;
+
+        return ids[index];
+    }
+
+    /**
+     * @return the number of identifiers into the dictionary
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * It returns the identifiers organized by index
+     * @return A new array containing the identifiers
+     */
+    public String[] toArray()
+    {
+        return Arrays.copyOf(ids, size);
+    }
+}
@@ -9,11 +9,14 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.ciedayap.ipd.exception.ProcessingException;
 
 /**
- * This class implements a Runnable interface for Multi-thread computing of the composed index
+ * This class implements a Runnable interface for Multi-thread computing of the composed index.
+ * When a ChunkedCursor is indicated, each worker claims chunks of cells whose size is adapted to the
+ * measured cost per pair, instead of claiming one cell at a time from the matrix. When an EstimationControl
+ * is indicated, the worker stops claiming chunks once the estimation is cancelled or timed out.
  * @author mjdivan
  * @version 1.0 
  */
-public class IndexEstimator implements Runnable{
+public class IndexEstimator implements Runnable, ComputeScheduler.Slice{
     private ConcurrentHashMap<String,Node> projects;
     private ComposedSimilarityTriangularMatrix matrix;
     private double alfa;
@@ -21,6 +24,17 @@ public class IndexEstimator implements Runnable{
     private double gama;
     private double delta;
     private double w;
+    private Node[] projectsByIndex;
+    private ChunkedCursor cursor;
+    private EstimationControl control;
+    /**
+     * The reusable state of the worker in the chunked mode
+     */
+    private PairScratch scratch;
+    /**
+     * The size of the next chunk to be claimed
+     */
+    private int chunk=1;
     
     /**
      * It creates a new instance for estimating the composed index
@@ -53,6 +67,41 @@ public class IndexEstimator implements Runnable{
         this.w=pw;
     }
 
+    /**
+     * It creates a new instance claiming chunks of cells from a lock-free cursor
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param m The unidimensional array related to the triangular matrix
+     * @param pcursor The cursor shared among the workers for claiming the chunks
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1],
+     * or the projects and cursor do not match the matrix
+     */
+    private IndexEstimator(Node[] projs,ComposedSimilarityTriangularMatrix m,ChunkedCursor pcursor,
+            double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        if(palfa<0 || palfa>1) throw new ProcessingException("The alfa parameter is out of range [0; 1]");
+        if(pbeta<0 || pbeta>1) throw new ProcessingException("The beta parameter is out of range [0; 1]");
+        if(pdelta<0 || pdelta>1) throw new ProcessingException("The delta parameter is out of range [0; 1]");
+        if(pgama<0 || pgama>1) throw new ProcessingException("The gama parameter is out of range [0; 1]");
+        if(pw<0 || pw>1) throw new ProcessingException("The w parameter is out of range [0; 1]");
+        if(m==null || !m.isCreated()) throw new ProcessingException("No matrix available");
+        if(projs==null || projs.length!=m.getDim()) throw new ProcessingException("The projects do not match the matrix");
+        if(pcursor==null || pcursor.getLength()!=m.unidimensionalLongLength()) throw new ProcessingException("The cursor does not match the matrix");
+        
+        this.projectsByIndex=projs;
+        this.cursor=pcursor;
+        this.matrix=m;        
+        this.alfa=palfa;
+        this.beta=pbeta;
+        this.gama=pgama;
+        this.delta=pdelta;
+        this.w=pw;
+    }
+
     /**
      * A factory method to create a new instance
      * @param projs The set of projects
@@ -71,8 +120,44 @@ public class IndexEstimator implements Runnable{
         return new IndexEstimator(projs, m, palfa, pbeta, pgama, pdelta, pw);
     }
     
+    /**
+     * A factory method to create a new instance claiming chunks of cells from a lock-free cursor
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param m The unidimensional array related to the triangular matrix
+     * @param pcursor The cursor shared among the workers for claiming the chunks
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @return A new instance to estimate the index
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1],
+     * or the projects and cursor do not match the matrix
+     */
+    public static synchronized IndexEstimator create(Node[] projs,ComposedSimilarityTriangularMatrix m,ChunkedCursor pcursor,
+            double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        return new IndexEstimator(projs, m, pcursor, palfa, pbeta, pgama, pdelta, pw);
+    }
+    
+    /**
+     * It establishes the control of an asynchronous estimation, which is checked between chunks
+     * @param pcontrol The control. It could be null.
+     */
+    protected void setControl(EstimationControl pcontrol)
+    {
+        this.control=pcontrol;
+    }
+    
     @Override
     public void run() {
+        if(cursor!=null)
+        {
+            //An interrupted pool (See ComposedIndex.runWorkers) stops the worker between chunks
+            while(!Thread.currentThread().isInterrupted() && runChunk()){}
+            return;
+        }
+        
         if(matrix!=null && projects!=null)
         {
             ComposedSimilarityNode item=matrix.nextCurrentThreadElement();
@@ -93,4 +178,41 @@ public class IndexEstimator implements Runnable{
             System.out.println("No matrix or projects to be processed");
         }
     }    
+
+    /**
+     * It runs a single chunk in the chunked mode, or the whole work otherwise
+     * @return TRUE when there are remaining chunks, FALSE otherwise
+     */
+    @Override
+    public boolean runSlice() {
+        if(cursor!=null) return runChunk();
+        
+        run();
+        return false;
+    }
+    
+    /**
+     * It computes the next chunk claimed from the cursor, adapting the chunk size for the following one
+     * @return TRUE when there are remaining chunks, FALSE otherwise
+     */
+    private boolean runChunk()
+    {
+        if(control!=null && control.isStopped()) return false;
+        long start=cursor.claim(chunk);
+        if(start<0) return false;
+        
+        if(scratch==null) scratch=PairScratch.create();
+        long end=cursor.end(start, chunk);
+        long t0=System.nanoTime();
+        ComposedIndex.computeRange(projectsByIndex, matrix, start, end, scratch, null, alfa,beta,gama,delta,w);
+
+        chunk=cursor.adapt(chunk, System.nanoTime()-t0, end-start);
+        if(control!=null)
+        {
+            control.advance(end-start);
+            if(control.isStopped()) return false;
+        }
+        
+        return true;
+    }
 }
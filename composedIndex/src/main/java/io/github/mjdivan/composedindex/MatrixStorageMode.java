@@ -0,0 +1,66 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It indicates the way in which the cells of the triangular matrix are stored
+ *
+ * @author mjdivan
+ */
+public enum MatrixStorageMode {
+    /**
+     * One ComposedSimilarityNode instance per cell (the original storage)
+     */
+    OBJECT,
+    /**
+     * One primitive array per equation field, indexed by the unidimensional position.
+     * The project IDs of each cell are implied by its position.
+     */
+    STRUCT_OF_ARRAYS,
+    /**
+     * The cells are kept outside the Java heap using direct buffers
+     */
+    OFF_HEAP,
+    /**
+     * The cells are kept in a local file mapped in memory, so the page cache holds the matrix
+     */
+    MEMORY_MAPPED,
+    /**
+     * Only the composed distance is kept, quantized to 16 bits (2 bytes per cell)
+     */
+    CDIST_QUANTIZED_16,
+    /**
+     * Only the composed distance is kept as a float (4 bytes per cell)
+     */
+    CDIST_FLOAT,
+    /**
+     * The cells are addressed by long positions and split into fixed-size chunks, 
+     * allowing more than 46,340 projects (more than Integer.MAX_VALUE cells)
+     */
+    SEGMENTED,
+    /**
+     * One primitive array per equation field using a tile-major layout, where the cells of each BxB tile are contiguous
+     */
+    TILED,
+    /**
+     * No triangular matrix is allocated. Only the close pairs computed through a sparse estimation are kept
+     * (See SparseSimilarityMatrix)
+     */
+    SPARSE,
+    /**
+     * A read-only composed distance published by another process through memory-mapped files (See SharedMatrixReader)
+     */
+    SHARED;
+
+    /**
+     * @return TRUE when the storage keeps all the fields of each cell (i.e., the structural results are
+     * available after an estimation), FALSE otherwise
+     */
+    public boolean keepsAllFields()
+    {
+        return this!=CDIST_QUANTIZED_16 && this!=CDIST_FLOAT && this!=SPARSE && this!=SHARED;
+    }
+}
@@ -42,6 +42,14 @@ public class Node {
      * The transition model for scenarios when they are available
      */
     private ArrayList<StateTransition> scenarioTrList;         
+    /**
+     * The precompiled set signatures used for comparing the node. It is null when they were not compiled.
+     */
+    private volatile NodeSignature signature;
+    /**
+     * The dictionary used for compiling the signature, null when it was not compiled
+     */
+    private IdentifierDictionary dictionary;
     
     /**
      * It creates the node based on the project definition
@@ -119,6 +127,35 @@ public class Node {
         
     }
 
+    /**
+     * It creates the node based on the project definition, compiling its set signatures
+     * 
+     * @param mp The measurement project definition
+     * @param dictionary The dictionary mapping the string IDs to integers, shared by all the nodes to be compared
+     * @throws ProcessingException it is raised when the measurement project definition is incomplete or not accessible
+     */
+    public Node(MeasurementProject mp,IdentifierDictionary dictionary) throws ProcessingException
+    {
+        this(mp);
+        this.dictionary=dictionary;
+        signature=NodeSignature.compile(this, dictionary);
+    }
+
+    /**
+     * It creates a node keeping only the behavioral perspective. It is used when a snapshot is loaded
+     * without the IPD message, so the structural lists are not available.
+     * @param pbeh The behavioral perspective
+     */
+    protected Node(BehavioralNode pbeh)
+    {
+        this.project=null;
+        this.beh=pbeh;
+        ecstateList=null;
+        ecstateTrList=null;
+        scenarioList=null;
+        scenarioTrList=null;
+    }
+
     /**
      * 
      * @param mp The measurement project based on which the node instance will be created
@@ -129,6 +166,18 @@ public class Node {
     {
         return new Node(mp);
     }
+
+    /**
+     * 
+     * @param mp The measurement project based on which the node instance will be created
+     * @param dictionary The dictionary mapping the string IDs to integers, shared by all the nodes to be compared
+     * @return A new Node instance including its set signatures
+     * @throws ProcessingException it is raised when the measurement project definition is incomplete or not accessible
+     */
+    public synchronized static Node create(MeasurementProject mp,IdentifierDictionary dictionary) throws ProcessingException
+    {
+        return new Node(mp,dictionary);
+    }
     
     /**
      * @return the project
@@ -137,6 +186,36 @@ public class Node {
         return project;
     }
 
+    /**
+     * It returns the precompiled set signatures. When the packed statistics of the behavioral node were replaced
+     * after compiling them (See BehavioralNode.getStatsVersion), the signatures are compiled again, so they
+     * never read a previous store through stale positions.
+     * @return the precompiled set signatures, null when they were not compiled
+     */
+    public NodeSignature getSignature() {
+        NodeSignature sig=signature;
+        if(sig!=null && beh!=null && sig.getStatsVersion()!=beh.getStatsVersion()) sig=recompileSignature();
+        
+        return sig;
+    }
+    
+    /**
+     * It compiles the signatures again, keeping the structural class when the structural sets did not change
+     * @return The new signatures, null when they could not be compiled
+     */
+    private synchronized NodeSignature recompileSignature()
+    {
+        NodeSignature previous=signature;
+        if(previous==null || previous.getStatsVersion()==beh.getStatsVersion()) return previous;
+        
+        NodeSignature sig=NodeSignature.compile(this, dictionary);
+        if(sig!=null && previous.getStructuralClasses()!=null && previous.structurallyEquals(sig))
+            sig.setStructuralClass(previous.getStructuralClasses(), previous.getStructuralClass());
+        signature=sig;
+        
+        return sig;
+    }
+
     /**
      * @return the beh
      */
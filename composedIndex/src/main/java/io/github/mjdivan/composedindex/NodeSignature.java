@@ -0,0 +1,689 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.ciedayap.ipd.states.ECState;
+import org.ciedayap.ipd.states.Scenario;
+import org.ciedayap.ipd.states.StateTransition;
+
+/**
+ * It keeps the precompiled set signatures of a node: the sorted and distinct integer IDs of its attributes,
+ * context properties, states, state transitions, scenarios, and scenario transitions. The string IDs are
+ * mapped to integers through a dictionary shared by all the nodes of a message, so the intersection and union
+ * sizes between two nodes are obtained through a linear merge, without building hash maps.
+ * <p>The signatures replicate the hash maps built by the parsing methods of ComposedIndex: the keys are the IDs
+ * used for building the maps (getID for states and scenarios, getUniqueID for transitions, and getAttributeID for
+ * attributes and context properties), while the probes are the IDs used for looking up the other project 
+ * (getUniqueID for states, scenarios, and transitions).</p>
+ * <p>When the dictionary is small enough (i.e., the largest ID is lesser than MAX_BITSET_BITS), each category
+ * is also kept as a bitset where the bit position is the dictionary index. In such a case, the intersection is
+ * obtained as bitCount(a &amp; b) and the union as bitCount(a | b), avoiding the merge. When both lists are very
+ * large and the comparison runs into a fork-join worker, the merges are split into subtasks (See ParallelPairKernels).</p>
+ * <p>Two signatures with the same IDs in every category are structurally equivalent, so they belong to the 
+ * same structural class (See StructuralClasses).</p>
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class NodeSignature {
+    private static final int EMPTY[]=new int[0];
+    /**
+     * The maximum number of bits of a bitset. The bitsets are not built when some ID is greater or equal than it.
+     */
+    public static final int MAX_BITSET_BITS=1<<14;
+
+    /**
+     * The attribute IDs
+     */
+    private final int attributes[];
+    /**
+     * The position of each attribute into the packed statistics
+     */
+    private final int attributeSlots[];
+    /**
+     * The packed statistics of the attributes
+     */
+    private final BehavioralStatsStore attributeStats;
+    /**
+     * The context property IDs
+     */
+    private final int contextProperties[];
+    /**
+     * The position of each context property into the packed statistics
+     */
+    private final int contextPropertySlots[];
+    /**
+     * The packed statistics of the context properties
+     */
+    private final BehavioralStatsStore contextPropertyStats;
+    /**
+     * The state IDs (keys)
+     */
+    private final int stateKeys[];
+    /**
+     * The state unique IDs (probes)
+     */
+    private final int stateProbes[];
+    /**
+     * The state transition unique IDs
+     */
+    private final int stateTransitions[];
+    /**
+     * The scenario IDs (keys)
+     */
+    private final int scenarioKeys[];
+    /**
+     * The scenario unique IDs (probes)
+     */
+    private final int scenarioProbes[];
+    /**
+     * The scenario transition unique IDs
+     */
+    private final int scenarioTransitions[];
+    /**
+     * The bitsets related to each category, null when the IDs exceed MAX_BITSET_BITS
+     */
+    private final long attributeBits[];
+    private final long contextPropertyBits[];
+    private final long stateKeyBits[];
+    private final long stateProbeBits[];
+    private final long stateTransitionBits[];
+    private final long scenarioKeyBits[];
+    private final long scenarioProbeBits[];
+    private final long scenarioTransitionBits[];
+    /**
+     * The structural classes to which the signature belongs, null when it was not classified
+     */
+    private StructuralClasses structuralClasses;
+    /**
+     * The structural class of the signature, -1 when it was not classified
+     */
+    private int structuralClass=-1;
+    /**
+     * The version of the packed statistics of the node when the signature was compiled (See BehavioralNode.getStatsVersion)
+     */
+    private int statsVersion;
+
+    /**
+     * It creates a signature from already compiled arrays (See compile)
+     */
+    protected NodeSignature(int patts[],int pattSlots[],BehavioralStatsStore pattStats,int pctx[],int pctxSlots[],BehavioralStatsStore pctxStats,
+            int pstateKeys[],int pstateProbes[],int pstateTrs[],int pscKeys[],int pscProbes[],int pscTrs[])
+    {
+        attributes=patts;
+        attributeSlots=pattSlots;
+        attributeStats=pattStats;
+        contextProperties=pctx;
+        contextPropertySlots=pctxSlots;
+        contextPropertyStats=pctxStats;
+        stateKeys=pstateKeys;
+        stateProbes=pstateProbes;
+        stateTransitions=pstateTrs;
+        scenarioKeys=pscKeys;
+        scenarioProbes=pscProbes;
+        scenarioTransitions=pscTrs;
+        
+        attributeBits=toBits(patts);
+        contextPropertyBits=toBits(pctx);
+        stateKeyBits=toBits(pstateKeys);
+        stateProbeBits=toBits(pstateProbes);
+        stateTransitionBits=toBits(pstateTrs);
+        scenarioKeyBits=toBits(pscKeys);
+        scenarioProbeBits=toBits(pscProbes);
+        scenarioTransitionBits=toBits(pscTrs);
+    }
+
+    /**
+     * It compiles the signature of a node
+     * @param node The node
+     * @param dictionary The dictionary mapping the string IDs to integers. It must be shared by all the compared nodes.
+     * @return The signature, null when some list or ID is not available (so the parsing methods must be used)
+     */
+    public static NodeSignature compile(Node node,IdentifierDictionary dictionary)
+    {
+        if(node==null || dictionary==null || node.getBeh()==null) return null;
+
+        //The version is read first, so a store replaced while compiling leads to a new compilation
+        int version=node.getBeh().getStatsVersion();
+        ArrayList<BehavioralItemNode> atts=node.getBeh().getAttributes();
+        if(atts==null || atts.isEmpty()) return null;
+        BehavioralStatsStore attStats=node.getBeh().getAttributeStats();
+        int patts[]=new int[atts.size()];
+        int pattSlots[]=new int[atts.size()];
+        int nattrs=compileItems(atts,dictionary,patts,pattSlots);
+        if(nattrs<0) return null;
+
+        ArrayList<BehavioralItemNode> ctx=node.getBeh().getContextProperties();
+        BehavioralStatsStore ctxStats=null;
+        int pctx[]=EMPTY;
+        int pctxSlots[]=EMPTY;
+        int nctx=0;
+        if(ctx!=null && !ctx.isEmpty())
+        {
+            ctxStats=node.getBeh().getContextPropertyStats();
+            pctx=new int[ctx.size()];
+            pctxSlots=new int[ctx.size()];
+            nctx=compileItems(ctx,dictionary,pctx,pctxSlots);
+            if(nctx<0) return null;
+        }
+
+        int pstateKeys[]=EMPTY;
+        int pstateProbes[]=EMPTY;
+        ArrayList<ECState> states=node.getEcstateList();
+        if(states!=null && !states.isEmpty())
+        {
+            String keys[]=new String[states.size()];
+            String probes[]=new String[states.size()];
+            for(int i=0;i<states.size();i++)
+            {
+                keys[i]=states.get(i).getID();
+                probes[i]=states.get(i).getUniqueID();
+            }
+            pstateKeys=compileKeys(keys,dictionary);
+            pstateProbes=compileProbes(keys,probes,dictionary);
+            if(pstateKeys==null || pstateProbes==null) return null;
+        }
+
+        int pstateTrs[]=compileTransitions(node.getEcstateTrList(),dictionary);
+        if(pstateTrs==null) return null;
+
+        int pscKeys[]=EMPTY;
+        int pscProbes[]=EMPTY;
+        ArrayList<Scenario> scenarios=node.getScenarioList();
+        if(scenarios!=null && !scenarios.isEmpty())
+        {
+            String keys[]=new String[scenarios.size()];
+            String probes[]=new String[scenarios.size()];
+            for(int i=0;i<scenarios.size();i++)
+            {
+                keys[i]=scenarios.get(i).getID();
+                probes[i]=scenarios.get(i).getUniqueID();
+            }
+            pscKeys=compileKeys(keys,dictionary);
+            pscProbes=compileProbes(keys,probes,dictionary);
+            if(pscKeys==null || pscProbes==null) return null;
+        }
+
+        int pscTrs[]=compileTransitions(node.getScenarioTrList(),dictionary);
+        if(pscTrs==null) return null;
+
+        NodeSignature sig=new NodeSignature(Arrays.copyOf(patts, nattrs),Arrays.copyOf(pattSlots, nattrs),attStats,
+                Arrays.copyOf(pctx, nctx),Arrays.copyOf(pctxSlots, nctx),ctxStats,
+                pstateKeys,pstateProbes,pstateTrs,pscKeys,pscProbes,pscTrs);
+        sig.statsVersion=version;
+        
+        return sig;
+    }
+
+    /**
+     * It compiles a list of attributes (or context properties) into sorted and distinct IDs. As it happens with
+     * the hash maps, the last item prevails when an ID is repeated.
+     * @param items The attributes (or context properties)
+     * @param dictionary The dictionary
+     * @param ids The array to be filled with the IDs
+     * @param slots The array to be filled with the position of the item related to each ID (i.e., its index into the packed statistics)
+     * @return The number of distinct IDs, -1 when some ID is null
+     */
+    private static int compileItems(ArrayList<BehavioralItemNode> items,IdentifierDictionary dictionary,int ids[],int slots[])
+    {
+        long packed[]=new long[items.size()];
+        for(int i=0;i<items.size();i++)
+        {
+            BehavioralItemNode item=items.get(i);
+            if(item==null || item.getAttributeID()==null) return -1;
+            packed[i]=(((long)dictionary.add(item.getAttributeID()))<<32)|i;
+        }
+        Arrays.sort(packed);
+
+        int n=0;
+        for(int i=0;i<packed.length;i++)
+        {
+            int id=(int)(packed[i]>>>32);
+            int slot=(int)packed[i];
+            if(n>0 && ids[n-1]==id) slots[n-1]=slot;//The last one prevails
+            else
+            {
+                ids[n]=id;
+                slots[n]=slot;
+                n++;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * It compiles the keys of a hash map into sorted and distinct IDs
+     * @param keys The keys
+     * @param dictionary The dictionary
+     * @return The sorted and distinct IDs, null when some key is null
+     */
+    private static int[] compileKeys(String keys[],IdentifierDictionary dictionary)
+    {
+        int ids[]=new int[keys.length];
+        for(int i=0;i<keys.length;i++)
+        {
+            if(keys[i]==null) return null;
+            ids[i]=dictionary.add(keys[i]);
+        }
+
+        return distinct(ids);
+    }
+
+    /**
+     * It compiles the probes of the values kept by a hash map (the last value prevails for each key)
+     * @param keys The keys
+     * @param probes The probe of each value
+     * @param dictionary The dictionary
+     * @return The sorted and distinct probes, null when some probe is null
+     */
+    private static int[] compileProbes(String keys[],String probes[],IdentifierDictionary dictionary)
+    {
+        HashMap<String,String> map=new HashMap(keys.length);
+        for(int i=0;i<keys.length;i++) map.put(keys[i], probes[i]);
+
+        int kept[]=new int[map.size()];
+        int n=0;
+        for(String probe:map.values())
+        {
+            if(probe==null) return null;
+            kept[n++]=dictionary.add(probe);
+        }
+
+        return distinct(kept);
+    }
+
+    /**
+     * It compiles a list of transitions into sorted and distinct unique IDs
+     * @param transitions The transitions. It could be null.
+     * @param dictionary The dictionary
+     * @return The sorted and distinct IDs, null when some ID is null
+     */
+    private static int[] compileTransitions(ArrayList<StateTransition> transitions,IdentifierDictionary dictionary)
+    {
+        if(transitions==null || transitions.isEmpty()) return EMPTY;
+
+        String keys[]=new String[transitions.size()];
+        for(int i=0;i<keys.length;i++) keys[i]=transitions.get(i).getUniqueID();
+
+        return compileKeys(keys,dictionary);
+    }
+
+    /**
+     * It sorts the IDs removing the duplicated ones
+     * @param ids The IDs
+     * @return The sorted and distinct IDs
+     */
+    private static int[] distinct(int ids[])
+    {
+        if(ids.length==0) return EMPTY;
+        Arrays.sort(ids);
+        int n=1;
+        for(int i=1;i<ids.length;i++)
+            if(ids[i]!=ids[n-1]) ids[n++]=ids[i];
+
+        return (n==ids.length)?ids:Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * It builds the bitset related to sorted and distinct IDs
+     * @param ids The sorted and distinct IDs
+     * @return The bitset, null when the largest ID is greater or equal than MAX_BITSET_BITS
+     */
+    private static long[] toBits(int ids[])
+    {
+        if(ids.length==0) return new long[0];
+        int max=ids[ids.length-1];
+        if(max>=MAX_BITSET_BITS) return null;
+
+        long bits[]=new long[(max>>>6)+1];
+        for(int id:ids) bits[id>>>6]|=1L<<id;
+
+        return bits;
+    }
+
+    /**
+     * It computes the size of the intersection between two bitsets
+     * @param a The first bitset
+     * @param b The second bitset
+     * @return The number of common IDs
+     */
+    public static int intersectionSize(long a[],long b[])
+    {
+        return SimilarityKernels.intersectionCount(a, b);
+    }
+
+    /**
+     * It computes the size of the union between two bitsets
+     * @param a The first bitset
+     * @param b The second bitset
+     * @return The number of IDs in the union
+     */
+    public static int unionSize(long a[],long b[])
+    {
+        return SimilarityKernels.unionCount(a, b);
+    }
+
+    /**
+     * It computes the number of common IDs using the bitsets when both are available, or a linear merge otherwise
+     */
+    private static int common(int a[],long abits[],int b[],long bbits[])
+    {
+        if(abits!=null && bbits!=null) return intersectionSize(abits,bbits);
+        if(ParallelPairKernels.shouldSplit(a, b)) return ParallelPairKernels.intersectionSize(a, b);
+
+        return intersectionSize(a,b);
+    }
+
+    /**
+     * It computes the number of IDs in the union using the bitsets when both are available, or the
+     * cardinalities otherwise
+     */
+    private static int union(int a[],long abits[],int b[],long bbits[],int common)
+    {
+        if(abits!=null && bbits!=null) return unionSize(abits,bbits);
+
+        return a.length+b.length-common;
+    }
+
+    /**
+     * It computes the size of the intersection between two sorted and distinct arrays through a linear merge
+     * @param a The first array
+     * @param b The second array
+     * @return The number of common IDs
+     */
+    public static int intersectionSize(int a[],int b[])
+    {
+        int i=0,j=0,common=0;
+        while(i<a.length && j<b.length)
+        {
+            if(a[i]<b[j]) i++;
+            else if(a[i]>b[j]) j++;
+            else
+            {
+                common++;
+                i++;
+                j++;
+            }
+        }
+
+        return common;
+    }
+
+    /**
+     * It computes the behavioral distance (See equations 10 and 13) over the common items. The common items are
+     * gathered through a linear merge, and then the Z-test interpretations are computed as a batch (See SimilarityKernels).
+     * @param ids1 The sorted IDs of the first project
+     * @param slots1 The position of each item of the first project into its packed statistics
+     * @param stats1 The packed statistics of the first project
+     * @param ids2 The sorted IDs of the second project
+     * @param slots2 The position of each item of the second project into its packed statistics
+     * @param stats2 The packed statistics of the second project
+     * @param scratch The reusable state of the worker
+     * @return A distance between 0 (too close) and 1 (too far), 1 when there are no common items with values
+     */
+    private static double behavioralDistance(int ids1[],int slots1[],BehavioralStatsStore stats1,
+            int ids2[],int slots2[],BehavioralStatsStore stats2,PairScratch scratch)
+    {
+        //The very large definitions are split into fork-join subtasks
+        if(ParallelPairKernels.shouldSplit(ids1, ids2)) return ParallelPairKernels.behavioralDistance(ids1, slots1, stats1, ids2, slots2, stats2);
+        
+        scratch.ensureCapacity(Math.min(ids1.length, ids2.length));
+        double mean1[]=scratch.getMean1();
+        double spread1[]=scratch.getSpread1();
+        double mean2[]=scratch.getMean2();
+        double spread2[]=scratch.getSpread2();
+        
+        int i=0,j=0,common=0;
+        while(i<ids1.length && j<ids2.length)
+        {
+            if(ids1[i]<ids2[j]) i++;
+            else if(ids1[i]>ids2[j]) j++;
+            else
+            {
+                stats1.copyTo(slots1[i], mean1, spread1, common);
+                stats2.copyTo(slots2[j], mean2, spread2, common);
+                common++;
+                i++;
+                j++;
+            }
+        }
+        if(common==0) return 1.0;
+
+        double result[]=scratch.getBatch();
+        SimilarityKernels.izpiSum(mean1, spread1, mean2, spread2, common, result);
+        double acu=result[0];
+        if(result[1]==0) return 1.0;
+
+        return 1-(acu/((double)common));
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @return the number of common attributes (intersection)
+     */
+    public int attributesInCommon(NodeSignature other)
+    {
+        return common(attributes,attributeBits,other.attributes,other.attributeBits);
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @param common The number of common attributes
+     * @return the number of attributes in the union
+     */
+    public int attributesInUnion(NodeSignature other,int common)
+    {
+        return union(attributes,attributeBits,other.attributes,other.attributeBits,common);
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @return the number of common context properties (intersection)
+     */
+    public int contextPropertiesInCommon(NodeSignature other)
+    {
+        return common(contextProperties,contextPropertyBits,other.contextProperties,other.contextPropertyBits);
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @param common The number of common context properties
+     * @return the number of context properties in the union
+     */
+    public int contextPropertiesInUnion(NodeSignature other,int common)
+    {
+        return union(contextProperties,contextPropertyBits,other.contextProperties,other.contextPropertyBits,common);
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @return the number of common states (intersection)
+     */
+    public int statesInCommon(NodeSignature other)
+    {
+        return common(stateProbes,stateProbeBits,other.stateKeys,other.stateKeyBits);
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @param common The number of common states
+     * @return the number of states in the union
+     */
+    public int statesInUnion(NodeSignature other,int common)
+    {
+        return stateKeys.length+other.stateKeys.length-common;
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @return the number of common state transitions (intersection)
+     */
+    public int stateTransitionsInCommon(NodeSignature other)
+    {
+        return common(stateTransitions,stateTransitionBits,other.stateTransitions,other.stateTransitionBits);
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @param common The number of common state transitions
+     * @return the number of state transitions in the union
+     */
+    public int stateTransitionsInUnion(NodeSignature other,int common)
+    {
+        return union(stateTransitions,stateTransitionBits,other.stateTransitions,other.stateTransitionBits,common);
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @return the number of common scenarios (intersection)
+     */
+    public int scenariosInCommon(NodeSignature other)
+    {
+        return common(scenarioProbes,scenarioProbeBits,other.scenarioKeys,other.scenarioKeyBits);
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @param common The number of common scenarios
+     * @return the number of scenarios in the union
+     */
+    public int scenariosInUnion(NodeSignature other,int common)
+    {
+        return scenarioKeys.length+other.scenarioKeys.length-common;
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @return the number of common scenario transitions (intersection)
+     */
+    public int scenarioTransitionsInCommon(NodeSignature other)
+    {
+        return common(scenarioTransitions,scenarioTransitionBits,other.scenarioTransitions,other.scenarioTransitionBits);
+    }
+
+    /**
+     * @param other The signature of the other node
+     * @param common The number of common scenario transitions
+     * @return the number of scenario transitions in the union
+     */
+    public int scenarioTransitionsInUnion(NodeSignature other,int common)
+    {
+        return union(scenarioTransitions,scenarioTransitionBits,other.scenarioTransitions,other.scenarioTransitionBits,common);
+    }
+
+    /**
+     * It computes the internal behavioral distance against other node (See equation 10)
+     * @param other The signature of the other node
+     * @return A distance between 0 (too close) and 1 (too far)
+     */
+    public double idistBeh(NodeSignature other)
+    {
+        return idistBeh(other,PairScratch.create());
+    }
+
+    /**
+     * It computes the internal behavioral distance against other node (See equation 10) without allocations
+     * @param other The signature of the other node
+     * @param scratch The reusable state of the worker
+     * @return A distance between 0 (too close) and 1 (too far)
+     */
+    public double idistBeh(NodeSignature other,PairScratch scratch)
+    {
+        return behavioralDistance(attributes,attributeSlots,attributeStats,other.attributes,other.attributeSlots,other.attributeStats,scratch);
+    }
+
+    /**
+     * It computes the external behavioral distance against other node (See equation 13)
+     * @param other The signature of the other node
+     * @return A distance between 0 (too close) and 1 (too far)
+     */
+    public double edistBeh(NodeSignature other)
+    {
+        return edistBeh(other,PairScratch.create());
+    }
+
+    /**
+     * It computes the external behavioral distance against other node (See equation 13) without allocations
+     * @param other The signature of the other node
+     * @param scratch The reusable state of the worker
+     * @return A distance between 0 (too close) and 1 (too far)
+     */
+    public double edistBeh(NodeSignature other,PairScratch scratch)
+    {
+        return behavioralDistance(contextProperties,contextPropertySlots,contextPropertyStats,other.contextProperties,other.contextPropertySlots,other.contextPropertyStats,scratch);
+    }
+
+    /**
+     * It computes a hash code based on the structural IDs (i.e., the behavioral statistics are not considered)
+     * @return The structural hash code
+     */
+    public int structuralHashCode()
+    {
+        int h=Arrays.hashCode(attributes);
+        h=31*h+Arrays.hashCode(contextProperties);
+        h=31*h+Arrays.hashCode(stateKeys);
+        h=31*h+Arrays.hashCode(stateProbes);
+        h=31*h+Arrays.hashCode(stateTransitions);
+        h=31*h+Arrays.hashCode(scenarioKeys);
+        h=31*h+Arrays.hashCode(scenarioProbes);
+        h=31*h+Arrays.hashCode(scenarioTransitions);
+
+        return h;
+    }
+
+    /**
+     * It indicates whether two signatures have the same IDs in every category, so the structural similarities
+     * against any other signature are the same (See equations 1 to 6)
+     * @param other The signature of the other node
+     * @return TRUE when both signatures are structurally equivalent, FALSE otherwise
+     */
+    public boolean structurallyEquals(NodeSignature other)
+    {
+        if(other==null) return false;
+        if(other==this) return true;
+
+        return Arrays.equals(attributes, other.attributes) && Arrays.equals(contextProperties, other.contextProperties) &&
+                Arrays.equals(stateKeys, other.stateKeys) && Arrays.equals(stateProbes, other.stateProbes) &&
+                Arrays.equals(stateTransitions, other.stateTransitions) && Arrays.equals(scenarioKeys, other.scenarioKeys) &&
+                Arrays.equals(scenarioProbes, other.scenarioProbes) && Arrays.equals(scenarioTransitions, other.scenarioTransitions);
+    }
+
+    /**
+     * @return the structural classes to which the signature belongs, null when it was not classified
+     */
+    public StructuralClasses getStructuralClasses() {
+        return structuralClasses;
+    }
+
+    /**
+     * @return the version of the packed statistics of the node when the signature was compiled
+     */
+    public int getStatsVersion() {
+        return statsVersion;
+    }
+
+    /**
+     * @return the structural class of the signature, -1 when it was not classified
+     */
+    public int getStructuralClass() {
+        return structuralClass;
+    }
+
+    /**
+     * It establishes the structural class of the signature
+     * @param pclasses The structural classes
+     * @param pclass The structural class
+     */
+    protected void setStructuralClass(StructuralClasses pclasses,int pclass)
+    {
+        structuralClasses=pclasses;
+        structuralClass=pclass;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * It implements a composed similarity triangular matrix stored outside the Java heap.
+ * The cells are kept in direct buffers (ByteBuffer.allocateDirect) or in buffers mapped
+ * over a local file (MappedByteBuffer). In this last case, the page cache holds the matrix.
+ * Each cell keeps its FIELDS doubles contiguously, and the cells are located using the
+ * same unidimensional position as the other storages. The matrix is split into segments
+ * because a single buffer can not address more than Integer.MAX_VALUE bytes.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class OffHeapSimilarityTriangularMatrix extends PrimitiveSimilarityTriangularMatrix{
+    /**
+     * The number of bytes required by each cell
+     */
+    public static final int CELL_BYTES=FIELDS*Double.BYTES;
+    /**
+     * The number of bits used for addressing a cell into a segment
+     */
+    private static final int SEGMENT_BITS=24;
+    /**
+     * The maximum number of cells per segment
+     */
+    private static final int SEGMENT_CELLS=1<<SEGMENT_BITS;
+    /**
+     * The mask used for obtaining the cell into a segment
+     */
+    private static final int SEGMENT_MASK=SEGMENT_CELLS-1;
+    /**
+     * The logger used for reporting the failures while the resources are released
+     */
+    private static final Logger LOGGER=Logger.getLogger(OffHeapSimilarityTriangularMatrix.class.getName());
+    /**
+     * The buffers containing the cells
+     */
+    private ByteBuffer segments[];
+    /**
+     * The file channel when the matrix is mapped over a file, null otherwise
+     */
+    private FileChannel channel;
+    /**
+     * The file used for mapping the matrix, null when it is allocated through direct buffers
+     */
+    private Path file;
+    /**
+     * It indicates whether the file must be deleted when the resources are released
+     */
+    private boolean temporaryFile;
+
+    /**
+     * Constructor where the dimension is established for the triangular matrix.
+     * @param thedim The dimension will produce a dimxdim triangular matrix
+     * @param pfile The file to be mapped. When it is null, the matrix is allocated using direct buffers.
+     * @param isTemporary TRUE indicates that the file will be deleted when the resources are released
+     * @throws Exception An exception could happen when the dimension is null or lesser than 1, or even
+     * when the required space for the matrix is not available (or the file could not be mapped).
+     */
+    protected OffHeapSimilarityTriangularMatrix(Integer thedim,Path pfile,boolean isTemporary) throws Exception
+    {
+        super(thedim);
+        long requiredSpace=unidimensionalLongLength();
+        int nsegments=(int)((requiredSpace-1)>>>SEGMENT_BITS)+1;
+        segments=new ByteBuffer[nsegments];
+        this.file=pfile;
+        this.temporaryFile=isTemporary;
+
+        if(pfile==null)
+        {
+            for(int i=0;i<nsegments;i++)
+            {
+                segments[i]=ByteBuffer.allocateDirect(segmentCells(i,requiredSpace)*CELL_BYTES).order(ByteOrder.nativeOrder());
+            }
+        }
+        else
+        {
+            channel=FileChannel.open(pfile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try{
+                for(int i=0;i<nsegments;i++)
+                {
+                    long offset=((long)i)*SEGMENT_CELLS*CELL_BYTES;
+                    MappedByteBuffer mbb=channel.map(FileChannel.MapMode.READ_WRITE, offset, ((long)segmentCells(i,requiredSpace))*CELL_BYTES);
+                    segments[i]=mbb.order(ByteOrder.nativeOrder());
+                }
+            }catch(IOException e)
+            {
+                releaseResources();
+                throw new Exception("The file could not be mapped. Message: "+e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * It computes the number of cells contained in a given segment
+     * @param segment The segment number
+     * @param requiredSpace The total number of cells
+     * @return The number of cells into the segment
+     */
+    private static int segmentCells(int segment,long requiredSpace)
+    {
+        long remaining=requiredSpace-(((long)segment)<<SEGMENT_BITS);
+
+        return (int)Math.min(remaining, SEGMENT_CELLS);
+    }
+
+    /**
+     * Factory method allocating the matrix through direct buffers (outside the Java heap)
+     * @param thedim The dimension related to the triangular matrix
+     * @return A new instance of the matrix
+     * @throws Exception it happens when the dimension is invalid or there is not the enough memory space.
+     */
+    public synchronized static OffHeapSimilarityTriangularMatrix createDirect(int thedim) throws Exception
+    {
+        return new OffHeapSimilarityTriangularMatrix(thedim,null,false);
+    }
+
+    /**
+     * Factory method mapping the matrix over a given file. The file is created when it does not exist,
+     * and it is kept when the resources are released.
+     * @param thedim The dimension related to the triangular matrix
+     * @param pfile The file to be mapped. When it is null, a temporary file is used.
+     * @return A new instance of the matrix
+     * @throws Exception it happens when the dimension is invalid or the file could not be mapped.
+     */
+    public synchronized static OffHeapSimilarityTriangularMatrix createMapped(int thedim,Path pfile) throws Exception
+    {
+        if(pfile==null)
+        {
+            Path tmp=Files.createTempFile("composedIndex", ".matrix");
+            tmp.toFile().deleteOnExit();
+            return new OffHeapSimilarityTriangularMatrix(thedim,tmp,true);
+        }
+
+        return new OffHeapSimilarityTriangularMatrix(thedim,pfile,false);
+    }
+
+    @Override
+    public MatrixStorageMode getStorageMode()
+    {
+        return (file==null)?MatrixStorageMode.OFF_HEAP:MatrixStorageMode.MEMORY_MAPPED;
+    }
+
+    @Override
+    protected double read(long position,int field)
+    {
+        return segments[(int)(position>>>SEGMENT_BITS)].getDouble((((int)position&SEGMENT_MASK)*CELL_BYTES)+(field*Double.BYTES));
+    }
+
+    @Override
+    protected void write(long position,int field,double value)
+    {
+        segments[(int)(position>>>SEGMENT_BITS)].putDouble((((int)position&SEGMENT_MASK)*CELL_BYTES)+(field*Double.BYTES), value);
+    }
+
+    @Override
+    protected boolean isAllocated()
+    {
+        return segments!=null;
+    }
+
+    /**
+     * @return the file used for mapping the matrix, null when it is allocated through direct buffers
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * It forces the changes on the mapped buffers to be written on the file.
+     * It has no effect when the matrix is allocated through direct buffers.
+     */
+    public synchronized void force()
+    {
+        if(segments==null || file==null) return;
+
+        for(ByteBuffer bb:segments)
+        {
+            if(bb instanceof MappedByteBuffer) ((MappedByteBuffer)bb).force();
+        }
+    }
+
+    /**
+     * It generates a hard copy from the original matrix using direct buffers
+     * @return a new instance without any dependence on the original instance
+     * @throws Exception It is raised when some abnormality is detected in the constructor
+     */
+    @Override
+    public synchronized ComposedSimilarityTriangularMatrix duplicate() throws Exception
+    {
+        if(segments==null) return null;
+
+        OffHeapSimilarityTriangularMatrix copy=new OffHeapSimilarityTriangularMatrix(getDim(),null,false);
+        for(int i=0;i<segments.length;i++)
+        {
+            ByteBuffer src=segments[i].duplicate();
+            src.clear();
+            copy.segments[i].put(src);
+            copy.segments[i].clear();
+        }
+        if(getProjectIDs()!=null) copy.initializeCells(getProjectIDs());
+
+        return copy;
+    }
+
+    /**
+     * It releases the buffers. When the matrix is mapped, the changes are forced to the file
+     * and the channel is closed. The temporary files are deleted. The failures are logged without
+     * interrupting the release, so the remaining resources are always released.
+     */
+    @Override
+    public synchronized void releaseResources()
+    {
+        super.releaseResources();
+        force();
+        segments=null;
+
+        if(channel!=null)
+        {
+            try{
+                channel.close();
+            }catch(IOException e)
+            {
+                LOGGER.log(Level.WARNING, "The channel of the matrix could not be closed", e);
+            }
+            channel=null;
+        }
+
+        if(temporaryFile && file!=null)
+        {
+            try{
+                Files.deleteIfExists(file);
+            }catch(IOException e)
+            {
+                LOGGER.log(Level.WARNING, "The temporary file "+file+" could not be deleted", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It keeps the reusable state used by a worker for comparing pairs of projects without allocations: the
+ * resulting fields (ordered as in PrimitiveSimilarityTriangularMatrix), and the batches used for the Z-test 
+ * interpretations. An instance must not be shared among threads.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class PairScratch {
+    /**
+     * The fields computed for the last pair (See PrimitiveSimilarityTriangularMatrix.FIELD_*)
+     */
+    private final double fields[];
+    /**
+     * The raw values computed for the last pair (See RawRatioMatrix.RAW_*)
+     */
+    private final double raw[];
+    /**
+     * The means of the common items in the project 1
+     */
+    private double mean1[];
+    /**
+     * The variances divided by n of the common items in the project 1
+     */
+    private double spread1[];
+    /**
+     * The means of the common items in the project 2
+     */
+    private double mean2[];
+    /**
+     * The variances divided by n of the common items in the project 2
+     */
+    private double spread2[];
+    /**
+     * The sum of the interpretations and the number of items with values of the last batch
+     */
+    private final double batch[];
+
+    /**
+     * It creates a new scratch state
+     * @param capacity The expected number of common items per pair
+     */
+    public PairScratch(int capacity)
+    {
+        fields=new double[PrimitiveSimilarityTriangularMatrix.FIELDS];
+        raw=new double[RawRatioMatrix.RAW_FIELDS];
+        batch=new double[2];
+        allocate(Math.max(capacity, 16));
+    }
+
+    /**
+     * Factory method
+     * @return A new scratch state
+     */
+    public synchronized static PairScratch create()
+    {
+        return new PairScratch(64);
+    }
+
+    /**
+     * It allocates the batches
+     * @param capacity The number of items
+     */
+    private void allocate(int capacity)
+    {
+        mean1=new double[capacity];
+        spread1=new double[capacity];
+        mean2=new double[capacity];
+        spread2=new double[capacity];
+    }
+
+    /**
+     * It guarantees the capacity of the batches. It only allocates when a pair has more common items than any
+     * previous one.
+     * @param capacity The required number of items
+     */
+    protected void ensureCapacity(int capacity)
+    {
+        if(capacity>mean1.length) allocate(Math.max(capacity, mean1.length*2));
+    }
+
+    /**
+     * @return the fields computed for the last pair (See PrimitiveSimilarityTriangularMatrix.FIELD_*)
+     */
+    public double[] getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the raw values computed for the last pair (See RawRatioMatrix.RAW_*)
+     */
+    public double[] getRaw() {
+        return raw;
+    }
+
+    /**
+     * @param field The field (See PrimitiveSimilarityTriangularMatrix.FIELD_*)
+     * @return the value of the field computed for the last pair
+     */
+    public double get(int field) {
+        return fields[field];
+    }
+
+    /**
+     * @return the composed distance computed for the last pair
+     */
+    public double getCdist() {
+        return fields[PrimitiveSimilarityTriangularMatrix.FIELD_CDIST];
+    }
+
+    protected double[] getMean1() {
+        return mean1;
+    }
+
+    protected double[] getSpread1() {
+        return spread1;
+    }
+
+    protected double[] getMean2() {
+        return mean2;
+    }
+
+    protected double[] getSpread2() {
+        return spread2;
+    }
+
+    protected double[] getBatch() {
+        return batch;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * It implements the fork-join version of the merge-based loops used for comparing two nodes with very large
+ * definitions: the intersection of sorted IDs, and the behavioral distance (See equations 10 and 13). The first 
+ * array is split into ranges, each one merged against the matching part of the second array (located through a 
+ * binary search), and the partial results are added. So, a single huge pair is no longer the straggler holding up
+ * the whole estimation.
+ * <p>The subtasks are forked into the pool of the current worker (e.g., ForkJoinIndexEstimator) or a given pool, so 
+ * they never spill over the common pool. The common items are gathered in batches into the reusable state of the 
+ * thread, so the leaves do not allocate arrays.</p>
+ * <p>The small pairs keep the sequential path (See NodeSignature). The threshold is the minimum number of items of 
+ * the smaller array, and it can be changed through the composedIndex.parallelPairThreshold system property.</p>
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class ParallelPairKernels {
+    /**
+     * The default minimum number of items of the smaller array for splitting the loops
+     */
+    public static final int DEFAULT_THRESHOLD=4096;
+    /**
+     * The minimum number of items of the first array processed by a subtask
+     */
+    public static final int MIN_SPLIT=1024;
+    /**
+     * The minimum number of items of the smaller array for splitting the loops
+     */
+    private static final int THRESHOLD=Math.max(MIN_SPLIT, Integer.getInteger("composedIndex.parallelPairThreshold", DEFAULT_THRESHOLD));
+
+    /**
+     * @return the minimum number of items of the smaller array for splitting the loops
+     */
+    public static int getThreshold() {
+        return THRESHOLD;
+    }
+
+    /**
+     * It indicates whether the loops between two arrays should be split into subtasks
+     * @param a The first array
+     * @param b The second array
+     * @return TRUE when both arrays exceed the threshold, FALSE otherwise
+     */
+    public static boolean isLarge(int a[],int b[])
+    {
+        return Math.min(a.length, b.length)>=THRESHOLD;
+    }
+
+    /**
+     * It indicates whether the loops between two arrays should be split into subtasks of the current pool.
+     * The subtasks are only forked from the workers of a fork-join pool (e.g., ForkJoinIndexEstimator), so the
+     * workers whose concurrency is limited elsewhere (e.g., ComputeScheduler) never spill over the common pool.
+     * @param a The first array
+     * @param b The second array
+     * @return TRUE when both arrays exceed the threshold and the current thread is a worker of a fork-join pool, FALSE otherwise
+     */
+    public static boolean shouldSplit(int a[],int b[])
+    {
+        return isLarge(a, b) && ForkJoinTask.inForkJoinPool();
+    }
+
+    /**
+     * It computes the size of the intersection between two sorted and distinct arrays. The subtasks are forked into
+     * the pool of the current thread, and the loop is sequential when the current thread is not a fork-join worker.
+     * @param a The first array
+     * @param b The second array
+     * @return The number of common IDs
+     */
+    public static int intersectionSize(int a[],int b[])
+    {
+        return intersectionSize(a, b, null);
+    }
+
+    /**
+     * It computes the size of the intersection between two sorted and distinct arrays through fork-join subtasks
+     * @param a The first array
+     * @param b The second array
+     * @param pool The pool where the subtasks are executed. When it is null, the pool of the current thread is used, 
+     * and the loop is sequential when the current thread is not a fork-join worker.
+     * @return The number of common IDs
+     */
+    public static int intersectionSize(int a[],int b[],ForkJoinPool pool)
+    {
+        IntersectionTask task=new IntersectionTask(a,b,0,a.length);
+        if(pool!=null) pool.invoke(task);
+        else if(ForkJoinTask.inForkJoinPool()) task.invoke();
+        else task.merge();
+
+        return task.common;
+    }
+
+    /**
+     * It computes the behavioral distance (See equations 10 and 13) over the common items. The subtasks are forked into
+     * the pool of the current thread, and the loop is sequential when the current thread is not a fork-join worker.
+     * The sum of the interpretations could differ from the sequential version in the last bits due to the order of the additions.
+     * @param ids1 The sorted IDs of the first project
+     * @param slots1 The position of each item of the first project into its packed statistics
+     * @param stats1 The packed statistics of the first project
+     * @param ids2 The sorted IDs of the second project
+     * @param slots2 The position of each item of the second project into its packed statistics
+     * @param stats2 The packed statistics of the second project
+     * @return A distance between 0 (too close) and 1 (too far), 1 when there are no common items with values
+     */
+    public static double behavioralDistance(int ids1[],int slots1[],BehavioralStatsStore stats1,
+            int ids2[],int slots2[],BehavioralStatsStore stats2)
+    {
+        return behavioralDistance(ids1, slots1, stats1, ids2, slots2, stats2, null);
+    }
+
+    /**
+     * It computes the behavioral distance (See equations 10 and 13) over the common items through fork-join subtasks.
+     * The sum of the interpretations could differ from the sequential version in the last bits due to the order of the additions.
+     * @param ids1 The sorted IDs of the first project
+     * @param slots1 The position of each item of the first project into its packed statistics
+     * @param stats1 The packed statistics of the first project
+     * @param ids2 The sorted IDs of the second project
+     * @param slots2 The position of each item of the second project into its packed statistics
+     * @param stats2 The packed statistics of the second project
+     * @param pool The pool where the subtasks are executed. When it is null, the pool of the current thread is used, 
+     * and the loop is sequential when the current thread is not a fork-join worker.
+     * @return A distance between 0 (too close) and 1 (too far), 1 when there are no common items with values
+     */
+    public static double behavioralDistance(int ids1[],int slots1[],BehavioralStatsStore stats1,
+            int ids2[],int slots2[],BehavioralStatsStore stats2,ForkJoinPool pool)
+    {
+        BehavioralTask task=new BehavioralTask(ids1,slots1,stats1,ids2,slots2,stats2,0,ids1.length);
+        if(pool!=null) pool.invoke(task);
+        else if(ForkJoinTask.inForkJoinPool()) task.invoke();
+        else task.merge();
+        if(task.common==0 || task.valued==0) return 1.0;
+
+        return 1-(task.sum/task.common);
+    }
+
+    /**
+     * It returns the first position of the array whose value is greater or equal than the key
+     * @param b The sorted array
+     * @param key The key
+     * @return The first position whose value is greater or equal than the key, b.length when there is no such position
+     */
+    private static int lowerBound(int b[],int key)
+    {
+        int pos=Arrays.binarySearch(b, key);
+
+        return (pos>=0)?pos:-(pos+1);
+    }
+
+    /**
+     * It computes the intersection size of a range of the first array against the second array.
+     * The result is kept in the task, so no boxed value is allocated.
+     */
+    private static class IntersectionTask extends RecursiveAction{
+        private static final long serialVersionUID=1L;
+        private final int a[];
+        private final int b[];
+        private final int from;
+        private final int to;
+        /**
+         * The number of common IDs in the range
+         */
+        private int common;
+
+        IntersectionTask(int pa[],int pb[],int pfrom,int pto)
+        {
+            a=pa;
+            b=pb;
+            from=pfrom;
+            to=pto;
+        }
+
+        @Override
+        protected void compute() {
+            if(to-from>2*MIN_SPLIT)
+            {
+                int mid=(from+to)>>>1;
+                IntersectionTask left=new IntersectionTask(a,b,from,mid);
+                IntersectionTask right=new IntersectionTask(a,b,mid,to);
+                left.fork();
+                right.compute();
+                left.join();
+                common=left.common+right.common;
+
+                return;
+            }
+
+            merge();
+        }
+
+        /**
+         * It merges the whole range sequentially
+         */
+        void merge()
+        {
+            if(from>=to) return;
+            
+            int i=from,j=lowerBound(b,a[from]),n=0;
+            while(i<to && j<b.length)
+            {
+                if(a[i]<b[j]) i++;
+                else if(a[i]>b[j]) j++;
+                else
+                {
+                    n++;
+                    i++;
+                    j++;
+                }
+            }
+            common=n;
+        }
+    }
+
+    /**
+     * It computes the sum of the interpretations, the number of items with values, and the number of common
+     * items of a range of the first project against the second project. The common items are gathered in batches
+     * of BATCH items into the reusable state of the thread, and the results are kept in the task.
+     */
+    private static class BehavioralTask extends RecursiveAction{
+        private static final long serialVersionUID=1L;
+        /**
+         * The number of common items gathered before computing their interpretations
+         */
+        private static final int BATCH=256;
+        /**
+         * The reusable state of each thread
+         */
+        private static final ThreadLocal<PairScratch> SCRATCH=new ThreadLocal<PairScratch>(){
+            @Override
+            protected PairScratch initialValue() {
+                PairScratch scratch=PairScratch.create();
+                scratch.ensureCapacity(BATCH);
+                
+                return scratch;
+            }
+        };
+        
+        private final int ids1[];
+        private final int slots1[];
+        private final BehavioralStatsStore stats1;
+        private final int ids2[];
+        private final int slots2[];
+        private final BehavioralStatsStore stats2;
+        private final int from;
+        private final int to;
+        /**
+         * The sum of the interpretations in the range
+         */
+        private double sum;
+        /**
+         * The number of common items with values in the range
+         */
+        private double valued;
+        /**
+         * The number of common items in the range
+         */
+        private int common;
+
+        BehavioralTask(int pids1[],int pslots1[],BehavioralStatsStore pstats1,int pids2[],int pslots2[],BehavioralStatsStore pstats2,int pfrom,int pto)
+        {
+            ids1=pids1;
+            slots1=pslots1;
+            stats1=pstats1;
+            ids2=pids2;
+            slots2=pslots2;
+            stats2=pstats2;
+            from=pfrom;
+            to=pto;
+        }
+
+        @Override
+        protected void compute() {
+            if(to-from>2*MIN_SPLIT)
+            {
+                int mid=(from+to)>>>1;
+                BehavioralTask left=new BehavioralTask(ids1,slots1,stats1,ids2,slots2,stats2,from,mid);
+                BehavioralTask right=new BehavioralTask(ids1,slots1,stats1,ids2,slots2,stats2,mid,to);
+                left.fork();
+                right.compute();
+                left.join();
+                sum=left.sum+right.sum;
+                valued=left.valued+right.valued;
+                common=left.common+right.common;
+
+                return;
+            }
+
+            merge();
+        }
+
+        /**
+         * It merges the whole range sequentially
+         */
+        void merge()
+        {
+            if(from>=to) return;
+            
+            PairScratch scratch=SCRATCH.get();
+            double mean1[]=scratch.getMean1();
+            double spread1[]=scratch.getSpread1();
+            double mean2[]=scratch.getMean2();
+            double spread2[]=scratch.getSpread2();
+            int i=from,j=lowerBound(ids2,ids1[from]),batch=0;
+            while(i<to && j<ids2.length)
+            {
+                if(ids1[i]<ids2[j]) i++;
+                else if(ids1[i]>ids2[j]) j++;
+                else
+                {
+                    stats1.copyTo(slots1[i], mean1, spread1, batch);
+                    stats2.copyTo(slots2[j], mean2, spread2, batch);
+                    batch++;
+                    i++;
+                    j++;
+                    if(batch==BATCH)
+                    {
+                        flush(scratch,batch);
+                        batch=0;
+                    }
+                }
+            }
+            if(batch>0) flush(scratch,batch);
+        }
+        
+        /**
+         * It computes the interpretations of the gathered items, adding them to the results of the task
+         * @param scratch The reusable state of the thread
+         * @param n The number of gathered items
+         */
+        private void flush(PairScratch scratch,int n)
+        {
+            double result[]=scratch.getBatch();
+            SimilarityKernels.izpiSum(scratch.getMean1(), scratch.getSpread1(), scratch.getMean2(), scratch.getSpread2(), n, result);
+            sum+=result[0];
+            valued+=result[1];
+            common+=n;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import org.ciedayap.ipd.exception.ProcessingException;
+
+/**
+ * It implements a composed similarity triangular matrix where each equation field is
+ * stored as a primitive value indexed by the unidimensional position. The project IDs
+ * related to a cell are implied by its position, and the ComposedSimilarityNode instances
+ * are lightweight views on the stored values.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public abstract class PrimitiveSimilarityTriangularMatrix extends ComposedSimilarityTriangularMatrix{
+    /**
+     * The structural similarity between a pair of entities (Equation 1)
+     */
+    public static final int FIELD_EQ01_SIM_STR_ENT=0;
+    /**
+     * The structural similarity between entity states (Equation 2)
+     */
+    public static final int FIELD_EQ02_SIM_SC_ST=1;
+    /**
+     * Internal structural distance (See equation 3)
+     */
+    public static final int FIELD_EQ03_IDIST_STR=2;
+    /**
+     * The structural similarity between a pair of contexts (See equation 4)
+     */
+    public static final int FIELD_EQ04_SIM_CTX=3;
+    /**
+     * The structural similarity between scenarios (See equation 5)
+     */
+    public static final int FIELD_EQ05_SIM_STR_SC=4;
+    /**
+     * External structural distance (See equation 6)
+     */
+    public static final int FIELD_EQ06_EDIST_STR=5;
+    /**
+     * The internal behavioral distance (See equation 10)
+     */
+    public static final int FIELD_IDIST_BEH=6;
+    /**
+     * The external behavioral distance (See equation 13)
+     */
+    public static final int FIELD_EDIST_BEH=7;
+    /**
+     * The internal distance (See equation 14)
+     */
+    public static final int FIELD_IDIST=8;
+    /**
+     * The external distance (See equation 15)
+     */
+    public static final int FIELD_EDIST=9;
+    /**
+     * The composed distance (See equation 16)
+     */
+    public static final int FIELD_CDIST=10;
+    /**
+     * The number of fields stored per cell
+     */
+    public static final int FIELDS=11;
+
+    /**
+     * The project IDs ordered by row (or column)
+     */
+    private String[] projectIDs;
+
+    /**
+     * Constructor where the dimension is established for the triangular matrix.
+     * @param thedim The dimension will produce a dimxdim triangular matrix
+     * @throws Exception An exception could happen when the dimension is null or lesser than 1, or even
+     * when the required space for the matrix is not available.
+     */
+    protected PrimitiveSimilarityTriangularMatrix(Integer thedim) throws Exception
+    {
+        super(thedim,false);
+    }
+
+    /**
+     * It reads a field of the cell located at the given position
+     * @param position The unidimensional position between 0 and (unidimensionalLongLength()-1)
+     * @param field The field to be read (See the FIELD constants)
+     * @return The stored value
+     */
+    protected abstract double read(long position,int field);
+
+    /**
+     * It writes a field of the cell located at the given position
+     * @param position The unidimensional position between 0 and (unidimensionalLongLength()-1)
+     * @param field The field to be written (See the FIELD constants)
+     * @param value The value to be stored
+     */
+    protected abstract void write(long position,int field,double value);
+
+    /**
+     * It indicates whether the primitive storage is allocated or not
+     * @return TRUE when the storage is available, FALSE otherwise
+     */
+    protected abstract boolean isAllocated();
+
+    /**
+     * It computes the position where a cell is stored. By default, it is the unidimensional position.
+     * Mandatory: row must be lesser or equal than col
+     * @param row the number of row between 0 and (dim-1)
+     * @param col the number of column between 0 and (dim-1)
+     * @return The position where the cell is stored
+     */
+    protected long cellPosition(int row,int col)
+    {
+        return computingUnidimensionalLongPosition(row,col);
+    }
+
+    /**
+     * It returns the row related to the position where a cell is stored
+     * @param position The position between 0 and (unidimensionalLongLength()-1)
+     * @return The row related to the position
+     */
+    protected int rowOfPosition(long position)
+    {
+        return computingRowFromPosition(position);
+    }
+
+    /**
+     * It returns the column related to the position where a cell is stored
+     * @param position The position between 0 and (unidimensionalLongLength()-1)
+     * @return The column related to the position
+     */
+    protected int colOfPosition(long position)
+    {
+        return computingColFromPosition(position);
+    }
+
+    @Override
+    public boolean isCreated()
+    {
+        if(getDim()==null || getDim()<1) return false;
+
+        return isAllocated();
+    }
+
+    /**
+     * It returns the project ID related to a given row (or column)
+     * @param index The row (or column) between 0 and (dim-1)
+     * @return The project ID when it is available, null otherwise
+     */
+    public String getProjectID(int index)
+    {
+        if(projectIDs==null || index<0 || index>=projectIDs.length) return null;
+
+        return projectIDs[index];
+    }
+
+    /**
+     * It returns the project IDs ordered by row (or column)
+     * @return The project IDs
+     */
+    protected String[] getProjectIDs()
+    {
+        return projectIDs;
+    }
+
+    @Override
+    public synchronized boolean initializeCells(String[] pIDs) throws ProcessingException
+    {
+        if(pIDs==null || pIDs.length!=getDim()) return false;
+        for(String id:pIDs)
+        {
+            if(id==null || id.trim().isEmpty()) throw new ProcessingException("Row or Col ProjectID is null or empty");
+        }
+
+        this.projectIDs=pIDs.clone();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean reinitialize(ComposedSimilarityNode value)
+    {
+        if(value==null || !isAllocated()) return false;
+
+        long length=unidimensionalLongLength();
+        for(long i=0;i<length;i++)
+        {
+            copyFrom(i,value);
+        }
+
+        return true;
+    }
+
+    /**
+     * It copies the values of the node into the cell located at the given position
+     * @param position The unidimensional position
+     * @param value The node from where the values are taken
+     */
+    protected void copyFrom(long position,ComposedSimilarityNode value)
+    {
+        write(position,FIELD_EQ01_SIM_STR_ENT,value.getEq01_sim_str_ent());
+        write(position,FIELD_EQ02_SIM_SC_ST,value.getEq02_sim_sc_st());
+        write(position,FIELD_EQ03_IDIST_STR,value.getEq03_idist_str());
+        write(position,FIELD_EQ04_SIM_CTX,value.getEq04_sim_ctx());
+        write(position,FIELD_EQ05_SIM_STR_SC,value.getEq05_sim_str_sc());
+        write(position,FIELD_EQ06_EDIST_STR,value.getEq06_edist_str());
+        write(position,FIELD_IDIST_BEH,value.getIdist_beh());
+        write(position,FIELD_EDIST_BEH,value.getEdist_beh());
+        write(position,FIELD_IDIST,value.getIdist());
+        write(position,FIELD_EDIST,value.getEdist());
+        write(position,FIELD_CDIST,value.getCdist());
+    }
+
+    /**
+     * Set the value on the given row and column into the matrix. The values are copied into the
+     * primitive storage, so later changes on the node are not reflected into the matrix.
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @param value The value to be incorporated
+     * @return TRUE when the value was succesfully incorporated, FALSE otherwise.
+     */
+    @Override
+    public boolean set(int row,int col,ComposedSimilarityNode value)
+    {
+        if(value==null || !isAllocated()) return false;
+        if(row<0 || col<0 || row>=getDim() || col>=getDim()) return false;
+
+        long position=(row>col)?cellPosition(col,row):cellPosition(row,col);
+
+        return set(position,value);
+    }
+
+    /**
+     * Set the value on the given unidimensional position. The values are copied into the
+     * primitive storage, so later changes on the node are not reflected into the matrix.
+     * @param position The unidimensional position between 0 and (unidimensionalLongLength()-1)
+     * @param value The value to be incorporated
+     * @return TRUE when the value was succesfully incorporated, FALSE otherwise.
+     */
+    @Override
+    public boolean set(long position,ComposedSimilarityNode value)
+    {
+        if(value==null || !isAllocated()) return false;
+        if(position<0 || position>=unidimensionalLongLength()) return false;
+
+        copyFrom(position,value);
+        return true;
+    }
+
+    /**
+     * Set the fields on the given row and column into the matrix without allocations.
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @param fields The values of the cell ordered as indicated by the FIELD_* constants
+     * @return TRUE when the values were succesfully incorporated, FALSE otherwise.
+     */
+    public boolean set(int row,int col,double fields[])
+    {
+        if(fields==null || fields.length<FIELDS || !isAllocated()) return false;
+        if(row<0 || col<0 || row>=getDim() || col>=getDim()) return false;
+
+        long position=(row>col)?cellPosition(col,row):cellPosition(row,col);
+        for(int field=0;field<FIELDS;field++) write(position,field,fields[field]);
+
+        return true;
+    }
+
+    /**
+     * Get a view on the given row and column into the matrix.
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @return A lightweight view reading and writing on the primitive storage, null when the
+     * position is out of range.
+     */
+    @Override
+    public ComposedSimilarityNode get(int row,int col)
+    {
+        if(!isAllocated()) return null;
+        if(row<0 || col<0 || row>=getDim() || col>=getDim()) return null;
+
+        int nrow=Math.min(row, col);
+        int ncol=Math.max(row, col);
+        long position=cellPosition(nrow,ncol);
+        if(position<0 || position>=unidimensionalLongLength()) return null;
+
+        return new ComposedSimilarityNodeView(this,position,nrow,ncol);
+    }
+
+    /**
+     * Get a view on the given unidimensional position
+     * @param position The unidimensional position between 0 and (unidimensionalLongLength()-1)
+     * @return A lightweight view reading and writing on the primitive storage, null when the
+     * position is out of range.
+     */
+    @Override
+    public ComposedSimilarityNode get(long position)
+    {
+        return getByPosition(position);
+    }
+
+    @Override
+    protected ComposedSimilarityNode getByPosition(long position)
+    {
+        if(!isAllocated()) return null;
+        if(position<0 || position>=unidimensionalLongLength()) return null;
+
+        return new ComposedSimilarityNodeView(this,position,rowOfPosition(position),colOfPosition(position));
+    }
+
+    @Override
+    public double getCdist(int row,int col)
+    {
+        return getValue(row,col,FIELD_CDIST);
+    }
+
+    /**
+     * It reads a field on the given row and column without creating any object
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @param field The field to be read (See the FIELD constants)
+     * @return The stored value, NaN when the position or field is out of range
+     */
+    public double getValue(int row,int col,int field)
+    {
+        if(!isAllocated() || field<0 || field>=FIELDS) return Double.NaN;
+        if(row<0 || col<0 || row>=getDim() || col>=getDim()) return Double.NaN;
+
+        long position=(row>col)?cellPosition(col,row):cellPosition(row,col);
+
+        return read(position,field);
+    }
+
+    /**
+     * It writes a field on the given row and column without creating any object
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @param field The field to be written (See the FIELD constants)
+     * @param value The value to be stored
+     * @return TRUE when the value was stored, FALSE when the position or field is out of range
+     */
+    public boolean setValue(int row,int col,int field,double value)
+    {
+        if(!isAllocated() || field<0 || field>=FIELDS) return false;
+        if(row<0 || col<0 || row>=getDim() || col>=getDim()) return false;
+
+        long position=(row>col)?cellPosition(col,row):cellPosition(row,col);
+        write(position,field,value);
+
+        return true;
+    }
+
+    @Override
+    public void releaseResources()
+    {
+        projectIDs=null;
+    }
+}
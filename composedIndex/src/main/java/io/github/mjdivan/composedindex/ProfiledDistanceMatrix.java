@@ -0,0 +1,175 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * It keeps the composed distance of each pair of projects for several weighting profiles. Each profile has 
+ * its own array of doubles indexed by the unidimensional position (row-major order of the upper triangular
+ * matrix), so the arrays are filled in parallel while the raw terms of each pair are computed only once.
+ * A composed distance is NaN when it could not be computed.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class ProfiledDistanceMatrix {
+    /**
+     * The project IDs organized by row (or column)
+     */
+    private final String projectIDs[];
+    /**
+     * The weighting profiles
+     */
+    private final WeightingProfile profiles[];
+    /**
+     * One array of composed distances per profile, each one indexed by the unidimensional position
+     */
+    private final double cdists[][];
+
+    /**
+     * It creates a new matrix where no composed distance is available
+     * @param pprojectIDs The project IDs organized by row (or column)
+     * @param pprofiles The weighting profiles
+     * @throws Exception It is raised when there are no projects or profiles, or the required space exceeds the array capacity
+     */
+    public ProfiledDistanceMatrix(String pprojectIDs[],List<WeightingProfile> pprofiles) throws Exception
+    {
+        if(pprojectIDs==null || pprojectIDs.length<1) throw new Exception("No projects available");
+        if(pprofiles==null || pprofiles.isEmpty()) throw new Exception("No weighting profiles available");
+        for(WeightingProfile p:pprofiles)
+        {
+            if(p==null) throw new Exception("A weighting profile is null");
+        }
+        long requiredSpace=ComposedSimilarityTriangularMatrix.computingUnidimensionalMatrixLongSpace(pprojectIDs.length);
+        if(requiredSpace>Integer.MAX_VALUE) throw new Exception("The required space exceeds the array capacity");
+
+        projectIDs=pprojectIDs.clone();
+        profiles=pprofiles.toArray(new WeightingProfile[pprofiles.size()]);
+        cdists=new double[profiles.length][];
+        for(int k=0;k<profiles.length;k++)
+        {
+            cdists[k]=new double[(int)requiredSpace];
+            Arrays.fill(cdists[k], Double.NaN);
+        }
+    }
+
+    /**
+     * Factory method
+     * @param pprojectIDs The project IDs organized by row (or column)
+     * @param pprofiles The weighting profiles
+     * @return A new instance where no composed distance is available
+     * @throws Exception It is raised when there are no projects or profiles, or there is not the enough memory space
+     */
+    public synchronized static ProfiledDistanceMatrix create(String pprojectIDs[],List<WeightingProfile> pprofiles) throws Exception
+    {
+        return new ProfiledDistanceMatrix(pprojectIDs, pprofiles);
+    }
+
+    /**
+     * @return the dimension of the matrix
+     */
+    public int getDim() {
+        return projectIDs.length;
+    }
+
+    /**
+     * @param index The row (or column) between 0 and (dim-1)
+     * @return The project ID when it is available, null otherwise
+     */
+    public String getProjectID(int index)
+    {
+        if(index<0 || index>=projectIDs.length) return null;
+
+        return projectIDs[index];
+    }
+
+    /**
+     * @return the number of weighting profiles
+     */
+    public int getProfileCount() {
+        return profiles.length;
+    }
+
+    /**
+     * @param k The profile number between 0 and (getProfileCount()-1)
+     * @return The weighting profile, null when k is out of range
+     */
+    public WeightingProfile getProfile(int k)
+    {
+        if(k<0 || k>=profiles.length) return null;
+
+        return profiles[k];
+    }
+
+    /**
+     * @param name The name of the profile
+     * @return The profile number, -1 when the profile is not present
+     */
+    public int indexOfProfile(String name)
+    {
+        if(name==null) return -1;
+        for(int k=0;k<profiles.length;k++)
+        {
+            if(profiles[k].getName().equals(name)) return k;
+        }
+
+        return -1;
+    }
+
+    /**
+     * It computes the unidimensional position of a cell
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @return The unidimensional position
+     */
+    public int position(int row,int col)
+    {
+        int nrow=Math.min(row, col);
+        int ncol=Math.max(row, col);
+
+        return (int)((((long)projectIDs.length)*nrow)+ncol-((((long)nrow)*(nrow+1))/2));
+    }
+
+    /**
+     * It stores the composed distance of a pair for a given profile
+     * @param k The profile number
+     * @param position The unidimensional position
+     * @param cdist The composed distance
+     */
+    protected void set(int k,int position,double cdist)
+    {
+        cdists[k][position]=cdist;
+    }
+
+    /**
+     * It returns the composed distance of a pair for a given profile
+     * @param k The profile number between 0 and (getProfileCount()-1)
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @return The composed distance, NaN when it is not available or the arguments are out of range
+     */
+    public double getCdist(int k,int row,int col)
+    {
+        if(k<0 || k>=profiles.length) return Double.NaN;
+        if(row<0 || col<0 || row>=projectIDs.length || col>=projectIDs.length) return Double.NaN;
+
+        return cdists[k][position(row,col)];
+    }
+
+    /**
+     * It returns the array of composed distances of a given profile, indexed by the unidimensional position
+     * @param k The profile number between 0 and (getProfileCount()-1)
+     * @return A copy of the composed distances, null when k is out of range
+     */
+    public double[] getCdists(int k)
+    {
+        if(k<0 || k>=profiles.length) return null;
+
+        return cdists[k].clone();
+    }
+}
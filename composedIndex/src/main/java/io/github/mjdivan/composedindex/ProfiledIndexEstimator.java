@@ -0,0 +1,145 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.ciedayap.ipd.exception.ProcessingException;
+
+/**
+ * This class implements a Runnable interface for Multi-thread computing of the composed index under several
+ * weighting profiles. The raw structural and behavioral terms of each pair are computed once (or taken from the
+ * kept raw values when they are available), and one composed distance per profile is derived from them.
+ * Each worker claims whole rows, computing the pairs located at the right of the diagonal (diagonal included).
+ * @author mjdivan
+ * @version 1.0 
+ */
+public class ProfiledIndexEstimator implements Runnable, ComputeScheduler.Slice{
+    private Node[] projects;
+    private ProfiledDistanceMatrix result;
+    private RawRatioMatrix raw;
+    private AtomicInteger rowCursor;
+    /**
+     * The reusable state of the worker
+     */
+    private PairScratch scratch;
+    
+    /**
+     * It creates a new instance for estimating the composed index under several weighting profiles
+     * @param projs The project nodes organized by their row (or column)
+     * @param presult The matrix receiving the composed distances of each profile
+     * @param praw The raw values kept by the last estimation. It could be null.
+     * @param cursor The cursor shared among the workers for claiming the rows. It must start at 0.
+     * @throws ProcessingException It is raised when there are no projects, or the matrices do not match them
+     */
+    public ProfiledIndexEstimator(Node[] projs,ProfiledDistanceMatrix presult,RawRatioMatrix praw,AtomicInteger cursor) throws ProcessingException
+    {
+        if(projs==null) throw new ProcessingException("No projects to be processed");
+        if(presult==null || presult.getDim()!=projs.length) throw new ProcessingException("The profiled matrix does not match the projects");
+        if(praw!=null && praw.getDim()!=projs.length) throw new ProcessingException("The raw values do not match the projects");
+        if(cursor==null) throw new ProcessingException("No cursor available");
+        
+        this.projects=projs;
+        this.result=presult;
+        this.raw=praw;
+        this.rowCursor=cursor;
+    }
+
+    /**
+     * A factory method to create a new instance
+     * @param projs The project nodes organized by their row (or column)
+     * @param presult The matrix receiving the composed distances of each profile
+     * @param praw The raw values kept by the last estimation. It could be null.
+     * @param cursor The cursor shared among the workers for claiming the rows. It must start at 0.
+     * @return A new instance to estimate the index
+     * @throws ProcessingException It is raised when there are no projects, or the matrices do not match them
+     */
+    public static synchronized ProfiledIndexEstimator create(Node[] projs,ProfiledDistanceMatrix presult,RawRatioMatrix praw,AtomicInteger cursor) throws ProcessingException
+    {
+        return new ProfiledIndexEstimator(projs, presult, praw, cursor);
+    }
+    
+    @Override
+    public void run() {
+        while(!Thread.currentThread().isInterrupted() && runRow()){}
+    }
+    
+    /**
+     * It runs the next row
+     * @return TRUE when there are remaining rows, FALSE otherwise
+     */
+    @Override
+    public boolean runSlice() {
+        return runRow();
+    }
+    
+    /**
+     * It computes the cells of the next row claimed from the cursor under each profile
+     * @return TRUE when there are remaining rows, FALSE otherwise
+     */
+    private boolean runRow()
+    {
+        int row=rowCursor.getAndIncrement();
+        if(row>=projects.length) return false;
+        
+        if(scratch==null) scratch=PairScratch.create();
+        double fields[]=scratch.getFields();
+        int nprofiles=result.getProfileCount();
+        WeightingProfile first=result.getProfile(0);
+        int position=result.position(row, row);
+        for(int col=row;col<projects.length;col++,position++)
+        {
+            double terms[]=null;
+            if(raw!=null && raw.isAvailable(row, col))
+            {
+                raw.get(row, col, scratch.getRaw());
+                terms=scratch.getRaw();
+            }
+            else if(ComposedIndex.composedDistance(projects[row], projects[col], scratch, 
+                    first.getAlfa(),first.getBeta(),first.getGama(),first.getDelta(),first.getW()))
+                terms=scratch.getRaw();
+
+            if(terms==null)
+            {
+                legacy(row,col,position);
+                continue;
+            }
+
+            for(int k=0;k<nprofiles;k++)
+            {
+                WeightingProfile p=result.getProfile(k);
+                ComposedIndex.computeComposedDistance(fields,terms[RawRatioMatrix.RAW_EQ01],terms[RawRatioMatrix.RAW_PSTATES],
+                        terms[RawRatioMatrix.RAW_PSTATES_TRANSITIONS],terms[RawRatioMatrix.RAW_EQ04],terms[RawRatioMatrix.RAW_PSCENARIOS],
+                        terms[RawRatioMatrix.RAW_PSCENARIOS_TRANSITIONS],terms[RawRatioMatrix.RAW_IDIST_BEH],terms[RawRatioMatrix.RAW_EDIST_BEH],
+                        p.getAlfa(),p.getBeta(),p.getGama(),p.getDelta(),p.getW());
+                result.set(k, position, fields[PrimitiveSimilarityTriangularMatrix.FIELD_CDIST]);
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * It computes the pair once per profile through the node-based path, when the raw terms are not available
+     * @param row The row
+     * @param col The column
+     * @param position The unidimensional position
+     */
+    private void legacy(int row,int col,int position)
+    {
+        ComposedSimilarityNode cell=new ComposedSimilarityNode();
+        for(int k=0;k<result.getProfileCount();k++)
+        {
+            WeightingProfile p=result.getProfile(k);
+            cell.setCdist(Double.NaN);
+            try {
+                if(ComposedIndex.composedDistance(projects[row], projects[col], cell, p.getAlfa(),p.getBeta(),p.getGama(),p.getDelta(),p.getW()))
+                    result.set(k, position, cell.getCdist());
+            } catch (ProcessingException ex) {
+                //The composed distance is not available for the profile
+            }
+        }
+    }
+}
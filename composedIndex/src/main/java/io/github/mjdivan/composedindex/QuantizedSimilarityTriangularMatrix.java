@@ -0,0 +1,167 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.Arrays;
+
+/**
+ * It implements a compact triangular matrix keeping only the composed distance (See equation 16).
+ * The composed distance lies in [0; 1], and it is stored quantized to 16 bits (2 bytes per cell)
+ * or as a float (4 bytes per cell). The rest of the fields are not kept: writing them has no effect,
+ * and reading them returns NaN.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class QuantizedSimilarityTriangularMatrix extends PrimitiveSimilarityTriangularMatrix{
+    /**
+     * The number of steps used for quantizing the interval [0; 1] into 16 bits
+     */
+    private static final int STEPS=0xFFFE;
+    /**
+     * The 16-bit code indicating that the composed distance is not available
+     */
+    private static final char NOT_AVAILABLE=0xFFFF;
+    /**
+     * The maximum absolute error introduced by the 16-bit quantization
+     */
+    public static final double QUANTIZED_16_MAX_ERROR=0.5/STEPS;
+    /**
+     * The maximum absolute error introduced by the float representation in [0; 1]
+     */
+    public static final double FLOAT_MAX_ERROR=Math.ulp(1.0f)/2.0;
+    /**
+     * The quantized composed distances when the 16-bit representation is used
+     */
+    private char quantized[];
+    /**
+     * The composed distances when the float representation is used
+     */
+    private float floats[];
+
+    /**
+     * Constructor where the dimension is established for the triangular matrix.
+     * @param thedim The dimension will produce a dimxdim triangular matrix
+     * @param useFloat TRUE indicates that the composed distance is stored as a float, FALSE indicates a 16-bit quantization
+     * @throws Exception An exception could happen when the dimension is null or lesser than 1, or even
+     * when the required space for the matrix is not available.
+     */
+    public QuantizedSimilarityTriangularMatrix(Integer thedim,boolean useFloat) throws Exception
+    {
+        super(thedim);
+        if(unidimensionalLongLength()>Integer.MAX_VALUE) throw new Exception("The required space exceeds the array capacity. Use the SEGMENTED mode instead.");
+        int requiredSpace=unidimensionalLength();
+        if(useFloat)
+        {
+            floats=new float[requiredSpace];
+            Arrays.fill(floats, Float.NaN);
+        }
+        else
+        {
+            quantized=new char[requiredSpace];
+            Arrays.fill(quantized, NOT_AVAILABLE);
+        }
+    }
+
+    /**
+     * Default factory method
+     * @param thedim The dimension related to the triangular matrix
+     * @param useFloat TRUE indicates that the composed distance is stored as a float, FALSE indicates a 16-bit quantization
+     * @return A new instance of the matrix
+     * @throws Exception it happens when the dimension is invalid or there is not the enough memory space.
+     */
+    public synchronized static QuantizedSimilarityTriangularMatrix create(int thedim,boolean useFloat) throws Exception
+    {
+        return new QuantizedSimilarityTriangularMatrix(thedim,useFloat);
+    }
+
+    @Override
+    public MatrixStorageMode getStorageMode()
+    {
+        return (floats!=null)?MatrixStorageMode.CDIST_FLOAT:MatrixStorageMode.CDIST_QUANTIZED_16;
+    }
+
+    /**
+     * It quantizes a composed distance into 16 bits
+     * @param value The composed distance in [0; 1]. Values out of range are saturated.
+     * @return The 16-bit code
+     */
+    protected static char quantize(double value)
+    {
+        if(Double.isNaN(value)) return NOT_AVAILABLE;
+        if(value<=0.0) return 0;
+        if(value>=1.0) return STEPS;
+
+        return (char)Math.round(value*STEPS);
+    }
+
+    /**
+     * It restores the composed distance from a 16-bit code
+     * @param code The 16-bit code
+     * @return The composed distance in [0; 1] with a maximum absolute error of QUANTIZED_16_MAX_ERROR, NaN when it is not available
+     */
+    protected static double dequantize(char code)
+    {
+        if(code==NOT_AVAILABLE) return Double.NaN;
+
+        return ((double)code)/STEPS;
+    }
+
+    @Override
+    protected double read(long position,int field)
+    {
+        if(field!=FIELD_CDIST) return Double.NaN;
+
+        return (floats!=null)?floats[(int)position]:dequantize(quantized[(int)position]);
+    }
+
+    @Override
+    protected void write(long position,int field,double value)
+    {
+        if(field!=FIELD_CDIST) return;
+
+        if(floats!=null) floats[(int)position]=(float)value;
+        else quantized[(int)position]=quantize(value);
+    }
+
+    @Override
+    protected boolean isAllocated()
+    {
+        return floats!=null || quantized!=null;
+    }
+
+    @Override
+    public double getCdistMaximumError()
+    {
+        return (floats!=null)?FLOAT_MAX_ERROR:QUANTIZED_16_MAX_ERROR;
+    }
+
+    /**
+     * It generates a hard copy from the original matrix
+     * @return a new instance without any dependence on the original instance
+     * @throws Exception It is raised when some abnormality is detected in the constructor
+     */
+    @Override
+    public synchronized ComposedSimilarityTriangularMatrix duplicate() throws Exception
+    {
+        if(!isAllocated()) return null;
+
+        QuantizedSimilarityTriangularMatrix copy=new QuantizedSimilarityTriangularMatrix(getDim(),floats!=null);
+        if(floats!=null) System.arraycopy(floats, 0, copy.floats, 0, floats.length);
+        else System.arraycopy(quantized, 0, copy.quantized, 0, quantized.length);
+        if(getProjectIDs()!=null) copy.initializeCells(getProjectIDs());
+
+        return copy;
+    }
+
+    @Override
+    public void releaseResources()
+    {
+        super.releaseResources();
+        quantized=null;
+        floats=null;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.Arrays;
+
+/**
+ * It keeps, for each cell of the triangular matrix, the raw values from where equations 2 to 16 are derived: 
+ * the proportions of common attributes, states, state transitions, context properties, scenarios, and scenario 
+ * transitions, and the behavioral distances. Each raw value is kept in its own array of doubles, indexed by the
+ * unidimensional position (row-major order of the upper triangular matrix). So, when the alfa, beta, gama, delta,
+ * or w parameters change, every composed distance is derived again through a streaming pass over primitive arrays,
+ * without parsing the project definitions.
+ * <p>A cell is not available (i.e., it must be completely recomputed) when its RAW_EQ01 value is NaN.</p>
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class RawRatioMatrix {
+    /**
+     * The proportion of common attributes (See equation 1)
+     */
+    public static final int RAW_EQ01=0;
+    /**
+     * The proportion of common entity states (See equation 2)
+     */
+    public static final int RAW_PSTATES=1;
+    /**
+     * The proportion of common entity state transitions (See equation 2)
+     */
+    public static final int RAW_PSTATES_TRANSITIONS=2;
+    /**
+     * The proportion of common context properties (See equation 4)
+     */
+    public static final int RAW_EQ04=3;
+    /**
+     * The proportion of common scenarios (See equation 5)
+     */
+    public static final int RAW_PSCENARIOS=4;
+    /**
+     * The proportion of common scenario transitions (See equation 5)
+     */
+    public static final int RAW_PSCENARIOS_TRANSITIONS=5;
+    /**
+     * The internal behavioral distance (See equation 10)
+     */
+    public static final int RAW_IDIST_BEH=6;
+    /**
+     * The external behavioral distance (See equation 13)
+     */
+    public static final int RAW_EDIST_BEH=7;
+    /**
+     * The number of raw values per cell
+     */
+    public static final int RAW_FIELDS=8;
+    /**
+     * The dimension of the matrix
+     */
+    private final int dim;
+    /**
+     * One array per raw value, each one indexed by the unidimensional position
+     */
+    private final double values[][];
+
+    /**
+     * It creates a new matrix where no cell is available
+     * @param pdim The dimension will produce a dimxdim triangular matrix
+     * @throws Exception It is raised when the dimension is lesser than 1, or the required space exceeds the array capacity
+     */
+    public RawRatioMatrix(int pdim) throws Exception
+    {
+        if(pdim<1) throw new Exception("Invalid Dimmension");
+        long requiredSpace=ComposedSimilarityTriangularMatrix.computingUnidimensionalMatrixLongSpace(pdim);
+        if(requiredSpace>Integer.MAX_VALUE) throw new Exception("The required space exceeds the array capacity");
+
+        dim=pdim;
+        values=new double[RAW_FIELDS][];
+        for(int i=0;i<RAW_FIELDS;i++) values[i]=new double[(int)requiredSpace];
+        Arrays.fill(values[RAW_EQ01], Double.NaN);
+    }
+
+    /**
+     * Factory method
+     * @param pdim The dimension related to the triangular matrix
+     * @return A new instance where no cell is available
+     * @throws Exception It is raised when the dimension is invalid or there is not the enough memory space
+     */
+    public synchronized static RawRatioMatrix create(int pdim) throws Exception
+    {
+        return new RawRatioMatrix(pdim);
+    }
+
+    /**
+     * @return the dimension of the matrix
+     */
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * It computes the unidimensional position of a cell
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @return The unidimensional position
+     */
+    public int position(int row,int col)
+    {
+        int nrow=Math.min(row, col);
+        int ncol=Math.max(row, col);
+
+        return (int)((((long)dim)*nrow)+ncol-((((long)nrow)*(nrow+1))/2));
+    }
+
+    /**
+     * It stores the raw values of a cell
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @param raw The raw values ordered as indicated by the RAW_* constants
+     */
+    public void set(int row,int col,double raw[])
+    {
+        int position=position(row,col);
+        for(int i=0;i<RAW_FIELDS;i++) values[i][position]=raw[i];
+    }
+
+    /**
+     * It copies the raw values of a cell
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @param raw The array receiving the raw values ordered as indicated by the RAW_* constants
+     */
+    public void get(int row,int col,double raw[])
+    {
+        int position=position(row,col);
+        for(int i=0;i<RAW_FIELDS;i++) raw[i]=values[i][position];
+    }
+
+    /**
+     * It updates the behavioral distances of a cell
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @param idist_beh The internal behavioral distance (See equation 10)
+     * @param edist_beh The external behavioral distance (See equation 13)
+     */
+    public void setBehavioral(int row,int col,double idist_beh,double edist_beh)
+    {
+        int position=position(row,col);
+        values[RAW_IDIST_BEH][position]=idist_beh;
+        values[RAW_EDIST_BEH][position]=edist_beh;
+    }
+
+    /**
+     * It indicates that the raw values of a cell are not available, so it must be completely recomputed
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     */
+    public void invalidate(int row,int col)
+    {
+        values[RAW_EQ01][position(row,col)]=Double.NaN;
+    }
+
+    /**
+     * @param row A row between 0 and (dim-1)
+     * @param col A column between 0 and (dim-1)
+     * @return TRUE when the raw values of the cell are available, FALSE otherwise
+     */
+    public boolean isAvailable(int row,int col)
+    {
+        return !Double.isNaN(values[RAW_EQ01][position(row,col)]);
+    }
+
+    /**
+     * It derives the fields of a cell (See equations 1 to 16) from its raw values
+     * @param position The unidimensional position
+     * @param fields The array where the results are stored (See PrimitiveSimilarityTriangularMatrix.FIELD_*)
+     * @param palfa The alfa parameter
+     * @param pbeta The beta parameter
+     * @param pgama The gama parameter
+     * @param pdelta The delta parameter
+     * @param pw The w parameter
+     * @return TRUE when the fields were derived, FALSE when the raw values of the cell are not available
+     */
+    public boolean derive(int position,double fields[],double palfa,double pbeta,double pgama,double pdelta,double pw)
+    {
+        double eq01=values[RAW_EQ01][position];
+        if(Double.isNaN(eq01)) return false;
+
+        ComposedIndex.computeComposedDistance(fields,eq01,values[RAW_PSTATES][position],values[RAW_PSTATES_TRANSITIONS][position],
+                values[RAW_EQ04][position],values[RAW_PSCENARIOS][position],values[RAW_PSCENARIOS_TRANSITIONS][position],
+                values[RAW_IDIST_BEH][position],values[RAW_EDIST_BEH][position],palfa,pbeta,pgama,pdelta,pw);
+
+        return true;
+    }
+}
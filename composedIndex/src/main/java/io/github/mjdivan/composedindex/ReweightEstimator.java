@@ -0,0 +1,141 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.ciedayap.ipd.exception.ProcessingException;
+
+/**
+ * This class implements a Runnable interface for Multi-thread re-weighting of the composed index, 
+ * where the fields of each cell are derived again from its raw values (See RawRatioMatrix) using new
+ * alfa, beta, gama, delta, and w parameters. Each worker claims whole rows, streaming over the raw values.
+ * The cells without raw values are completely recomputed, recording their raw values for the next re-weighting.
+ * @author mjdivan
+ * @version 1.0 
+ */
+public class ReweightEstimator implements Runnable, ComputeScheduler.Slice{
+    private Node[] projects;
+    private ComposedSimilarityTriangularMatrix matrix;
+    private RawRatioMatrix raw;
+    private AtomicInteger rowCursor;
+    private double alfa;
+    private double beta;
+    private double gama;
+    private double delta;
+    private double w;
+    /**
+     * The reusable fields of the worker
+     */
+    private double fields[];
+    /**
+     * The reusable state of the worker for the cells without raw values
+     */
+    private PairScratch scratch;
+    
+    /**
+     * It creates a new instance for re-weighting the composed index
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param m The triangular matrix
+     * @param praw The raw values related to the cells of the matrix
+     * @param cursor The cursor from where the rows are claimed
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1]
+     */
+    public ReweightEstimator(Node[] projs,ComposedSimilarityTriangularMatrix m,RawRatioMatrix praw,AtomicInteger cursor,
+            double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        if(palfa<0 || palfa>1) throw new ProcessingException("The alfa parameter is out of range [0; 1]");
+        if(pbeta<0 || pbeta>1) throw new ProcessingException("The beta parameter is out of range [0; 1]");
+        if(pdelta<0 || pdelta>1) throw new ProcessingException("The delta parameter is out of range [0; 1]");
+        if(pgama<0 || pgama>1) throw new ProcessingException("The gama parameter is out of range [0; 1]");
+        if(pw<0 || pw>1) throw new ProcessingException("The w parameter is out of range [0; 1]");
+        if(projs==null) throw new ProcessingException("No projects to be processed");
+        if(m==null || !m.isCreated()) throw new ProcessingException("No matrix available");
+        if(praw==null || praw.getDim()!=m.getDim() || projs.length!=m.getDim()) throw new ProcessingException("The raw values do not match the matrix");
+        if(cursor==null) throw new ProcessingException("No cursor available");
+        
+        this.projects=projs;
+        this.matrix=m;        
+        this.raw=praw;
+        this.rowCursor=cursor;
+        this.alfa=palfa;
+        this.beta=pbeta;
+        this.gama=pgama;
+        this.delta=pdelta;
+        this.w=pw;
+    }
+
+    /**
+     * A factory method to create a new instance
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param m The triangular matrix
+     * @param praw The raw values related to the cells of the matrix
+     * @param cursor The cursor from where the rows are claimed
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @return A new instance to re-weight the index
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1]
+     */
+    public static synchronized ReweightEstimator create(Node[] projs,ComposedSimilarityTriangularMatrix m,RawRatioMatrix praw,AtomicInteger cursor,
+            double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        return new ReweightEstimator(projs, m, praw, cursor, palfa, pbeta, pgama, pdelta, pw);
+    }
+    
+    @Override
+    public void run() {
+        while(!Thread.currentThread().isInterrupted() && runRow()){}
+    }
+    
+    /**
+     * It runs the next row
+     * @return TRUE when there are remaining rows, FALSE otherwise
+     */
+    @Override
+    public boolean runSlice() {
+        return runRow();
+    }
+    
+    /**
+     * It re-weights the cells of the next row claimed from the cursor
+     * @return TRUE when there are remaining rows, FALSE otherwise
+     */
+    private boolean runRow()
+    {
+        int row=rowCursor.getAndIncrement();
+        if(row>=projects.length) return false;
+        
+        if(fields==null) fields=new double[PrimitiveSimilarityTriangularMatrix.FIELDS];
+        PrimitiveSimilarityTriangularMatrix primitive=(matrix instanceof PrimitiveSimilarityTriangularMatrix)?
+                (PrimitiveSimilarityTriangularMatrix)matrix:null;
+        int position=raw.position(row, row);
+        for(int col=row;col<projects.length;col++,position++)
+        {
+            if(raw.derive(position, fields, alfa, beta, gama, delta, w))
+            {
+                if(primitive!=null) primitive.set(row, col, fields);
+                else
+                {
+                    ComposedSimilarityNode cell=matrix.get(row, col);
+                    if(cell!=null) ComposedIndex.storeComposedDistance(cell, fields);
+                }
+                continue;
+            }
+
+            if(scratch==null) scratch=PairScratch.create();
+            ComposedIndex.computeCell(projects, matrix, primitive, raw, row, col, scratch, alfa,beta,gama,delta,w);
+        }
+        
+        return true;
+    }    
+}
@@ -0,0 +1,82 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It implements the scalar version of the hot loops used for comparing two nodes: the bitset intersection and union
+ * counts, and the batch Z-test interpretation (See equations 8/11 and 9/12). It is used on any JVM, and it is the
+ * fallback when the vectorized version (See SimilarityKernels) is not available.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class ScalarSimilarityKernels {
+    /**
+     * It computes the number of bits set in both bitsets
+     * @param a The first bitset
+     * @param b The second bitset
+     * @return The number of common bits
+     */
+    public static int intersectionCount(long a[],long b[])
+    {
+        int n=Math.min(a.length, b.length);
+        int common=0;
+        for(int i=0;i<n;i++) common+=Long.bitCount(a[i]&b[i]);
+
+        return common;
+    }
+
+    /**
+     * It computes the number of bits set in any of the bitsets
+     * @param a The first bitset
+     * @param b The second bitset
+     * @return The number of bits in the union
+     */
+    public static int unionCount(long a[],long b[])
+    {
+        if(a.length<b.length)
+        {
+            long t[]=a;
+            a=b;
+            b=t;
+        }
+        int union=0;
+        int i=0;
+        for(;i<b.length;i++) union+=Long.bitCount(a[i]|b[i]);
+        for(;i<a.length;i++) union+=Long.bitCount(a[i]);
+
+        return union;
+    }
+
+    /**
+     * It computes the Z-test interpretation (See equations 8/11 and 9/12) for a batch of attributes, accumulating
+     * the interpretations with values. The missing values must be indicated with NaN.
+     * @param mean1 The mean of each attribute in the project 1
+     * @param spread1 The variance divided by n of each attribute in the project 1
+     * @param mean2 The mean of each attribute in the project 2
+     * @param spread2 The variance divided by n of each attribute in the project 2
+     * @param n The number of attributes in the batch
+     * @param result The array where the sum of the interpretations (position 0) and the number of attributes 
+     * with values (position 1) are stored
+     */
+    public static void izpiSum(double mean1[],double spread1[],double mean2[],double spread2[],int n,double result[])
+    {
+        double acu=0.0;
+        int nwithValues=0;
+        for(int i=0;i<n;i++)
+        {
+            double z=Math.abs((mean1[i]-mean2[i])/Math.sqrt(spread1[i]+spread2[i]));
+            if(Double.isNaN(z)) continue;
+
+            if(z<2) acu+=1.0;
+            else if(z<=3) acu+=3.0-z;
+            nwithValues++;
+        }
+
+        result[0]=acu;
+        result[1]=nwithValues;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It implements a composed similarity triangular matrix addressed by long positions and split
+ * into fixed-size chunks of doubles. Each chunk keeps the FIELDS doubles of its cells contiguously.
+ * It removes the Integer.MAX_VALUE limit on the number of cells, allowing more than 46,340 projects.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class SegmentedSimilarityTriangularMatrix extends PrimitiveSimilarityTriangularMatrix{
+    /**
+     * The default number of bits used for addressing a cell into a chunk (65,536 cells per chunk)
+     */
+    public static final int DEFAULT_CHUNK_BITS=16;
+    /**
+     * The number of bits used for addressing a cell into a chunk
+     */
+    private final int chunkBits;
+    /**
+     * The mask used for obtaining the cell into a chunk
+     */
+    private final long chunkMask;
+    /**
+     * The chunks containing the cells
+     */
+    private double chunks[][];
+
+    /**
+     * Constructor where the dimension and the chunk size are established for the triangular matrix.
+     * @param thedim The dimension will produce a dimxdim triangular matrix
+     * @param pchunkBits The number of bits used for addressing a cell into a chunk (i.e., 2^pchunkBits cells per chunk). It must be between 1 and 24.
+     * @throws Exception An exception could happen when the dimension is null or lesser than 1, or even
+     * when the required space for the matrix is not available.
+     */
+    public SegmentedSimilarityTriangularMatrix(Integer thedim,int pchunkBits) throws Exception
+    {
+        super(thedim);
+        if(pchunkBits<1 || pchunkBits>24) throw new Exception("The chunk bits must be between 1 and 24");
+
+        chunkBits=pchunkBits;
+        chunkMask=(1L<<chunkBits)-1;
+
+        long requiredSpace=unidimensionalLongLength();
+        long nchunks=((requiredSpace-1)>>>chunkBits)+1;
+        if(nchunks>Integer.MAX_VALUE) throw new Exception("Too many chunks. Increase the chunk size.");
+
+        chunks=new double[(int)nchunks][];
+        for(int i=0;i<chunks.length;i++)
+        {
+            long remaining=requiredSpace-(((long)i)<<chunkBits);
+            int cells=(int)Math.min(remaining, 1L<<chunkBits);
+            chunks[i]=new double[cells*FIELDS];
+        }
+    }
+
+    /**
+     * Default factory method
+     * @param thedim The dimension related to the triangular matrix
+     * @return A new instance of the matrix using chunks of 2^DEFAULT_CHUNK_BITS cells
+     * @throws Exception it happens when the dimension is invalid or there is not the enough memory space.
+     */
+    public synchronized static SegmentedSimilarityTriangularMatrix create(int thedim) throws Exception
+    {
+        return new SegmentedSimilarityTriangularMatrix(thedim,DEFAULT_CHUNK_BITS);
+    }
+
+    /**
+     * Factory method indicating the chunk size
+     * @param thedim The dimension related to the triangular matrix
+     * @param pchunkBits The number of bits used for addressing a cell into a chunk (i.e., 2^pchunkBits cells per chunk)
+     * @return A new instance of the matrix
+     * @throws Exception it happens when the dimension or chunk size is invalid or there is not the enough memory space.
+     */
+    public synchronized static SegmentedSimilarityTriangularMatrix create(int thedim,int pchunkBits) throws Exception
+    {
+        return new SegmentedSimilarityTriangularMatrix(thedim,pchunkBits);
+    }
+
+    @Override
+    public MatrixStorageMode getStorageMode()
+    {
+        return MatrixStorageMode.SEGMENTED;
+    }
+
+    @Override
+    protected double read(long position,int field)
+    {
+        return chunks[(int)(position>>>chunkBits)][(((int)(position&chunkMask))*FIELDS)+field];
+    }
+
+    @Override
+    protected void write(long position,int field,double value)
+    {
+        chunks[(int)(position>>>chunkBits)][(((int)(position&chunkMask))*FIELDS)+field]=value;
+    }
+
+    @Override
+    protected boolean isAllocated()
+    {
+        return chunks!=null;
+    }
+
+    /**
+     * @return the number of cells per chunk
+     */
+    public int getChunkCells() {
+        return 1<<chunkBits;
+    }
+
+    /**
+     * @return the number of chunks
+     */
+    public int getChunks() {
+        return (chunks==null)?0:chunks.length;
+    }
+
+    /**
+     * It generates a hard copy from the original matrix
+     * @return a new instance without any dependence on the original instance
+     * @throws Exception It is raised when some abnormality is detected in the constructor
+     */
+    @Override
+    public synchronized ComposedSimilarityTriangularMatrix duplicate() throws Exception
+    {
+        if(chunks==null) return null;
+
+        SegmentedSimilarityTriangularMatrix copy=new SegmentedSimilarityTriangularMatrix(getDim(),chunkBits);
+        for(int i=0;i<chunks.length;i++)
+            System.arraycopy(chunks[i], 0, copy.chunks[i], 0, chunks[i].length);
+        if(getProjectIDs()!=null) copy.initializeCells(getProjectIDs());
+
+        return copy;
+    }
+
+    @Override
+    public void releaseResources()
+    {
+        super.releaseResources();
+        chunks=null;
+    }
+}
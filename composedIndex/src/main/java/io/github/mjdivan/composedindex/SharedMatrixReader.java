@@ -0,0 +1,257 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * It shares a computed matrix among several JVMs on the same host through memory-mapped files. A single writer
+ * publishes each finished matrix as a new generation file, and then it updates the generation header. The readers
+ * map the generation files in read-only mode (zero-copy), and they switch to the last published generation
+ * atomically, so each query observes a single generation.
+ * <p>Directory layout: "current.gen" (header: [int magic][int version][long generation]) and one
+ * "generation-N.cim" file per published generation (See SharedSimilarityTriangularMatrix).</p>
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class SharedMatrixReader {
+    /**
+     * The first bytes of the generation header ("CISH")
+     */
+    public static final int HEADER_MAGIC=0x43495348;
+    /**
+     * The version of the generation header
+     */
+    public static final int HEADER_VERSION=1;
+    /**
+     * The name of the generation header into the directory
+     */
+    public static final String HEADER_FILE="current.gen";
+    /**
+     * The number of bytes of the generation header
+     */
+    private static final int HEADER_BYTES=16;
+    /**
+     * The position of the generation into the header
+     */
+    private static final int GENERATION_OFFSET=8;
+
+    /**
+     * It keeps a published generation: the dictionary and the read-only matrix
+     */
+    public static class Generation {
+        private final IdentifierDictionary dictionary;
+        private final SharedSimilarityTriangularMatrix matrix;
+
+        protected Generation(IdentifierDictionary pdictionary,SharedSimilarityTriangularMatrix pmatrix)
+        {
+            dictionary=pdictionary;
+            matrix=pmatrix;
+        }
+
+        /**
+         * @return the dense dictionary mapping each project ID to its row (or column)
+         */
+        public IdentifierDictionary getDictionary() {
+            return dictionary;
+        }
+
+        /**
+         * @return the read-only matrix
+         */
+        public SharedSimilarityTriangularMatrix getMatrix() {
+            return matrix;
+        }
+
+        /**
+         * @return the generation number
+         */
+        public long getGeneration() {
+            return matrix.getGeneration();
+        }
+    }
+
+    /**
+     * The directory containing the shared matrix
+     */
+    private final Path directory;
+    /**
+     * The read-only mapping of the generation header
+     */
+    private final MappedByteBuffer header;
+    /**
+     * The generation used by the queries
+     */
+    private volatile Generation current;
+
+    /**
+     * It opens a shared matrix in read-only mode
+     * @param pdirectory The directory containing the shared matrix
+     * @throws Exception It is raised when there is no published generation, or it could not be mapped
+     */
+    protected SharedMatrixReader(Path pdirectory) throws Exception
+    {
+        directory=pdirectory;
+        try(FileChannel channel=FileChannel.open(pdirectory.resolve(HEADER_FILE), StandardOpenOption.READ))
+        {
+            header=channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        }
+        if(header.getInt(0)!=HEADER_MAGIC) throw new Exception("The file is not a generation header");
+        if(header.getInt(4)!=HEADER_VERSION) throw new Exception("Unsupported generation header version: "+header.getInt(4));
+
+        current=null;
+        if(!refresh()) throw new Exception("There is no published generation");
+    }
+
+    /**
+     * Factory method
+     * @param pdirectory The directory containing the shared matrix
+     * @return A new instance mapping the last published generation
+     * @throws Exception It is raised when there is no published generation, or it could not be mapped
+     */
+    public synchronized static SharedMatrixReader open(Path pdirectory) throws Exception
+    {
+        if(pdirectory==null) throw new Exception("The directory is null");
+
+        return new SharedMatrixReader(pdirectory);
+    }
+
+    /**
+     * It returns the name of the file related to a generation
+     * @param generation The generation number
+     * @return The file name
+     */
+    protected static String generationFile(long generation)
+    {
+        return "generation-"+generation+".cim";
+    }
+
+    /**
+     * It publishes a computed matrix as a new generation. The generation file is completely written and forced
+     * before updating the header, so the readers never observe a partial generation. Concurrent writers are
+     * serialized through a file lock on the header. The generations older than the previous one are deleted
+     * when it is possible.
+     * @param pdirectory The directory containing the shared matrix. It is created when it does not exist.
+     * @param ids The project IDs organized by row (or column)
+     * @param source The matrix to be published
+     * @return The published generation number
+     * @throws Exception It is raised when the matrix is not available, or it could not be published
+     */
+    public synchronized static long publish(Path pdirectory,String ids[],ComposedSimilarityTriangularMatrix source) throws Exception
+    {
+        if(pdirectory==null) throw new Exception("The directory is null");
+        if(source==null || !source.isCreated()) throw new Exception("No matrix to be published");
+        if(ids==null || ids.length!=source.getDim()) throw new Exception("The project IDs do not match the matrix");
+
+        Files.createDirectories(pdirectory);
+        try(FileChannel channel=FileChannel.open(pdirectory.resolve(HEADER_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock=channel.lock())
+        {
+            MappedByteBuffer hdr=channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            long previous=0;
+            if(hdr.getInt(0)==HEADER_MAGIC) previous=hdr.getLong(GENERATION_OFFSET);
+            long generation=previous+1;
+
+            Path tmp=pdirectory.resolve(generationFile(generation)+".tmp");
+            SharedSimilarityTriangularMatrix.write(tmp, generation, ids, source);
+            Files.move(tmp, pdirectory.resolve(generationFile(generation)), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            hdr.putInt(0, HEADER_MAGIC);
+            hdr.putInt(4, HEADER_VERSION);
+            hdr.putLong(GENERATION_OFFSET, generation);
+            hdr.force();
+
+            for(long old=previous-1;old>0;old--)
+            {
+                try{
+                    if(!Files.deleteIfExists(pdirectory.resolve(generationFile(old)))) break;
+                }catch(IOException e)
+                {
+                    break;//It is still mapped by some reader
+                }
+            }
+
+            return generation;
+        }
+    }
+
+    /**
+     * It switches to the last published generation when it differs from the current one
+     * @return TRUE when a new generation has been mapped, FALSE otherwise
+     * @throws Exception It is raised when the generation could not be mapped
+     */
+    public synchronized boolean refresh() throws Exception
+    {
+        long published=header.getLong(GENERATION_OFFSET);
+        if(published<1 || (current!=null && current.getGeneration()==published)) return false;
+
+        SharedSimilarityTriangularMatrix matrix=SharedSimilarityTriangularMatrix.open(directory.resolve(generationFile(published)));
+        IdentifierDictionary dictionary=IdentifierDictionary.create(matrix.getDim());
+        for(int i=0;i<matrix.getDim();i++) dictionary.add(matrix.getProjectID(i));
+
+        //The previous generation is not released, because some query could be using it. It is unmapped once it is collected.
+        current=new Generation(dictionary,matrix);
+
+        return true;
+    }
+
+    /**
+     * It returns the generation to be used by a query, switching to the last published one when it is needed.
+     * When the last published generation could not be mapped, the previous one is returned.
+     * @return The generation
+     * @throws Exception It is raised when no generation could be mapped
+     */
+    public Generation current() throws Exception
+    {
+        Generation gen=current;
+        if(gen==null || header.getLong(GENERATION_OFFSET)!=gen.getGeneration())
+        {
+            try{
+                refresh();
+            }catch(Exception e)
+            {
+                if(gen==null) throw e;
+                return gen;//It keeps answering from the previous generation
+            }
+            gen=current;
+        }
+
+        return gen;
+    }
+
+    /**
+     * @return the generation number used by the queries
+     */
+    public long getGeneration() {
+        Generation gen=current;
+
+        return (gen==null)?0:gen.getGeneration();
+    }
+
+    /**
+     * @return the directory containing the shared matrix
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * It releases the current generation
+     */
+    public synchronized void releaseResources()
+    {
+        if(current!=null) current.matrix.releaseResources();
+        current=null;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * It implements a read-only composed similarity triangular matrix mapped over a generation file published
+ * by another process (See SharedMatrixReader). Only the composed distance is kept, so the rest of the fields
+ * read as NaN, and the writes have no effect. The cells are not copied into the Java heap.
+ * <p>Generation file layout (big-endian): [int magic][int version][long generation][int dim][int reserved]
+ * [long data offset][project IDs as int length and UTF-8 bytes][padding][double cdist per cell], where the cells
+ * follow the unidimensional position.</p>
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class SharedSimilarityTriangularMatrix extends PrimitiveSimilarityTriangularMatrix{
+    /**
+     * The first bytes of every generation file ("CISM")
+     */
+    public static final int GENERATION_MAGIC=0x4349534D;
+    /**
+     * The version of the generation file format
+     */
+    public static final int GENERATION_VERSION=1;
+    /**
+     * The number of bytes of the generation file header
+     */
+    private static final int HEADER_BYTES=32;
+    /**
+     * The number of bits used for addressing a cell into a segment
+     */
+    private static final int SEGMENT_BITS=27;
+    /**
+     * The mask used for obtaining the cell into a segment
+     */
+    private static final long SEGMENT_MASK=(1L<<SEGMENT_BITS)-1;
+    /**
+     * The generation of the published matrix
+     */
+    private final long generation;
+    /**
+     * The read-only buffers containing the composed distances
+     */
+    private MappedByteBuffer segments[];
+
+    /**
+     * It maps a generation file
+     * @param thedim The dimension of the matrix
+     * @param pgeneration The generation of the published matrix
+     * @param channel The channel related to the generation file
+     * @param dataOffset The position of the first cell into the file
+     * @throws Exception It is raised when the dimension is invalid, or the file could not be mapped
+     */
+    protected SharedSimilarityTriangularMatrix(Integer thedim,long pgeneration,FileChannel channel,long dataOffset) throws Exception
+    {
+        super(thedim);
+        generation=pgeneration;
+
+        long cells=unidimensionalLongLength();
+        if(channel.size()<dataOffset+(cells*Double.BYTES)) throw new Exception("The generation file is incomplete");
+
+        int nsegments=(int)((cells-1)>>>SEGMENT_BITS)+1;
+        segments=new MappedByteBuffer[nsegments];
+        for(int i=0;i<nsegments;i++)
+        {
+            long first=((long)i)<<SEGMENT_BITS;
+            long count=Math.min(cells-first, 1L<<SEGMENT_BITS);
+            segments[i]=channel.map(FileChannel.MapMode.READ_ONLY, dataOffset+(first*Double.BYTES), count*Double.BYTES);
+        }
+    }
+
+    /**
+     * It maps a generation file in read-only mode. The channel can be closed once the file is mapped.
+     * @param file The generation file
+     * @return A new instance including the project IDs
+     * @throws Exception It is raised when the file is not a generation file, or it could not be mapped
+     */
+    public synchronized static SharedSimilarityTriangularMatrix open(Path file) throws Exception
+    {
+        try(FileChannel channel=FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer header=channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if(header.getInt(0)!=GENERATION_MAGIC) throw new Exception("The file is not a generation of the composed index");
+            if(header.getInt(4)!=GENERATION_VERSION) throw new Exception("Unsupported generation version: "+header.getInt(4));
+            long pgeneration=header.getLong(8);
+            int dim=header.getInt(16);
+            long dataOffset=header.getLong(24);
+            if(dim<1 || dataOffset<HEADER_BYTES) throw new Exception("Invalid generation header");
+
+            ByteBuffer dictionary=channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, dataOffset-HEADER_BYTES);
+            String ids[]=new String[dim];
+            for(int i=0;i<dim;i++)
+            {
+                byte bytes[]=new byte[dictionary.getInt()];
+                dictionary.get(bytes);
+                ids[i]=new String(bytes,StandardCharsets.UTF_8);
+            }
+
+            SharedSimilarityTriangularMatrix matrix=new SharedSimilarityTriangularMatrix(dim,pgeneration,channel,dataOffset);
+            matrix.initializeCells(ids);
+
+            return matrix;
+        }
+    }
+
+    /**
+     * It writes a generation file containing the project IDs and the composed distances of a matrix
+     * @param file The generation file. It is created when it does not exist, or truncated otherwise.
+     * @param pgeneration The generation of the published matrix
+     * @param ids The project IDs organized by row (or column)
+     * @param source The matrix to be published
+     * @throws IOException It is raised when the file could not be written
+     */
+    protected static void write(Path file,long pgeneration,String ids[],ComposedSimilarityTriangularMatrix source) throws IOException
+    {
+        int dim=source.getDim();
+        long dataOffset=HEADER_BYTES;
+        for(String id:ids) dataOffset+=Integer.BYTES+id.getBytes(StandardCharsets.UTF_8).length;
+        long padding=(Double.BYTES-(dataOffset%Double.BYTES))%Double.BYTES;
+        dataOffset+=padding;
+
+        try(SnapshotChannel out=SnapshotChannel.openForWriting(file))
+        {
+            out.putInt(GENERATION_MAGIC);
+            out.putInt(GENERATION_VERSION);
+            out.putLong(pgeneration);
+            out.putInt(dim);
+            out.putInt(0);
+            out.putLong(dataOffset);
+            for(String id:ids)
+            {
+                byte bytes[]=id.getBytes(StandardCharsets.UTF_8);
+                out.putInt(bytes.length);
+                for(byte b:bytes) out.putByte(b);
+            }
+            for(long i=0;i<padding;i++) out.putByte((byte)0);
+
+            for(int row=0;row<dim;row++)
+                for(int col=row;col<dim;col++)
+                    out.putDouble(source.getCdist(row, col));
+        }
+    }
+
+    @Override
+    public MatrixStorageMode getStorageMode()
+    {
+        return MatrixStorageMode.SHARED;
+    }
+
+    /**
+     * @return the generation of the published matrix
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    @Override
+    protected double read(long position,int field)
+    {
+        if(field!=FIELD_CDIST) return Double.NaN;
+
+        return segments[(int)(position>>>SEGMENT_BITS)].getDouble((int)((position&SEGMENT_MASK)*Double.BYTES));
+    }
+
+    @Override
+    protected void write(long position,int field,double value)
+    {
+        //Read-only matrix
+    }
+
+    @Override
+    protected boolean isAllocated()
+    {
+        return segments!=null;
+    }
+
+    /**
+     * It generates a hard copy from the original matrix into the Java heap (CDIST_FLOAT is not used 
+     * for avoiding the loss of precision)
+     * @return a new instance without any dependence on the mapped file
+     * @throws Exception It is raised when some abnormality is detected in the constructor
+     */
+    @Override
+    public synchronized ComposedSimilarityTriangularMatrix duplicate() throws Exception
+    {
+        if(segments==null) return null;
+
+        StructOfArraysSimilarityTriangularMatrix copy=StructOfArraysSimilarityTriangularMatrix.create(getDim());
+        long cells=unidimensionalLongLength();
+        for(long pos=0;pos<cells;pos++)
+            copy.write(pos, FIELD_CDIST, read(pos,FIELD_CDIST));
+        if(getProjectIDs()!=null) copy.initializeCells(getProjectIDs());
+
+        return copy;
+    }
+
+    @Override
+    public void releaseResources()
+    {
+        super.releaseResources();
+        segments=null;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It is the entry point to the hot loops used for comparing two nodes. This version is used on Java 8 to 16,
+ * delegating on the scalar kernels. The multi-release JAR provides an alternative version for Java 17+
+ * (src/main/java17), which uses the Vector API when the jdk.incubator.vector module is available.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class SimilarityKernels {
+    /**
+     * @return TRUE when the kernels are vectorized, FALSE otherwise
+     */
+    public static boolean isVectorized()
+    {
+        return false;
+    }
+
+    /**
+     * It computes the number of bits set in both bitsets
+     * @param a The first bitset
+     * @param b The second bitset
+     * @return The number of common bits
+     */
+    public static int intersectionCount(long a[],long b[])
+    {
+        return ScalarSimilarityKernels.intersectionCount(a, b);
+    }
+
+    /**
+     * It computes the number of bits set in any of the bitsets
+     * @param a The first bitset
+     * @param b The second bitset
+     * @return The number of bits in the union
+     */
+    public static int unionCount(long a[],long b[])
+    {
+        return ScalarSimilarityKernels.unionCount(a, b);
+    }
+
+    /**
+     * It computes the Z-test interpretation (See equations 8/11 and 9/12) for a batch of attributes
+     * (See ScalarSimilarityKernels.izpiSum)
+     * @param mean1 The mean of each attribute in the project 1
+     * @param spread1 The variance divided by n of each attribute in the project 1
+     * @param mean2 The mean of each attribute in the project 2
+     * @param spread2 The variance divided by n of each attribute in the project 2
+     * @param n The number of attributes in the batch
+     * @param result The array where the sum of the interpretations (position 0) and the number of attributes 
+     * with values (position 1) are stored
+     */
+    public static void izpiSum(double mean1[],double spread1[],double mean2[],double spread2[],int n,double result[])
+    {
+        ScalarSimilarityKernels.izpiSum(mean1, spread1, mean2, spread2, n, result);
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * It implements a buffered sequential access to a binary file through a FileChannel. It is used for
+ * writing and reading the snapshots of the composed index. The values are kept in big-endian order.
+ * A CRC32 checksum of the bytes written (or read) after startChecksum is computed as the buffer is flushed (or consumed).
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class SnapshotChannel implements AutoCloseable{
+    /**
+     * The size of the intermediate buffer
+     */
+    private static final int BUFFER_BYTES=1<<20;
+    /**
+     * The channel related to the file
+     */
+    private final FileChannel channel;
+    /**
+     * The intermediate buffer
+     */
+    private final ByteBuffer buffer;
+    /**
+     * TRUE indicates that the file is written, FALSE that it is read
+     */
+    private final boolean writing;
+    /**
+     * The checksum of the bytes written (or read) after startChecksum, null when it was not started
+     */
+    private CRC32 checksum;
+    /**
+     * The position into the buffer from where the bytes are not included into the checksum yet
+     */
+    private int checksumStart;
+
+    /**
+     * It opens a file for writing or reading
+     * @param file The file
+     * @param pwriting TRUE indicates that the file is written (it is truncated), FALSE that it is read
+     * @throws IOException It is raised when the file could not be opened
+     */
+    protected SnapshotChannel(Path file,boolean pwriting) throws IOException
+    {
+        writing=pwriting;
+        if(writing)
+            channel=FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        else
+            channel=FileChannel.open(file, StandardOpenOption.READ);
+
+        buffer=ByteBuffer.allocateDirect(BUFFER_BYTES);
+        if(!writing) buffer.flip();
+    }
+
+    /**
+     * Factory method opening a file for writing. The file is created when it does not exist, or truncated otherwise.
+     * @param file The file
+     * @return A new instance
+     * @throws IOException It is raised when the file could not be opened
+     */
+    public synchronized static SnapshotChannel openForWriting(Path file) throws IOException
+    {
+        return new SnapshotChannel(file,true);
+    }
+
+    /**
+     * Factory method opening a file for reading
+     * @param file The file
+     * @return A new instance
+     * @throws IOException It is raised when the file could not be opened
+     */
+    public synchronized static SnapshotChannel openForReading(Path file) throws IOException
+    {
+        return new SnapshotChannel(file,false);
+    }
+
+    /**
+     * It starts computing the checksum of the next bytes written (or read)
+     */
+    public void startChecksum()
+    {
+        checksum=new CRC32();
+        checksumStart=buffer.position();
+    }
+
+    /**
+     * It returns the checksum of the bytes written (or read) since startChecksum
+     * @return The CRC32 value, -1 when the checksum was not started
+     */
+    public long getChecksum()
+    {
+        if(checksum==null) return -1;
+        updateChecksum(buffer.position());
+
+        return checksum.getValue();
+    }
+
+    /**
+     * It includes into the checksum the bytes of the buffer located between checksumStart and the given position
+     * @param end The position into the buffer
+     */
+    private void updateChecksum(int end)
+    {
+        if(checksum==null || end<=checksumStart) return;
+
+        ByteBuffer view=buffer.duplicate();
+        view.limit(end);
+        view.position(checksumStart);
+        checksum.update(view);
+        checksumStart=end;
+    }
+
+    /**
+     * It writes a long at an absolute position of the file (e.g., a header field known once the content was written).
+     * The buffered bytes are flushed first.
+     * @param offset The position into the file
+     * @param value The value
+     * @throws IOException It is raised when the value could not be written
+     */
+    public void putLongAt(long offset,long value) throws IOException
+    {
+        if(!writing) throw new IOException("The snapshot is not open for writing");
+        flush();
+
+        ByteBuffer bytes=ByteBuffer.allocate(Long.BYTES);
+        bytes.putLong(value);
+        bytes.flip();
+        while(bytes.hasRemaining()) offset+=channel.write(bytes, offset);
+    }
+
+    /**
+     * It guarantees the required space into the buffer for writing
+     * @param bytes The number of bytes to be written
+     * @throws IOException It is raised when the buffer could not be flushed
+     */
+    private void ensureWritable(int bytes) throws IOException
+    {
+        if(buffer.remaining()<bytes) flush();
+    }
+
+    /**
+     * It guarantees the required bytes into the buffer for reading
+     * @param bytes The number of bytes to be read
+     * @throws IOException It is raised when the file ends before the required bytes
+     */
+    private void ensureReadable(int bytes) throws IOException
+    {
+        if(buffer.remaining()>=bytes) return;
+
+        updateChecksum(buffer.position());
+        buffer.compact();
+        checksumStart=0;
+        while(buffer.position()<bytes)
+        {
+            if(channel.read(buffer)<0)
+            {
+                buffer.flip();
+                throw new EOFException("Unexpected end of the snapshot");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * It writes the buffered bytes on the file
+     * @throws IOException It is raised when the bytes could not be written
+     */
+    public void flush() throws IOException
+    {
+        if(!writing) return;
+
+        updateChecksum(buffer.position());
+        buffer.flip();
+        while(buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+        checksumStart=0;
+    }
+
+    /**
+     * It writes a byte
+     * @param value The value
+     * @throws IOException It is raised when the value could not be written
+     */
+    public void putByte(byte value) throws IOException
+    {
+        ensureWritable(Byte.BYTES);
+        buffer.put(value);
+    }
+
+    /**
+     * It writes an integer
+     * @param value The value
+     * @throws IOException It is raised when the value could not be written
+     */
+    public void putInt(int value) throws IOException
+    {
+        ensureWritable(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    /**
+     * It writes a long
+     * @param value The value
+     * @throws IOException It is raised when the value could not be written
+     */
+    public void putLong(long value) throws IOException
+    {
+        ensureWritable(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    /**
+     * It writes a double
+     * @param value The value
+     * @throws IOException It is raised when the value could not be written
+     */
+    public void putDouble(double value) throws IOException
+    {
+        ensureWritable(Double.BYTES);
+        buffer.putDouble(value);
+    }
+
+    /**
+     * It writes a string using UTF-8, preceded by its length in bytes. A null string is written as the length -1.
+     * @param value The string
+     * @throws IOException It is raised when the string could not be written
+     */
+    public void putString(String value) throws IOException
+    {
+        if(value==null)
+        {
+            putInt(-1);
+            return;
+        }
+
+        byte bytes[]=value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        int offset=0;
+        while(offset<bytes.length)
+        {
+            ensureWritable(1);
+            int len=Math.min(buffer.remaining(), bytes.length-offset);
+            buffer.put(bytes, offset, len);
+            offset+=len;
+        }
+    }
+
+    /**
+     * It reads a byte
+     * @return The value
+     * @throws IOException It is raised when the file ends before the value
+     */
+    public byte getByte() throws IOException
+    {
+        ensureReadable(Byte.BYTES);
+        return buffer.get();
+    }
+
+    /**
+     * It reads an integer
+     * @return The value
+     * @throws IOException It is raised when the file ends before the value
+     */
+    public int getInt() throws IOException
+    {
+        ensureReadable(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    /**
+     * It reads a long
+     * @return The value
+     * @throws IOException It is raised when the file ends before the value
+     */
+    public long getLong() throws IOException
+    {
+        ensureReadable(Long.BYTES);
+        return buffer.getLong();
+    }
+
+    /**
+     * It reads a double
+     * @return The value
+     * @throws IOException It is raised when the file ends before the value
+     */
+    public double getDouble() throws IOException
+    {
+        ensureReadable(Double.BYTES);
+        return buffer.getDouble();
+    }
+
+    /**
+     * It reads a string written by putString
+     * @return The string, null when it was written as null
+     * @throws IOException It is raised when the string could not be read
+     */
+    public String getString() throws IOException
+    {
+        int length=getInt();
+        if(length<0) return null;
+
+        byte bytes[]=new byte[length];
+        int offset=0;
+        while(offset<length)
+        {
+            ensureReadable(1);
+            int len=Math.min(buffer.remaining(), length-offset);
+            buffer.get(bytes, offset, len);
+            offset+=len;
+        }
+
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    /**
+     * It flushes the pending bytes (when writing), forces them to the storage device, and closes the channel
+     * @throws IOException It is raised when the channel could not be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try{
+            if(writing)
+            {
+                flush();
+                channel.force(true);
+            }
+        }finally
+        {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.ciedayap.ipd.exception.ProcessingException;
+
+/**
+ * This class implements a Runnable interface for Multi-thread computing of the composed index, 
+ * where the pairs are offered to a sparse matrix instead of being stored in a triangular matrix.
+ * Each worker claims whole rows, computing the pairs located at the right of the diagonal.
+ * @author mjdivan
+ * @version 1.0 
+ */
+public class SparseIndexEstimator implements Runnable, ComputeScheduler.Slice{
+    private Node[] projects;
+    private SparseSimilarityMatrix result;
+    private AtomicInteger rowCursor;
+    private double alfa;
+    private double beta;
+    private double gama;
+    private double delta;
+    private double w;
+    /**
+     * The reusable state of the worker
+     */
+    private PairScratch pairScratch;
+    private ComposedSimilarityNode scratch;
+    
+    /**
+     * It creates a new instance for estimating the composed index
+     * @param projs The project nodes organized by their row (or column)
+     * @param presult The sparse matrix receiving the computed pairs
+     * @param cursor The cursor shared among the workers for claiming the rows. It must start at 0.
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1]
+     */
+    public SparseIndexEstimator(Node[] projs,SparseSimilarityMatrix presult,AtomicInteger cursor,
+            double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        if(palfa<0 || palfa>1) throw new ProcessingException("The alfa parameter is out of range [0; 1]");
+        if(pbeta<0 || pbeta>1) throw new ProcessingException("The beta parameter is out of range [0; 1]");
+        if(pdelta<0 || pdelta>1) throw new ProcessingException("The delta parameter is out of range [0; 1]");
+        if(pgama<0 || pgama>1) throw new ProcessingException("The gama parameter is out of range [0; 1]");
+        if(pw<0 || pw>1) throw new ProcessingException("The w parameter is out of range [0; 1]");
+        if(projs==null) throw new ProcessingException("No projects to be processed");
+        if(presult==null || presult.getDim()!=projs.length) throw new ProcessingException("The sparse matrix does not match the projects");
+        if(cursor==null) throw new ProcessingException("No cursor available");
+        
+        this.projects=projs;
+        this.result=presult;
+        this.rowCursor=cursor;
+        this.alfa=palfa;
+        this.beta=pbeta;
+        this.gama=pgama;
+        this.delta=pdelta;
+        this.w=pw;
+    }
+
+    /**
+     * A factory method to create a new instance
+     * @param projs The project nodes organized by their row (or column)
+     * @param presult The sparse matrix receiving the computed pairs
+     * @param cursor The cursor shared among the workers for claiming the rows. It must start at 0.
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @return A new instance to estimate the index
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1]
+     */
+    public static synchronized SparseIndexEstimator create(Node[] projs,SparseSimilarityMatrix presult,AtomicInteger cursor,
+            double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        return new SparseIndexEstimator(projs, presult, cursor, palfa, pbeta, pgama, pdelta, pw);
+    }
+    
+    @Override
+    public void run() {
+        while(!Thread.currentThread().isInterrupted() && runRow()){}
+    }
+    
+    /**
+     * It runs the next row
+     * @return TRUE when there are remaining rows, FALSE otherwise
+     */
+    @Override
+    public boolean runSlice() {
+        return runRow();
+    }
+    
+    /**
+     * It computes the pairs of the next row claimed from the cursor
+     * @return TRUE when there are remaining rows, FALSE otherwise
+     */
+    private boolean runRow()
+    {
+        int row=rowCursor.getAndIncrement();
+        if(row>=projects.length) return false;
+        
+        if(pairScratch==null) pairScratch=PairScratch.create();
+        if(scratch==null) scratch=new ComposedSimilarityNode();
+        Node prjRow=projects[row];
+        for(int col=row+1;col<projects.length;col++)
+        {
+            //Allocation-free path through the precompiled signatures
+            if(ComposedIndex.composedDistance(prjRow, projects[col], pairScratch, alfa,beta,gama,delta,w))
+            {
+                result.offer(row, col, pairScratch.getCdist());
+                continue;
+            }
+
+            scratch.setCdist(Double.NaN);
+            try {
+                if(ComposedIndex.composedDistance(prjRow, projects[col], scratch, alfa,beta,gama,delta,w))
+                    result.offer(row, col, scratch.getCdist());
+            } catch (ProcessingException ex) {
+                //The pair is not kept
+            }
+        }
+        
+        return true;
+    }    
+}
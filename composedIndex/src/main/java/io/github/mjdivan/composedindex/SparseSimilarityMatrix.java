@@ -0,0 +1,455 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * It keeps only the close pairs of projects instead of the whole triangular matrix. Two criteria are available:
+ * <ul>
+ * <li>Threshold: a pair is kept when its composed distance is lesser or equal than the threshold. The pair is
+ * reachable from both projects.</li>
+ * <li>Nearest neighbours: each project keeps its k pairs with the lowest composed distances.</li>
+ * </ul>
+ * While the estimation is running, the pairs are offered to per-row buffers. Once it has finished, the buffers are 
+ * compacted into CSR-style arrays (row offsets, columns, and distances), where the neighbours of each row are sorted
+ * by ascending composed distance. So, the memory grows with the number of kept pairs and not with the square of the
+ * number of projects.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class SparseSimilarityMatrix {
+    /**
+     * The number of locks guarding the per-row buffers
+     */
+    private static final int LOCK_STRIPES=64;
+    /**
+     * The project IDs organized by row (or column)
+     */
+    private final String projectIDs[];
+    /**
+     * The maximum composed distance of a kept pair. NaN when the nearest neighbours criterion is used.
+     */
+    private final double threshold;
+    /**
+     * The number of nearest neighbours kept per project. Zero when the threshold criterion is used.
+     */
+    private final int k;
+    /**
+     * The per-row buffers used while the pairs are offered. Each entry packs the float bits of the
+     * composed distance (high 32 bits) and the column (low 32 bits), so that the entries sort by distance.
+     */
+    private long buffers[][];
+    /**
+     * The number of entries used in each per-row buffer
+     */
+    private int bufferSizes[];
+    /**
+     * The locks guarding the per-row buffers. Each lock guards the rows sharing its stripe.
+     */
+    private final Object locks[];
+    /**
+     * The position of the first neighbour of each row into cols and dists (dim+1 elements)
+     */
+    private int offsets[];
+    /**
+     * The neighbours of each row
+     */
+    private int cols[];
+    /**
+     * The composed distances related to each neighbour
+     */
+    private float dists[];
+
+    /**
+     * It creates a new sparse matrix
+     * @param pprojectIDs The project IDs organized by row (or column)
+     * @param pthreshold The maximum composed distance of a kept pair, NaN for using the nearest neighbours criterion
+     * @param pk The number of nearest neighbours kept per project, 0 for using the threshold criterion
+     * @throws Exception It is raised when there are no projects, or the criterion is invalid
+     */
+    protected SparseSimilarityMatrix(String pprojectIDs[],double pthreshold,int pk) throws Exception
+    {
+        if(pprojectIDs==null || pprojectIDs.length<1) throw new Exception("No projects available");
+        if(Double.isNaN(pthreshold) && pk<1) throw new Exception("The number of neighbours must be higher or equal to 1");
+        if(!Double.isNaN(pthreshold) && pthreshold<0) throw new Exception("The threshold must be higher or equal to 0");
+
+        projectIDs=pprojectIDs.clone();
+        threshold=pthreshold;
+        k=pk;
+        buffers=new long[projectIDs.length][];
+        bufferSizes=new int[projectIDs.length];
+        locks=new Object[LOCK_STRIPES];
+        for(int i=0;i<LOCK_STRIPES;i++) locks[i]=new Object();
+    }
+
+    /**
+     * Factory method keeping the pairs whose composed distance is lesser or equal than a threshold
+     * @param pprojectIDs The project IDs organized by row (or column)
+     * @param pthreshold The maximum composed distance of a kept pair
+     * @return A new instance
+     * @throws Exception It is raised when there are no projects, or the threshold is negative
+     */
+    public synchronized static SparseSimilarityMatrix createByThreshold(String pprojectIDs[],double pthreshold) throws Exception
+    {
+        if(Double.isNaN(pthreshold)) throw new Exception("The threshold is not a number");
+        
+        return new SparseSimilarityMatrix(pprojectIDs,pthreshold,0);
+    }
+
+    /**
+     * Factory method keeping the k nearest neighbours of each project
+     * @param pprojectIDs The project IDs organized by row (or column)
+     * @param pk The number of nearest neighbours kept per project
+     * @return A new instance
+     * @throws Exception It is raised when there are no projects, or k is lesser than 1
+     */
+    public synchronized static SparseSimilarityMatrix createByNearest(String pprojectIDs[],int pk) throws Exception
+    {
+        return new SparseSimilarityMatrix(pprojectIDs,Double.NaN,pk);
+    }
+
+    /**
+     * @return the number of projects
+     */
+    public int getDim() {
+        return projectIDs.length;
+    }
+
+    /**
+     * @return the maximum composed distance of a kept pair. NaN when the nearest neighbours criterion is used.
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return the number of nearest neighbours kept per project. Zero when the threshold criterion is used.
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return TRUE when the pairs have been compacted and they can be queried, FALSE otherwise
+     */
+    public boolean isBuilt() {
+        return offsets!=null;
+    }
+
+    /**
+     * It returns the project ID associated with a row (or column)
+     * @param index The row (or column) between 0 and (dim-1)
+     * @return The project ID, null when the index is out of range
+     */
+    public String getProjectID(int index)
+    {
+        if(index<0 || index>=projectIDs.length) return null;
+
+        return projectIDs[index];
+    }
+
+    /**
+     * It packs a composed distance and a column into a sortable entry
+     * @param col The column
+     * @param cdist The composed distance (negative values are saturated to 0)
+     * @return The entry
+     */
+    private static long pack(int col,double cdist)
+    {
+        return (((long)Float.floatToIntBits((float)Math.max(cdist, 0.0)))<<32)|(col&0xFFFFFFFFL);
+    }
+
+    /**
+     * It offers a computed pair. It is thread-safe, so the workers can offer their pairs concurrently.
+     * @param row The row of the pair
+     * @param col The column of the pair (different from row)
+     * @param cdist The composed distance of the pair. The pair is discarded when it is NaN.
+     */
+    public void offer(int row,int col,double cdist)
+    {
+        if(Double.isNaN(cdist) || row==col || buffers==null) return;
+        if(row<0 || col<0 || row>=projectIDs.length || col>=projectIDs.length) return;
+
+        if(k==0)
+        {
+            if(cdist>threshold) return;
+            int min=Math.min(row, col);
+            int max=Math.max(row, col);
+            append(min,pack(max,cdist));
+        }
+        else
+        {
+            offerNearest(row,pack(col,cdist));
+            offerNearest(col,pack(row,cdist));
+        }
+    }
+
+    /**
+     * It appends an entry to the buffer of a given row
+     * @param row The row
+     * @param entry The packed entry
+     */
+    private void append(int row,long entry)
+    {
+        synchronized(locks[row&(LOCK_STRIPES-1)])
+        {
+            long buffer[]=buffers[row];
+            if(buffer==null) buffer=buffers[row]=new long[4];
+            else if(bufferSizes[row]==buffer.length) buffer=buffers[row]=Arrays.copyOf(buffer, buffer.length*2);
+
+            buffer[bufferSizes[row]++]=entry;
+        }
+    }
+
+    /**
+     * It offers an entry to the bounded max-heap of a given row, keeping the k lowest entries
+     * @param row The row
+     * @param entry The packed entry
+     */
+    private void offerNearest(int row,long entry)
+    {
+        synchronized(locks[row&(LOCK_STRIPES-1)])
+        {
+            long heap[]=buffers[row];
+            if(heap==null) heap=buffers[row]=new long[k];
+            int size=bufferSizes[row];
+
+            if(size<k)
+            {
+                int i=size;
+                while(i>0 && heap[(i-1)>>1]<entry)
+                {
+                    heap[i]=heap[(i-1)>>1];
+                    i=(i-1)>>1;
+                }
+                heap[i]=entry;
+                bufferSizes[row]=size+1;
+                return;
+            }
+
+            if(entry>=heap[0]) return;
+
+            int i=0;
+            while(true)
+            {
+                int child=(2*i)+1;
+                if(child>=size) break;
+                if((child+1)<size && heap[child+1]>heap[child]) child++;
+                if(heap[child]<=entry) break;
+                heap[i]=heap[child];
+                i=child;
+            }
+            heap[i]=entry;
+        }
+    }
+
+    /**
+     * It compacts the offered pairs into the CSR-style arrays and releases the per-row buffers.
+     * Once built, no more pairs are accepted.
+     * @return TRUE when the pairs have been compacted, FALSE when it was already built
+     */
+    public synchronized boolean build()
+    {
+        if(buffers==null) return false;
+
+        int dim=projectIDs.length;
+        int degrees[]=new int[dim];
+        for(int i=0;i<dim;i++)
+        {
+            degrees[i]+=bufferSizes[i];
+            if(k==0)
+                for(int e=0;e<bufferSizes[i];e++) degrees[(int)buffers[i][e]]++;
+        }
+
+        int poffsets[]=new int[dim+1];
+        for(int i=0;i<dim;i++) poffsets[i+1]=poffsets[i]+degrees[i];
+
+        long entries[]=new long[poffsets[dim]];
+        int fill[]=Arrays.copyOf(poffsets, dim);
+        for(int i=0;i<dim;i++)
+        {
+            for(int e=0;e<bufferSizes[i];e++)
+            {
+                long entry=buffers[i][e];
+                entries[fill[i]++]=entry;
+                if(k==0)
+                {
+                    int col=(int)entry;
+                    entries[fill[col]++]=(entry&0xFFFFFFFF00000000L)|i;
+                }
+            }
+            buffers[i]=null;
+        }
+        buffers=null;
+        bufferSizes=null;
+
+        int pcols[]=new int[entries.length];
+        float pdists[]=new float[entries.length];
+        for(int i=0;i<dim;i++)
+        {
+            Arrays.sort(entries, poffsets[i], poffsets[i+1]);
+            for(int e=poffsets[i];e<poffsets[i+1];e++)
+            {
+                pcols[e]=(int)entries[e];
+                pdists[e]=Float.intBitsToFloat((int)(entries[e]>>>32));
+            }
+        }
+
+        cols=pcols;
+        dists=pdists;
+        offsets=poffsets;
+
+        return true;
+    }
+
+    /**
+     * It returns the number of neighbours kept for a given row
+     * @param row The row between 0 and (dim-1)
+     * @return The number of neighbours, 0 when it is not built or the row is out of range
+     */
+    public int getNeighbourCount(int row)
+    {
+        if(offsets==null || row<0 || row>=projectIDs.length) return 0;
+
+        return offsets[row+1]-offsets[row];
+    }
+
+    /**
+     * It returns the neighbours of a given row sorted by ascending composed distance
+     * @param row The row between 0 and (dim-1)
+     * @return The rows (or columns) of the neighbours, null when it is not built or the row is out of range
+     */
+    public int[] getNeighbours(int row)
+    {
+        if(offsets==null || row<0 || row>=projectIDs.length) return null;
+
+        return Arrays.copyOfRange(cols, offsets[row], offsets[row+1]);
+    }
+
+    /**
+     * It returns the composed distances of the neighbours of a given row, in the same order as getNeighbours
+     * @param row The row between 0 and (dim-1)
+     * @return The composed distances, null when it is not built or the row is out of range
+     */
+    public float[] getNeighbourDistances(int row)
+    {
+        if(offsets==null || row<0 || row>=projectIDs.length) return null;
+
+        return Arrays.copyOfRange(dists, offsets[row], offsets[row+1]);
+    }
+
+    /**
+     * It returns the project IDs of the neighbours of a given row, in the same order as getNeighbours
+     * @param row The row between 0 and (dim-1)
+     * @return The project IDs, null when it is not built or the row is out of range
+     */
+    public String[] getNeighbourIDs(int row)
+    {
+        if(offsets==null || row<0 || row>=projectIDs.length) return null;
+
+        String ids[]=new String[offsets[row+1]-offsets[row]];
+        for(int e=offsets[row];e<offsets[row+1];e++) ids[e-offsets[row]]=projectIDs[cols[e]];
+
+        return ids;
+    }
+
+    /**
+     * It returns the composed distance of a kept pair
+     * @param row The row between 0 and (dim-1)
+     * @param col The column between 0 and (dim-1)
+     * @return The composed distance, NaN when the pair has not been kept
+     */
+    public double getCdist(int row,int col)
+    {
+        if(offsets==null || row<0 || row>=projectIDs.length) return Double.NaN;
+
+        for(int e=offsets[row];e<offsets[row+1];e++)
+            if(cols[e]==col) return dists[e];
+
+        return Double.NaN;
+    }
+
+    /**
+     * @return the number of entries kept in the CSR-style arrays, -1 when it is not built
+     */
+    public long getStoredEntries()
+    {
+        return (offsets==null)?-1:cols.length;
+    }
+
+    /**
+     * It writes the criterion and the CSR-style arrays into a snapshot. The project IDs are not written,
+     * since they are kept by the snapshot dictionary.
+     * @param out The snapshot channel
+     * @throws IOException It is raised when the arrays could not be written, or the pairs have not been compacted
+     */
+    protected synchronized void write(SnapshotChannel out) throws IOException
+    {
+        if(offsets==null) throw new IOException("The sparse matrix is not built");
+
+        out.putDouble(threshold);
+        out.putInt(k);
+        for(int i=0;i<offsets.length;i++) out.putInt(offsets[i]);
+        for(int e=0;e<cols.length;e++)
+        {
+            out.putInt(cols[e]);
+            out.putInt(Float.floatToIntBits(dists[e]));
+        }
+    }
+
+    /**
+     * It reads a sparse matrix written by write, which is returned already built
+     * @param in The snapshot channel
+     * @param pprojectIDs The project IDs organized by row (or column)
+     * @return The sparse matrix
+     * @throws IOException It is raised when the arrays could not be read
+     * @throws Exception It is raised when the criterion or the arrays are invalid
+     */
+    protected static SparseSimilarityMatrix read(SnapshotChannel in,String pprojectIDs[]) throws IOException, Exception
+    {
+        SparseSimilarityMatrix sparse=new SparseSimilarityMatrix(pprojectIDs,in.getDouble(),in.getInt());
+        int dim=sparse.projectIDs.length;
+
+        int poffsets[]=new int[dim+1];
+        for(int i=0;i<=dim;i++)
+        {
+            poffsets[i]=in.getInt();
+            if((i==0 && poffsets[i]!=0) || (i>0 && poffsets[i]<poffsets[i-1])) throw new Exception("Invalid row offsets");
+        }
+
+        int pcols[]=new int[poffsets[dim]];
+        float pdists[]=new float[poffsets[dim]];
+        for(int e=0;e<pcols.length;e++)
+        {
+            pcols[e]=in.getInt();
+            pdists[e]=Float.intBitsToFloat(in.getInt());
+            if(pcols[e]<0 || pcols[e]>=dim) throw new Exception("Invalid column: "+pcols[e]);
+        }
+
+        sparse.buffers=null;
+        sparse.bufferSizes=null;
+        sparse.cols=pcols;
+        sparse.dists=pdists;
+        sparse.offsets=poffsets;
+
+        return sparse;
+    }
+
+    /**
+     * It releases the buffers and the CSR-style arrays
+     */
+    public synchronized void releaseResources()
+    {
+        buffers=null;
+        bufferSizes=null;
+        offsets=null;
+        cols=null;
+        dists=null;
+    }
+}
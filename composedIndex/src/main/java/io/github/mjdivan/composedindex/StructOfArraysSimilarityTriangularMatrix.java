@@ -0,0 +1,108 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It implements a composed similarity triangular matrix keeping each equation field
+ * in its own array of doubles, indexed by the unidimensional position.
+ * No ComposedSimilarityNode instance is kept per cell.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class StructOfArraysSimilarityTriangularMatrix extends PrimitiveSimilarityTriangularMatrix{
+    /**
+     * One array per field (See the FIELD constants), each one indexed by the unidimensional position
+     */
+    private double values[][];
+
+    /**
+     * Constructor where the dimension is established for the triangular matrix.
+     * @param thedim The dimension will produce a dimxdim triangular matrix
+     * @throws Exception An exception could happen when the dimension is null or lesser than 1, or even
+     * when the required space for the matrix is not available.
+     */
+    public StructOfArraysSimilarityTriangularMatrix(Integer thedim) throws Exception
+    {
+        super(thedim);
+        if(unidimensionalLongLength()>Integer.MAX_VALUE) throw new Exception("The required space exceeds the array capacity. Use the SEGMENTED mode instead.");
+        int requiredSpace=unidimensionalLength();
+        values=new double[FIELDS][];
+        for(int i=0;i<FIELDS;i++) values[i]=new double[requiredSpace];
+    }
+
+    /**
+     * Default factory method
+     * @param thedim The dimension related to the triangular matrix
+     * @return A new instance of the matrix
+     * @throws Exception it happens when the dimension is invalid or there is not the enough memory space.
+     */
+    public synchronized static StructOfArraysSimilarityTriangularMatrix create(int thedim) throws Exception
+    {
+        return new StructOfArraysSimilarityTriangularMatrix(thedim);
+    }
+
+    @Override
+    public MatrixStorageMode getStorageMode()
+    {
+        return MatrixStorageMode.STRUCT_OF_ARRAYS;
+    }
+
+    @Override
+    protected double read(long position,int field)
+    {
+        return values[field][(int)position];
+    }
+
+    @Override
+    protected void write(long position,int field,double value)
+    {
+        values[field][(int)position]=value;
+    }
+
+    @Override
+    protected boolean isAllocated()
+    {
+        return values!=null;
+    }
+
+    /**
+     * It returns the array related to a given field
+     * @param field The field (See the FIELD constants)
+     * @return The array indexed by the unidimensional position, null when the field is out of range or the matrix was released
+     */
+    public double[] getField(int field)
+    {
+        if(values==null || field<0 || field>=FIELDS) return null;
+
+        return values[field];
+    }
+
+    /**
+     * It generates a hard copy from the original matrix
+     * @return a new instance without any dependence on the original instance
+     * @throws Exception It is raised when some abnormality is detected in the constructor
+     */
+    @Override
+    public synchronized ComposedSimilarityTriangularMatrix duplicate() throws Exception
+    {
+        if(values==null) return null;
+
+        StructOfArraysSimilarityTriangularMatrix copy=new StructOfArraysSimilarityTriangularMatrix(getDim());
+        for(int i=0;i<FIELDS;i++)
+            System.arraycopy(values[i], 0, copy.values[i], 0, values[i].length);
+        if(getProjectIDs()!=null) copy.initializeCells(getProjectIDs());
+
+        return copy;
+    }
+
+    @Override
+    public void releaseResources()
+    {
+        super.releaseResources();
+        values=null;
+    }
+}
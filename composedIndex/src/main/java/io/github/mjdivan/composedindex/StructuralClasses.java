@@ -0,0 +1,219 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * It groups the projects whose signatures are structurally equivalent (i.e., the same attributes, context properties,
+ * states, state transitions, scenarios, and scenario transitions) into structural classes. Because the structural
+ * similarities (See equations 1 to 6) only depend on such sets, they are computed once per pair of classes and shared
+ * by every pair of projects belonging to them. For example, 5000 projects instantiated from 50 templates require at most 2500
+ * structural evaluations instead of 12.5 millions.
+ * <p>The raw structural ratios of each ordered pair of classes (i.e., the class of the row and the class of the column)
+ * are computed on demand and kept in a square table, because some ratios (e.g., states and scenarios) probe the
+ * row against the keys of the column and they are not symmetric. The table is only used when the classes at least halve 
+ * the number of structural evaluations and it fits into the memory budget (See getMaxClassPairs), otherwise the
+ * signatures are not attached to the classes and each pair is computed as usual.</p>
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class StructuralClasses {
+    /**
+     * The number of raw structural ratios (See RawRatioMatrix.RAW_EQ01 to RawRatioMatrix.RAW_PSCENARIOS_TRANSITIONS)
+     */
+    public static final int STRUCTURAL_FIELDS=RawRatioMatrix.RAW_PSCENARIOS_TRANSITIONS+1;
+    /**
+     * The maximum number of ordered pairs of classes kept into the table
+     */
+    public static final int MAX_CLASS_PAIRS=1<<22;
+    /**
+     * The approximate number of bytes retained by each computed pair of classes (i.e., the reference and the array of ratios)
+     */
+    private static final long BYTES_PER_CLASS_PAIR=8+16+8*STRUCTURAL_FIELDS;
+    /**
+     * The class of each project organized by its row (or column), -1 when the project has no signature
+     */
+    private final int classOf[];
+    /**
+     * The number of projects of each class
+     */
+    private final int classSizes[];
+    /**
+     * The raw structural ratios of each ordered pair of classes, null while they are not computed
+     */
+    private final AtomicReferenceArray<double[]> table;
+
+    /**
+     * It groups the projects into structural classes
+     * @param projs The project nodes organized by their row (or column)
+     * @throws Exception It is raised when there are no projects
+     */
+    public StructuralClasses(Node projs[]) throws Exception
+    {
+        if(projs==null || projs.length<1) throw new Exception("No projects available");
+
+        classOf=new int[projs.length];
+        ArrayList<NodeSignature> representatives=new ArrayList();
+        HashMap<Integer,ArrayList<Integer>> byHash=new HashMap();
+        for(int i=0;i<projs.length;i++)
+        {
+            NodeSignature sig=(projs[i]==null)?null:projs[i].getSignature();
+            if(sig==null)
+            {
+                classOf[i]=-1;
+                continue;
+            }
+
+            Integer hash=sig.structuralHashCode();
+            ArrayList<Integer> candidates=byHash.get(hash);
+            if(candidates==null)
+            {
+                candidates=new ArrayList(1);
+                byHash.put(hash, candidates);
+            }
+
+            int found=-1;
+            for(Integer c:candidates)
+            {
+                if(representatives.get(c).structurallyEquals(sig))
+                {
+                    found=c;
+                    break;
+                }
+            }
+            if(found<0)
+            {
+                found=representatives.size();
+                representatives.add(sig);
+                candidates.add(found);
+            }
+            classOf[i]=found;
+        }
+
+        int nclasses=representatives.size();
+        classSizes=new int[nclasses];
+        for(int c:classOf)
+        {
+            if(c>=0) classSizes[c]++;
+        }
+
+        long classPairs=((long)nclasses)*nclasses;
+        long projectPairs=ComposedSimilarityTriangularMatrix.computingUnidimensionalMatrixLongSpace(projs.length);
+        if(nclasses>0 && classPairs<=getMaxClassPairs() && 2*classPairs<=projectPairs)
+        {
+            table=new AtomicReferenceArray((int)classPairs);
+            for(int i=0;i<projs.length;i++)
+            {
+                if(classOf[i]>=0) projs[i].getSignature().setStructuralClass(this, classOf[i]);
+            }
+        }
+        else table=null;
+    }
+
+    /**
+     * It informs the maximum number of ordered pairs of classes kept into the table. It is limited by MAX_CLASS_PAIRS
+     * and by an eighth of the maximum heap, assuming that every pair is computed.
+     * @return The maximum number of ordered pairs of classes
+     */
+    public static long getMaxClassPairs()
+    {
+        return Math.min(MAX_CLASS_PAIRS, Runtime.getRuntime().maxMemory()/(8*BYTES_PER_CLASS_PAIR));
+    }
+
+    /**
+     * Factory method
+     * @param projs The project nodes organized by their row (or column)
+     * @return The structural classes of the projects
+     * @throws Exception It is raised when there are no projects
+     */
+    public synchronized static StructuralClasses create(Node projs[]) throws Exception
+    {
+        return new StructuralClasses(projs);
+    }
+
+    /**
+     * @return the number of structural classes
+     */
+    public int getClassCount() {
+        return classSizes.length;
+    }
+
+    /**
+     * @param index The row (or column) of the project between 0 and (dim-1)
+     * @return The structural class of the project, -1 when the project is out of range or has no signature
+     */
+    public int getClassOf(int index)
+    {
+        if(index<0 || index>=classOf.length) return -1;
+
+        return classOf[index];
+    }
+
+    /**
+     * @param c The structural class
+     * @return The number of projects in the class, 0 when the class is out of range
+     */
+    public int getClassSize(int c)
+    {
+        if(c<0 || c>=classSizes.length) return 0;
+
+        return classSizes[c];
+    }
+
+    /**
+     * @return TRUE when the structural ratios are shared among the projects of each class, FALSE otherwise
+     */
+    public boolean isSharing() {
+        return table!=null;
+    }
+
+    /**
+     * It returns the number of pairs of classes whose structural ratios were computed
+     * @return The number of computed pairs of classes
+     */
+    public int getComputedPairs()
+    {
+        if(table==null) return 0;
+        int count=0;
+        for(int i=0;i<table.length();i++)
+        {
+            if(table.get(i)!=null) count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * It obtains the raw structural ratios between two signatures belonging to these classes. The ratios are 
+     * computed once per ordered pair of classes, the first time that some pair of projects requires them.
+     * @param sig1 The signature of the project located at the row
+     * @param sig2 The signature of the project located at the column
+     * @param raw The array receiving the ratios ordered as indicated by RawRatioMatrix.RAW_EQ01 to RAW_PSCENARIOS_TRANSITIONS
+     * @return TRUE when the ratios were obtained, FALSE when there are no attributes in the union
+     */
+    public boolean structuralRatios(NodeSignature sig1,NodeSignature sig2,double raw[])
+    {
+        int position=(sig1.getStructuralClass()*classSizes.length)+sig2.getStructuralClass();
+
+        double ratios[]=table.get(position);
+        if(ratios==null)
+        {
+            //Concurrent workers could compute the same ordered pair, but the signatures are structurally equal so they obtain the same ratios
+            ratios=new double[STRUCTURAL_FIELDS];
+            if(!ComposedIndex.structuralRatios(sig1, sig2, ratios)) ratios[RawRatioMatrix.RAW_EQ01]=Double.NaN;
+            table.set(position, ratios);
+        }
+        if(Double.isNaN(ratios[RawRatioMatrix.RAW_EQ01])) return false;
+
+        System.arraycopy(ratios, 0, raw, 0, STRUCTURAL_FIELDS);
+
+        return true;
+    }
+}
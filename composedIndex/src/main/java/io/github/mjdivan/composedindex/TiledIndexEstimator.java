@@ -0,0 +1,239 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import org.ciedayap.ipd.exception.ProcessingException;
+
+/**
+ * This class implements a Runnable interface for Multi-thread computing of the composed index, 
+ * where each worker claims whole tiles of the matrix instead of one cell at a time.
+ * When it refreshes only the behavioral part, the structural results (equations 1 to 6) kept in the cells are
+ * reused, and only the behavioral distances and the internal, external, and composed distances are recomputed.
+ * When a RawRatioMatrix is indicated, the raw values of each computed cell are recorded (See ComposedIndex.reweight).
+ * When an EstimationControl is indicated, the worker stops claiming tiles once the estimation is cancelled or timed out.
+ * @author mjdivan
+ * @version 1.0 
+ */
+public class TiledIndexEstimator implements Runnable, ComputeScheduler.Slice{
+    private Node[] projects;
+    private ComposedSimilarityTriangularMatrix matrix;
+    private TriangularTiling tiling;
+    private double alfa;
+    private double beta;
+    private double gama;
+    private double delta;
+    private double w;
+    private boolean behavioralOnly;
+    private RawRatioMatrix raw;
+    private EstimationControl control;
+    /**
+     * The reusable state of the worker
+     */
+    private PairScratch scratch;
+    
+    /**
+     * It creates a new instance for estimating the composed index
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param m The triangular matrix
+     * @param t The tiling from where the tiles are claimed
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1]
+     */
+    public TiledIndexEstimator(Node[] projs,ComposedSimilarityTriangularMatrix m,TriangularTiling t,
+            double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        if(palfa<0 || palfa>1) throw new ProcessingException("The alfa parameter is out of range [0; 1]");
+        if(pbeta<0 || pbeta>1) throw new ProcessingException("The beta parameter is out of range [0; 1]");
+        if(pdelta<0 || pdelta>1) throw new ProcessingException("The delta parameter is out of range [0; 1]");
+        if(pgama<0 || pgama>1) throw new ProcessingException("The gama parameter is out of range [0; 1]");
+        if(pw<0 || pw>1) throw new ProcessingException("The w parameter is out of range [0; 1]");
+        if(projs==null) throw new ProcessingException("No projects to be processed");
+        if(m==null || !m.isCreated()) throw new ProcessingException("No matrix available");
+        if(t==null || t.getDim()!=m.getDim() || projs.length!=m.getDim()) throw new ProcessingException("The tiling does not match the matrix");
+        
+        this.projects=projs;
+        this.matrix=m;        
+        this.tiling=t;
+        this.alfa=palfa;
+        this.beta=pbeta;
+        this.gama=pgama;
+        this.delta=pdelta;
+        this.w=pw;
+    }
+
+    /**
+     * A factory method to create a new instance
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param m The triangular matrix
+     * @param t The tiling from where the tiles are claimed
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @return A new instance to estimate the index
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1]
+     */
+    public static synchronized TiledIndexEstimator create(Node[] projs,ComposedSimilarityTriangularMatrix m,TriangularTiling t,
+            double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        return new TiledIndexEstimator(projs, m, t, palfa, pbeta, pgama, pdelta, pw);
+    }
+    
+    /**
+     * A factory method to create a new instance recording the raw values of each computed cell
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param m The triangular matrix
+     * @param t The tiling from where the tiles are claimed
+     * @param praw The matrix where the raw values are recorded. It could be null.
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @return A new instance to estimate the index
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1],
+     * or the raw values do not match the matrix
+     */
+    public static synchronized TiledIndexEstimator create(Node[] projs,ComposedSimilarityTriangularMatrix m,TriangularTiling t,RawRatioMatrix praw,
+            double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        TiledIndexEstimator estimator=new TiledIndexEstimator(projs, m, t, palfa, pbeta, pgama, pdelta, pw);
+        if(praw!=null && praw.getDim()!=m.getDim()) throw new ProcessingException("The raw values do not match the matrix");
+        estimator.raw=praw;
+        
+        return estimator;
+    }
+    
+    /**
+     * A factory method to create a new instance refreshing only the behavioral part of each cell. The cells 
+     * must keep the structural results computed with the same alfa, beta, gama, and delta parameters.
+     * @param projs The project nodes organized by their row (or column) into the matrix
+     * @param m The triangular matrix
+     * @param t The tiling from where the tiles are claimed
+     * @param praw The matrix where the raw values are recorded. It could be null.
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @return A new instance to refresh the behavioral part of the index
+     * @throws ProcessingException It is raised when some parameters (i.e., alfa, beta, gamma, delta, or w) are out of range [0; 1]
+     */
+    public static synchronized TiledIndexEstimator createBehavioralRefresh(Node[] projs,ComposedSimilarityTriangularMatrix m,TriangularTiling t,
+            RawRatioMatrix praw,double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        TiledIndexEstimator estimator=create(projs, m, t, praw, palfa, pbeta, pgama, pdelta, pw);
+        estimator.behavioralOnly=true;
+        
+        return estimator;
+    }
+    
+    /**
+     * It establishes the control of an asynchronous estimation, which is checked between tiles
+     * @param pcontrol The control. It could be null.
+     */
+    protected void setControl(EstimationControl pcontrol)
+    {
+        this.control=pcontrol;
+    }
+    
+    @Override
+    public void run() {
+        while(!Thread.currentThread().isInterrupted() && runTile()){}
+    }
+    
+    /**
+     * It runs the next tile
+     * @return TRUE when there are remaining tiles, FALSE otherwise
+     */
+    @Override
+    public boolean runSlice() {
+        return runTile();
+    }
+    
+    /**
+     * It computes the next tile claimed from the tiling
+     * @return TRUE when there are remaining tiles, FALSE otherwise
+     */
+    private boolean runTile()
+    {
+        if(control!=null && control.isStopped()) return false;
+        int tile=tiling.nextTile();
+        if(tile<0) return false;
+        
+        if(scratch==null) scratch=PairScratch.create();
+        PrimitiveSimilarityTriangularMatrix primitive=(matrix instanceof PrimitiveSimilarityTriangularMatrix)?
+                (PrimitiveSimilarityTriangularMatrix)matrix:null;
+        long cells=0;
+        int tr=tiling.tileRow(tile);
+        int tc=tiling.tileCol(tile);
+        int firstRow=tr*tiling.getTileSize();
+        int lastRow=firstRow+tiling.tileWidth(tr);
+        int firstCol=tc*tiling.getTileSize();
+        int lastCol=firstCol+tiling.tileWidth(tc);
+
+        for(int i=firstRow;i<lastRow;i++)
+        {
+            for(int j=Math.max(i, firstCol);j<lastCol;j++)
+            {
+                cells++;
+                if(behavioralOnly && refreshBehavioral(i,j,primitive,scratch)) continue;
+
+                ComposedIndex.computeCell(projects, matrix, primitive, raw, i, j, scratch, alfa,beta,gama,delta,w);
+            }
+        }
+
+        if(control!=null)
+        {
+            control.advance(cells);
+            if(control.isStopped()) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * It recomputes the behavioral part of a cell reusing its structural results
+     * @param i The row
+     * @param j The column
+     * @param primitive The matrix when it uses a primitive storage, null otherwise
+     * @param scratch The reusable state of the worker
+     * @return TRUE when the cell was refreshed, FALSE when it must be completely recomputed
+     */
+    private boolean refreshBehavioral(int i,int j,PrimitiveSimilarityTriangularMatrix primitive,PairScratch scratch)
+    {
+        if(primitive!=null)
+        {
+            double eq03=primitive.getValue(i, j, PrimitiveSimilarityTriangularMatrix.FIELD_EQ03_IDIST_STR);
+            double eq06=primitive.getValue(i, j, PrimitiveSimilarityTriangularMatrix.FIELD_EQ06_EDIST_STR);
+            if(!ComposedIndex.behavioralDistance(projects[i], projects[j], eq03, eq06, scratch, w)) return false;
+            
+            for(int field=PrimitiveSimilarityTriangularMatrix.FIELD_IDIST_BEH;field<=PrimitiveSimilarityTriangularMatrix.FIELD_CDIST;field++)
+                primitive.setValue(i, j, field, scratch.get(field));
+            if(raw!=null) raw.setBehavioral(i, j, scratch.get(PrimitiveSimilarityTriangularMatrix.FIELD_IDIST_BEH), scratch.get(PrimitiveSimilarityTriangularMatrix.FIELD_EDIST_BEH));
+            
+            return true;
+        }
+        
+        ComposedSimilarityNode cell=matrix.get(i, j);
+        if(cell==null || !ComposedIndex.behavioralDistance(projects[i], projects[j], cell.getEq03_idist_str(), cell.getEq06_edist_str(), scratch, w)) 
+            return false;
+        
+        cell.setIdist_beh(scratch.get(PrimitiveSimilarityTriangularMatrix.FIELD_IDIST_BEH));
+        cell.setEdist_beh(scratch.get(PrimitiveSimilarityTriangularMatrix.FIELD_EDIST_BEH));
+        cell.setIdist(scratch.get(PrimitiveSimilarityTriangularMatrix.FIELD_IDIST));
+        cell.setEdist(scratch.get(PrimitiveSimilarityTriangularMatrix.FIELD_EDIST));
+        cell.setCdist(scratch.getCdist());
+        if(raw!=null) raw.setBehavioral(i, j, scratch.get(PrimitiveSimilarityTriangularMatrix.FIELD_IDIST_BEH), scratch.get(PrimitiveSimilarityTriangularMatrix.FIELD_EDIST_BEH));
+        
+        return true;
+    }    
+}
@@ -0,0 +1,95 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It implements a struct-of-arrays triangular matrix using a tile-major layout. The matrix is
+ * divided into BxB tiles, and the cells of each tile are contiguous into the field arrays. So, the
+ * workers computing a whole tile read and write on a compact region of each array.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class TiledSimilarityTriangularMatrix extends StructOfArraysSimilarityTriangularMatrix{
+    /**
+     * The tiling used for locating the cells
+     */
+    private final TriangularTiling tiling;
+
+    /**
+     * Constructor where the dimension and the tile size are established for the triangular matrix.
+     * @param thedim The dimension will produce a dimxdim triangular matrix
+     * @param tileSize The number of rows and columns per tile
+     * @throws Exception An exception could happen when the dimension is null or lesser than 1, or even
+     * when the required space for the matrix is not available.
+     */
+    public TiledSimilarityTriangularMatrix(Integer thedim,int tileSize) throws Exception
+    {
+        super(thedim);
+        tiling=TriangularTiling.create(thedim, tileSize);
+    }
+
+    /**
+     * Default factory method
+     * @param thedim The dimension related to the triangular matrix
+     * @param tileSize The number of rows and columns per tile
+     * @return A new instance of the matrix
+     * @throws Exception it happens when the dimension is invalid or there is not the enough memory space.
+     */
+    public synchronized static TiledSimilarityTriangularMatrix create(int thedim,int tileSize) throws Exception
+    {
+        return new TiledSimilarityTriangularMatrix(thedim,tileSize);
+    }
+
+    @Override
+    public MatrixStorageMode getStorageMode()
+    {
+        return MatrixStorageMode.TILED;
+    }
+
+    /**
+     * @return the tiling used for locating the cells
+     */
+    public TriangularTiling getTiling() {
+        return tiling;
+    }
+
+    @Override
+    protected long cellPosition(int row,int col)
+    {
+        return tiling.position(row, col);
+    }
+
+    @Override
+    protected int rowOfPosition(long position)
+    {
+        return tiling.rowOfPosition(position);
+    }
+
+    @Override
+    protected int colOfPosition(long position)
+    {
+        return tiling.colOfPosition(position);
+    }
+
+    /**
+     * It generates a hard copy from the original matrix
+     * @return a new instance without any dependence on the original instance
+     * @throws Exception It is raised when some abnormality is detected in the constructor
+     */
+    @Override
+    public synchronized ComposedSimilarityTriangularMatrix duplicate() throws Exception
+    {
+        if(!isAllocated()) return null;
+
+        TiledSimilarityTriangularMatrix copy=new TiledSimilarityTriangularMatrix(getDim(),tiling.getTileSize());
+        for(int i=0;i<FIELDS;i++)
+            System.arraycopy(getField(i), 0, copy.getField(i), 0, getField(i).length);
+        if(getProjectIDs()!=null) copy.initializeCells(getProjectIDs());
+
+        return copy;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * It divides a dimxdim triangular matrix into BxB tiles (blocks). The tiles are numbered following
+ * the upper-triangular order of the tile grid, in the same way that the cells are numbered by
+ * ComposedSimilarityTriangularMatrix. The offsets are computed using long arithmetic, so the tiling supports
+ * matrices whose number of cells exceeds the int range. It provides the tile-major layout used by the TILED storage, where
+ * the cells of each tile are contiguous, and the cursor used by the workers for claiming whole tiles.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class TriangularTiling {
+    /**
+     * The default tile size (B)
+     */
+    public static final int DEFAULT_TILE_SIZE=64;
+    /**
+     * Total number of rows and columns of the matrix
+     */
+    private final int dim;
+    /**
+     * The number of rows and columns per tile
+     */
+    private final int tileSize;
+    /**
+     * The number of tiles per side
+     */
+    private final int tilesPerSide;
+    /**
+     * The number of cells located before each tile in the tile-major layout
+     */
+    private final long offsets[];
+    /**
+     * The number of cells of the triangular matrix
+     */
+    private final long cells;
+    /**
+     * The last tile claimed by the workers
+     */
+    private final AtomicLong cursor;
+
+    /**
+     * It creates a new tiling for the matrix
+     * @param pdim The dimension of the matrix
+     * @param ptileSize The number of rows and columns per tile
+     * @throws Exception It is raised when the dimension or the tile size are lesser than 1, or there are too many tiles
+     */
+    public TriangularTiling(int pdim,int ptileSize) throws Exception
+    {
+        if(pdim<1) throw new Exception("Invalid Dimmension");
+        if(ptileSize<1) throw new Exception("Invalid tile size");
+
+        dim=pdim;
+        tileSize=Math.min(ptileSize, pdim);
+        tilesPerSide=((dim-1)/tileSize)+1;
+        long ntiles=ComposedSimilarityTriangularMatrix.computingUnidimensionalMatrixLongSpace(tilesPerSide);
+        if(ntiles>Integer.MAX_VALUE) throw new Exception("Too many tiles. Increase the tile size.");
+
+        offsets=new long[(int)ntiles];
+        long acu=0;
+        int tile=0;
+        for(int tr=0;tr<tilesPerSide;tr++)
+            for(int tc=tr;tc<tilesPerSide;tc++)
+            {
+                offsets[tile++]=acu;
+                acu+=cellsInTile(tr,tc);
+            }
+        cells=acu;
+
+        cursor=new AtomicLong(-1);
+    }
+
+    /**
+     * Factory method
+     * @param pdim The dimension of the matrix
+     * @param ptileSize The number of rows and columns per tile
+     * @return A new instance
+     * @throws Exception It is raised when the dimension or the tile size are lesser than 1
+     */
+    public synchronized static TriangularTiling create(int pdim,int ptileSize) throws Exception
+    {
+        return new TriangularTiling(pdim,ptileSize);
+    }
+
+    /**
+     * @return the dimension of the matrix
+     */
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * @return the number of rows and columns per tile
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @return the number of tiles per side
+     */
+    public int getTilesPerSide() {
+        return tilesPerSide;
+    }
+
+    /**
+     * @return the number of tiles covering the triangular matrix
+     */
+    public int getTileCount() {
+        return offsets.length;
+    }
+
+    /**
+     * It computes the number of rows (or columns) covered by a tile row (or column)
+     * @param t The tile row (or column)
+     * @return The number of rows (or columns)
+     */
+    public int tileWidth(int t)
+    {
+        return (int)Math.min(tileSize, dim-(((long)t)*tileSize));
+    }
+
+    /**
+     * It computes the number of cells of the triangular matrix contained in a tile
+     * @param tr The tile row
+     * @param tc The tile column (tr must be lesser or equal than tc)
+     * @return The number of cells
+     */
+    public long cellsInTile(int tr,int tc)
+    {
+        long h=tileWidth(tr);
+        if(tr==tc) return (h*(h+1))/2;
+
+        return h*tileWidth(tc);
+    }
+
+    /**
+     * It returns the tile row related to a tile number
+     * @param tile The tile number between 0 and (getTileCount()-1)
+     * @return The tile row, -1 when the tile is out of range
+     */
+    public int tileRow(int tile)
+    {
+        return ComposedSimilarityTriangularMatrix.computingRowFromPosition(tilesPerSide, tile);
+    }
+
+    /**
+     * It returns the tile column related to a tile number
+     * @param tile The tile number between 0 and (getTileCount()-1)
+     * @return The tile column, -1 when the tile is out of range
+     */
+    public int tileCol(int tile)
+    {
+        long tr=tileRow(tile);
+        if(tr<0) return -1;
+
+        return (int)(tile-(tilesPerSide*tr)+((tr*(tr+1))/2));
+    }
+
+    /**
+     * It returns the tile number related to a tile row and column
+     * @param tr The tile row
+     * @param tc The tile column (tr must be lesser or equal than tc)
+     * @return The tile number, -1 when the tile row or column are out of range
+     */
+    public int tile(int tr,int tc)
+    {
+        if(tr<0 || tc<tr || tc>=tilesPerSide) return -1;
+        long ltr=tr;
+        
+        return (int)((tilesPerSide*ltr)+tc-((ltr*(ltr+1))/2));
+    }
+
+    /**
+     * It computes the position of a cell in the tile-major layout, where the cells of each tile are contiguous.
+     * Mandatory: row must be lesser or equal than col
+     * @param row the number of row between 0 and (dim-1)
+     * @param col the number of column between 0 and (dim-1)
+     * @return The position in the tile-major layout, -1 when the row or column are out of range
+     */
+    public long position(int row,int col)
+    {
+        if(row<0 || col<row || col>=dim) return -1;
+        
+        int tr=row/tileSize;
+        int tc=col/tileSize;
+        long lr=row-(((long)tr)*tileSize);
+        long lc=col-(((long)tc)*tileSize);
+        long base=offsets[tile(tr,tc)];
+
+        if(tr==tc)
+        {
+            long h=tileWidth(tr);
+            return base+((h*lr)+lc-((lr*(lr+1))/2));
+        }
+
+        return base+(lr*tileWidth(tc))+lc;
+    }
+
+    /**
+     * It returns the tile containing a position of the tile-major layout
+     * @param position The position in the tile-major layout
+     * @return The tile number
+     */
+    private int tileOfPosition(long position)
+    {
+        int lo=0;
+        int hi=offsets.length-1;
+        while(lo<hi)
+        {
+            int mid=(lo+hi+1)>>>1;
+            if(offsets[mid]<=position) lo=mid;
+            else hi=mid-1;
+        }
+
+        return lo;
+    }
+
+    /**
+     * It returns the row related to a position of the tile-major layout
+     * @param position The position in the tile-major layout
+     * @return The row between 0 and (dim-1), -1 when the position is out of range
+     */
+    public int rowOfPosition(long position)
+    {
+        if(position<0 || position>=cells) return -1;
+        
+        int tile=tileOfPosition(position);
+        int tr=tileRow(tile);
+        int tc=tileCol(tile);
+        long local=position-offsets[tile];
+
+        if(tr==tc)
+            return (int)((((long)tr)*tileSize)+ComposedSimilarityTriangularMatrix.computingRowFromPosition(tileWidth(tr), local));
+
+        return (int)((((long)tr)*tileSize)+(local/tileWidth(tc)));
+    }
+
+    /**
+     * It returns the column related to a position of the tile-major layout
+     * @param position The position in the tile-major layout
+     * @return The column between 0 and (dim-1), -1 when the position is out of range
+     */
+    public int colOfPosition(long position)
+    {
+        if(position<0 || position>=cells) return -1;
+        
+        int tile=tileOfPosition(position);
+        int tr=tileRow(tile);
+        int tc=tileCol(tile);
+        long local=position-offsets[tile];
+
+        if(tr==tc)
+        {
+            long h=tileWidth(tr);
+            long lr=ComposedSimilarityTriangularMatrix.computingRowFromPosition(h, local);
+            return (int)((((long)tc)*tileSize)+local-(h*lr)+((lr*(lr+1))/2));
+        }
+
+        return (int)((((long)tc)*tileSize)+(local%tileWidth(tc)));
+    }
+
+    /**
+     * It lets a worker claim the next tile to be computed
+     * @return The tile number, -1 when all the tiles were claimed
+     */
+    public int nextTile()
+    {
+        long next=cursor.incrementAndGet();
+        if(next>=offsets.length) return -1;
+
+        return (int)next;
+    }
+
+    /**
+     * It restarts the cursor used for claiming the tiles
+     */
+    public void restart()
+    {
+        cursor.set(-1);
+    }
+}
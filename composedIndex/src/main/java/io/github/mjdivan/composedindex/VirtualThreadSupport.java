@@ -0,0 +1,100 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * It creates the executors used by the estimations and the ingestion tasks. On JDK 21 or later, the VIRTUAL_THREADS
+ * strategy runs each task on a new virtual thread (See Executors.newVirtualThreadPerTaskExecutor), so creating the 
+ * executor per run costs almost nothing, and the blocking steps (e.g., reading stats from disk) release the carrier
+ * threads. The executor is obtained by reflection for keeping the library compatible with Java 8. On older JDKs, or
+ * when the composedIndex.disableVirtualThreads system property is true, platform threads are used instead.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class VirtualThreadSupport {
+    /**
+     * The factory method of the virtual-thread executor, null when it is not available
+     */
+    private static final Method FACTORY=lookup();
+
+    /**
+     * It looks up the factory method of the virtual-thread executor
+     * @return The method, null when it is not available or it was disabled
+     */
+    private static Method lookup()
+    {
+        if(Boolean.getBoolean("composedIndex.disableVirtualThreads")) return null;
+        try{
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }catch(NoSuchMethodException | SecurityException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return TRUE when the virtual threads are available on the running JVM, FALSE otherwise
+     */
+    public static boolean isAvailable()
+    {
+        return FACTORY!=null;
+    }
+
+    /**
+     * It creates an executor running each task on a new virtual thread
+     * @return The executor, null when the virtual threads are not available
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor()
+    {
+        if(FACTORY==null) return null;
+        try{
+            return (ExecutorService)FACTORY.invoke(null);
+        }catch(Exception e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * It creates the executor for running a fixed number of workers
+     * @param strategy The execution strategy
+     * @param nthreads The number of workers
+     * @return A virtual-thread executor for the VIRTUAL_THREADS strategy when it is available, a fixed pool of
+     * platform threads otherwise
+     */
+    public static ExecutorService newExecutor(ExecutionStrategy strategy,int nthreads)
+    {
+        if(strategy==ExecutionStrategy.VIRTUAL_THREADS)
+        {
+            ExecutorService ret=newVirtualThreadPerTaskExecutor();
+            if(ret!=null) return ret;
+        }
+
+        return Executors.newFixedThreadPool(Math.max(1, nthreads));
+    }
+
+    /**
+     * It creates the executor for the blocking ingestion tasks
+     * @param strategy The execution strategy
+     * @return A virtual-thread executor for the VIRTUAL_THREADS strategy when it is available, a cached pool of
+     * platform threads otherwise
+     */
+    public static ExecutorService newIngestionExecutor(ExecutionStrategy strategy)
+    {
+        if(strategy==ExecutionStrategy.VIRTUAL_THREADS)
+        {
+            ExecutorService ret=newVirtualThreadPerTaskExecutor();
+            if(ret!=null) return ret;
+        }
+
+        return Executors.newCachedThreadPool();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import org.ciedayap.ipd.exception.ProcessingException;
+
+/**
+ * It represents a tuple of alfa, beta, gama, delta, and w parameters used by a downstream consumer
+ * for weighting the composed index (See ComposedIndex.updateProfiledEstimation).
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class WeightingProfile {
+    /**
+     * The name of the profile
+     */
+    private final String name;
+    /**
+     * The relative importance of entity states against transitions
+     */
+    private final double alfa;
+    /**
+     * The relative importance of entities against states
+     */
+    private final double beta;
+    /**
+     * The relative importance of scenarios against transitions
+     */
+    private final double gama;
+    /**
+     * The relative importance of contexts against scenarios
+     */
+    private final double delta;
+    /**
+     * The relative importance of the internal against external distances
+     */
+    private final double w;
+
+    /**
+     * It creates a new profile
+     * @param pname The name of the profile
+     * @param palfa The alfa parameter. The relative importance of entity states against transitions. A value between 0 and 1.
+     * @param pbeta The beta parameter. The relative importance of entities against states. A value between 0 and 1.
+     * @param pgama The gama parameter. The relative importance of scenarios against transitions. A value between 0 and 1.
+     * @param pdelta The delta parameter. The relative importance of contexts against scenarios. A value between 0 and 1.
+     * @param pw The w parameter. The relative importance of the internal against external distances. A value between 0 and 1. 
+     * @throws ProcessingException It is raised when the name is null or empty, or some parameters (i.e., alfa, beta, gamma, 
+     * delta, or w) are out of range [0; 1]
+     */
+    public WeightingProfile(String pname,double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        if(pname==null || pname.trim().isEmpty()) throw new ProcessingException("The profile name is null or empty");
+        if(palfa<0 || palfa>1) throw new ProcessingException("The alfa parameter is out of range [0; 1]");
+        if(pbeta<0 || pbeta>1) throw new ProcessingException("The beta parameter is out of range [0; 1]");
+        if(pdelta<0 || pdelta>1) throw new ProcessingException("The delta parameter is out of range [0; 1]");
+        if(pgama<0 || pgama>1) throw new ProcessingException("The gama parameter is out of range [0; 1]");
+        if(pw<0 || pw>1) throw new ProcessingException("The w parameter is out of range [0; 1]");
+        
+        this.name=pname;
+        this.alfa=palfa;
+        this.beta=pbeta;
+        this.gama=pgama;
+        this.delta=pdelta;
+        this.w=pw;
+    }
+    
+    /**
+     * Factory method
+     * @param pname The name of the profile
+     * @param palfa The alfa parameter. A value between 0 and 1.
+     * @param pbeta The beta parameter. A value between 0 and 1.
+     * @param pgama The gama parameter. A value between 0 and 1.
+     * @param pdelta The delta parameter. A value between 0 and 1.
+     * @param pw The w parameter. A value between 0 and 1.
+     * @return A new profile
+     * @throws ProcessingException It is raised when the name is null or empty, or some parameter is out of range [0; 1]
+     */
+    public synchronized static WeightingProfile create(String pname,double palfa, double pbeta, double pgama, double pdelta, double pw) throws ProcessingException
+    {
+        return new WeightingProfile(pname, palfa, pbeta, pgama, pdelta, pw);
+    }
+
+    /**
+     * @return the name of the profile
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the alfa parameter
+     */
+    public double getAlfa() {
+        return alfa;
+    }
+
+    /**
+     * @return the beta parameter
+     */
+    public double getBeta() {
+        return beta;
+    }
+
+    /**
+     * @return the gama parameter
+     */
+    public double getGama() {
+        return gama;
+    }
+
+    /**
+     * @return the delta parameter
+     */
+    public double getDelta() {
+        return delta;
+    }
+
+    /**
+     * @return the w parameter
+     */
+    public double getW() {
+        return w;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return name+" [alfa: "+alfa+" beta: "+beta+" gama: "+gama+" delta: "+delta+" w: "+w+"]";
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It chooses the number of workers of the estimations from the number of cores and the observed throughput 
+ * (cells per second), instead of the matrix size. It starts with one worker per core. Each exploration measures
+ * the current number of workers, and then it halves the number of workers while the throughput improves (e.g., when
+ * the memory bandwidth or some contention limits the scalability). When halving does not improve the throughput, it
+ * doubles the number of workers (up to the maximum) while the throughput improves. Once the throughput decreases, it
+ * keeps the best observed number of workers, whose throughput is smoothed through an exponential moving average.
+ * The exploration is restarted from the kept number of workers every REEXPLORE_RUNS runs, so it follows the changes
+ * in the load of the host in both directions.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class WorkerSizing {
+    /**
+     * The relative improvement of the throughput required for preferring a different number of workers
+     */
+    public static final double TOLERANCE=0.05;
+    /**
+     * The number of runs after which the exploration is restarted
+     */
+    public static final int REEXPLORE_RUNS=32;
+    /**
+     * The weight of the last run in the moving average of the throughput
+     */
+    public static final double SMOOTHING=0.2;
+    /**
+     * The maximum number of workers
+     */
+    private final int maxWorkers;
+    /**
+     * The number of workers for the next run
+     */
+    private int workers;
+    /**
+     * The number of workers with the best observed throughput
+     */
+    private int bestWorkers;
+    /**
+     * The best observed throughput in cells per nanosecond
+     */
+    private double bestThroughput;
+    /**
+     * It indicates whether the number of workers is being explored
+     */
+    private boolean exploring;
+    /**
+     * The direction of the exploration: 0 while measuring the starting number of workers, -1 while halving,
+     * and 1 while doubling
+     */
+    private int direction;
+    /**
+     * The number of workers from which the exploration started
+     */
+    private int startWorkers;
+    /**
+     * The number of runs since the last exploration
+     */
+    private int runs;
+
+    /**
+     * It creates a new instance
+     * @param pmaxWorkers The maximum number of workers
+     */
+    public WorkerSizing(int pmaxWorkers)
+    {
+        maxWorkers=Math.max(1, pmaxWorkers);
+        restart();
+    }
+
+    /**
+     * Factory method
+     * @return A new instance where the maximum number of workers is the number of available processors
+     */
+    public synchronized static WorkerSizing create()
+    {
+        return new WorkerSizing(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * It restarts the exploration from one worker per core
+     */
+    public final synchronized void restart()
+    {
+        explore(maxWorkers);
+    }
+    
+    /**
+     * It starts an exploration from the indicated number of workers
+     * @param from The starting number of workers
+     */
+    private void explore(int from)
+    {
+        workers=from;
+        bestWorkers=from;
+        startWorkers=from;
+        bestThroughput=0;
+        exploring=true;
+        direction=0;
+        runs=0;
+    }
+
+    /**
+     * @return the maximum number of workers
+     */
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    /**
+     * @return the number of workers for the next run
+     */
+    public synchronized int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return the best observed throughput in cells per second, 0 when no run has been recorded
+     */
+    public synchronized double getBestThroughput() {
+        return bestThroughput*1e9;
+    }
+
+    /**
+     * It records the result of a run, choosing the number of workers for the next one
+     * @param pworkers The number of workers used by the run
+     * @param cells The number of computed cells
+     * @param nanos The duration of the run
+     */
+    public synchronized void record(int pworkers,long cells,long nanos)
+    {
+        if(pworkers<1 || cells<=0 || nanos<=0) return;
+        double throughput=((double)cells)/((double)nanos);
+
+        if(!exploring)
+        {
+            //It follows the current load of the host without reacting to a single noisy run
+            if(pworkers==bestWorkers) bestThroughput+=SMOOTHING*(throughput-bestThroughput);
+            runs++;
+            if(runs>=REEXPLORE_RUNS) explore(bestWorkers);
+            return;
+        }
+
+        if(direction==0 || throughput>bestThroughput*(1+TOLERANCE))
+        {
+            bestThroughput=throughput;
+            bestWorkers=pworkers;
+            if(direction==0) direction=(pworkers>1)?-1:1;
+            if(step(pworkers)) return;
+        }
+        
+        //Halving did not improve the throughput, so it tries doubling from the starting number of workers
+        if(direction<0 && bestWorkers==startWorkers)
+        {
+            direction=1;
+            if(step(bestWorkers)) return;
+        }
+
+        //The throughput did not improve in any direction
+        workers=bestWorkers;
+        exploring=false;
+        runs=0;
+    }
+    
+    /**
+     * It moves the number of workers one step in the current direction
+     * @param from The number of workers from which the step is given
+     * @return TRUE when the number of workers changed, FALSE when the limit was reached
+     */
+    private boolean step(int from)
+    {
+        int next=(direction<0)?from/2:Math.min(maxWorkers, from*2);
+        if(next<1 || next==from) return false;
+        
+        workers=next;
+        return true;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+/**
+ * It is the entry point to the hot loops used for comparing two nodes. This version is used on Java 17+ through
+ * the multi-release JAR. It delegates on the vectorized kernels when the jdk.incubator.vector module has been
+ * resolved (i.e., the JVM was started with --add-modules jdk.incubator.vector), and on the scalar kernels otherwise.
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class SimilarityKernels {
+    /**
+     * It indicates whether the vectorized kernels are used
+     */
+    private static final boolean VECTORIZED=vectorAvailable();
+
+    /**
+     * It verifies whether the Vector API module is present in the boot layer and can be used. The vectorized
+     * kernels are not loaded when the module is missing, and they are checked against the scalar kernels before
+     * being used, so any linkage error or mismatch falls back to the scalar kernels.
+     * @return TRUE when the vectorized kernels can be used, FALSE otherwise
+     */
+    private static boolean vectorAvailable()
+    {
+        if(Boolean.getBoolean("composedIndex.disableVector")) return false;
+        if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) return false;
+
+        try{
+            return VectorSimilarityKernels.laneCount()>1 && selfTest(VectorSimilarityKernels.laneCount());
+        }catch(Throwable e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * It compares the vectorized kernels against the scalar kernels, covering full vectors and tails
+     * @param lanes The number of doubles processed per vector
+     * @return TRUE when both kernels produce the same results, FALSE otherwise
+     */
+    private static boolean selfTest(int lanes)
+    {
+        int n=(2*lanes)+3;
+        long a[]=new long[n];
+        long b[]=new long[n];
+        double mean1[]=new double[n];
+        double spread1[]=new double[n];
+        double mean2[]=new double[n];
+        double spread2[]=new double[n];
+        for(int i=0;i<n;i++)
+        {
+            a[i]=0x9E3779B97F4A7C15L*(i+1);
+            b[i]=0xC2B2AE3D27D4EB4FL*(i+7);
+            mean1[i]=i;
+            spread1[i]=(i%3==0)?0:0.5*(i+1);
+            mean2[i]=(i%2==0)?i:i+1.5;
+            spread2[i]=(i%4==0)?0:0.25*(i+2);
+        }
+        if(VectorSimilarityKernels.intersectionCount(a, b)!=ScalarSimilarityKernels.intersectionCount(a, b)) return false;
+        if(VectorSimilarityKernels.unionCount(a, b)!=ScalarSimilarityKernels.unionCount(a, b)) return false;
+
+        double vector[]=new double[2];
+        double scalar[]=new double[2];
+        VectorSimilarityKernels.izpiSum(mean1, spread1, mean2, spread2, n, vector);
+        ScalarSimilarityKernels.izpiSum(mean1, spread1, mean2, spread2, n, scalar);
+
+        return vector[1]==scalar[1] && Math.abs(vector[0]-scalar[0])<=1e-9;
+    }
+
+    /**
+     * @return TRUE when the kernels are vectorized, FALSE otherwise
+     */
+    public static boolean isVectorized()
+    {
+        return VECTORIZED;
+    }
+
+    /**
+     * It computes the number of bits set in both bitsets
+     * @param a The first bitset
+     * @param b The second bitset
+     * @return The number of common bits
+     */
+    public static int intersectionCount(long a[],long b[])
+    {
+        if(VECTORIZED) return VectorSimilarityKernels.intersectionCount(a, b);
+
+        return ScalarSimilarityKernels.intersectionCount(a, b);
+    }
+
+    /**
+     * It computes the number of bits set in any of the bitsets
+     * @param a The first bitset
+     * @param b The second bitset
+     * @return The number of bits in the union
+     */
+    public static int unionCount(long a[],long b[])
+    {
+        if(VECTORIZED) return VectorSimilarityKernels.unionCount(a, b);
+
+        return ScalarSimilarityKernels.unionCount(a, b);
+    }
+
+    /**
+     * It computes the Z-test interpretation (See equations 8/11 and 9/12) for a batch of attributes
+     * (See ScalarSimilarityKernels.izpiSum)
+     * @param mean1 The mean of each attribute in the project 1
+     * @param spread1 The variance divided by n of each attribute in the project 1
+     * @param mean2 The mean of each attribute in the project 2
+     * @param spread2 The variance divided by n of each attribute in the project 2
+     * @param n The number of attributes in the batch
+     * @param result The array where the sum of the interpretations (position 0) and the number of attributes 
+     * with values (position 1) are stored
+     */
+    public static void izpiSum(double mean1[],double spread1[],double mean2[],double spread2[],int n,double result[])
+    {
+        if(VECTORIZED) VectorSimilarityKernels.izpiSum(mean1, spread1, mean2, spread2, n, result);
+        else ScalarSimilarityKernels.izpiSum(mean1, spread1, mean2, spread2, n, result);
+    }
+}
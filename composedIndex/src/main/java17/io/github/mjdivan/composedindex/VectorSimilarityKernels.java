@@ -0,0 +1,150 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package io.github.mjdivan.composedindex;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * It implements the vectorized version of the hot loops used for comparing two nodes through the Vector API
+ * (jdk.incubator.vector), using the preferred species (i.e., the widest vector supported by the CPU). The tails
+ * shorter than a vector are solved with the scalar kernels. It is only available on Java 17+, and it must not be
+ * used directly (See SimilarityKernels).
+ *
+ * @author mjdivan
+ * @version 1.0
+ */
+public class VectorSimilarityKernels {
+    private static final VectorSpecies<Long> LONGS=LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES=DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * @return the number of doubles processed per vector
+     */
+    static int laneCount()
+    {
+        return DOUBLES.length();
+    }
+
+    /**
+     * It computes the number of bits set in each lane (SWAR population count, since VectorOperators.BIT_COUNT
+     * is not available on Java 17)
+     * @param v The vector
+     * @return A vector containing the number of bits set in each lane
+     */
+    private static LongVector bitCount(LongVector v)
+    {
+        v=v.sub(v.lanewise(VectorOperators.LSHR, 1).and(0x5555555555555555L));
+        v=v.and(0x3333333333333333L).add(v.lanewise(VectorOperators.LSHR, 2).and(0x3333333333333333L));
+        v=v.add(v.lanewise(VectorOperators.LSHR, 4)).and(0x0F0F0F0F0F0F0F0FL);
+
+        return v.mul(0x0101010101010101L).lanewise(VectorOperators.LSHR, 56);
+    }
+
+    /**
+     * It computes the number of bits set in both bitsets
+     * @param a The first bitset
+     * @param b The second bitset
+     * @return The number of common bits
+     */
+    public static int intersectionCount(long a[],long b[])
+    {
+        int n=Math.min(a.length, b.length);
+        int upper=LONGS.loopBound(n);
+        int common=0;
+        int i=0;
+        for(;i<upper;i+=LONGS.length())
+        {
+            LongVector va=LongVector.fromArray(LONGS, a, i);
+            LongVector vb=LongVector.fromArray(LONGS, b, i);
+            common+=(int)bitCount(va.and(vb)).reduceLanes(VectorOperators.ADD);
+        }
+        for(;i<n;i++) common+=Long.bitCount(a[i]&b[i]);
+
+        return common;
+    }
+
+    /**
+     * It computes the number of bits set in any of the bitsets
+     * @param a The first bitset
+     * @param b The second bitset
+     * @return The number of bits in the union
+     */
+    public static int unionCount(long a[],long b[])
+    {
+        if(a.length<b.length)
+        {
+            long t[]=a;
+            a=b;
+            b=t;
+        }
+        int upper=LONGS.loopBound(b.length);
+        int union=0;
+        int i=0;
+        for(;i<upper;i+=LONGS.length())
+        {
+            LongVector va=LongVector.fromArray(LONGS, a, i);
+            LongVector vb=LongVector.fromArray(LONGS, b, i);
+            union+=(int)bitCount(va.or(vb)).reduceLanes(VectorOperators.ADD);
+        }
+        for(;i<b.length;i++) union+=Long.bitCount(a[i]|b[i]);
+        for(;i<a.length;i++) union+=Long.bitCount(a[i]);
+
+        return union;
+    }
+
+    /**
+     * It computes the Z-test interpretation (See equations 8/11 and 9/12) for a batch of attributes
+     * (See ScalarSimilarityKernels.izpiSum)
+     * @param mean1 The mean of each attribute in the project 1
+     * @param spread1 The variance divided by n of each attribute in the project 1
+     * @param mean2 The mean of each attribute in the project 2
+     * @param spread2 The variance divided by n of each attribute in the project 2
+     * @param n The number of attributes in the batch
+     * @param result The array where the sum of the interpretations (position 0) and the number of attributes 
+     * with values (position 1) are stored
+     */
+    public static void izpiSum(double mean1[],double spread1[],double mean2[],double spread2[],int n,double result[])
+    {
+        int upper=DOUBLES.loopBound(n);
+        DoubleVector acu=DoubleVector.zero(DOUBLES);
+        int nwithValues=0;
+        int i=0;
+        for(;i<upper;i+=DOUBLES.length())
+        {
+            DoubleVector m1=DoubleVector.fromArray(DOUBLES, mean1, i);
+            DoubleVector s1=DoubleVector.fromArray(DOUBLES, spread1, i);
+            DoubleVector m2=DoubleVector.fromArray(DOUBLES, mean2, i);
+            DoubleVector s2=DoubleVector.fromArray(DOUBLES, spread2, i);
+            DoubleVector z=m1.sub(m2).div(s1.add(s2).sqrt()).abs();
+
+            VectorMask<Double> withValues=z.test(VectorOperators.IS_NAN).not();
+            //3-|z| in [2; 3], 1 under 2, and 0 over 3
+            DoubleVector izpi=z.neg().add(3.0)
+                    .blend(1.0, z.lt(2.0))
+                    .blend(0.0, z.compare(VectorOperators.GT, 3.0));
+            acu=acu.add(izpi, withValues);
+            nwithValues+=withValues.trueCount();
+        }
+
+        double sum=acu.reduceLanes(VectorOperators.ADD);
+        for(;i<n;i++)
+        {
+            double z=Math.abs((mean1[i]-mean2[i])/Math.sqrt(spread1[i]+spread2[i]));
+            if(Double.isNaN(z)) continue;
+
+            if(z<2) sum+=1.0;
+            else if(z<=3) sum+=3.0-z;
+            nwithValues++;
+        }
+
+        result[0]=sum;
+        result[1]=nwithValues;
+    }
+}